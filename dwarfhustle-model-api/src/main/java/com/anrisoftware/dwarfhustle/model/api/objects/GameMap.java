@@ -21,12 +21,8 @@ import static com.anrisoftware.dwarfhustle.model.api.objects.ExternalizableUtils
 import static com.anrisoftware.dwarfhustle.model.api.objects.ExternalizableUtils.readStreamIntIntMap;
 import static com.anrisoftware.dwarfhustle.model.api.objects.ExternalizableUtils.readStreamIntIntMultimap;
 import static com.anrisoftware.dwarfhustle.model.api.objects.ExternalizableUtils.readStreamIntLongMultimap;
-import static com.anrisoftware.dwarfhustle.model.api.objects.ExternalizableUtils.readStreamIntObjectMapReader;
 import static com.anrisoftware.dwarfhustle.model.api.objects.ExternalizableUtils.writeStreamIntCollection;
-import static com.anrisoftware.dwarfhustle.model.api.objects.ExternalizableUtils.writeStreamIntIntMap;
-import static com.anrisoftware.dwarfhustle.model.api.objects.ExternalizableUtils.writeStreamIntIntMultimap;
 import static com.anrisoftware.dwarfhustle.model.api.objects.ExternalizableUtils.writeStreamIntLongMultimap;
-import static com.anrisoftware.dwarfhustle.model.api.objects.ExternalizableUtils.writeStreamIntObjectMap;
 import static com.anrisoftware.dwarfhustle.model.api.objects.GameBlockPos.calcIndex;
 
 import java.io.DataInput;
@@ -36,21 +32,16 @@ import java.io.ObjectInput;
 import java.io.ObjectOutput;
 import java.io.Serializable;
 import java.time.ZoneOffset;
-import java.util.concurrent.Semaphore;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.StampedLock;
 
+import org.eclipse.collections.api.block.procedure.primitive.IntProcedure;
 import org.eclipse.collections.api.collection.MutableCollection;
 import org.eclipse.collections.api.factory.primitive.IntIntMaps;
 import org.eclipse.collections.api.factory.primitive.IntLists;
-import org.eclipse.collections.api.factory.primitive.IntObjectMaps;
-import org.eclipse.collections.api.factory.primitive.IntSets;
 import org.eclipse.collections.api.list.primitive.MutableIntList;
-import org.eclipse.collections.api.map.primitive.IntIntMap;
-import org.eclipse.collections.api.map.primitive.IntObjectMap;
-import org.eclipse.collections.api.map.primitive.MutableIntObjectMap;
+import org.eclipse.collections.api.map.primitive.MutableIntIntMap;
 import org.eclipse.collections.api.multimap.MutableMultimap;
 import org.eclipse.collections.api.set.primitive.IntSet;
-import org.eclipse.collections.api.set.primitive.MutableIntSet;
 import org.eclipse.collections.impl.factory.Multimaps;
 
 import com.google.auto.service.AutoService;
@@ -59,7 +50,6 @@ import lombok.Data;
 import lombok.EqualsAndHashCode;
 import lombok.SneakyThrows;
 import lombok.ToString;
-import lombok.val;
 
 /**
  * Information about the game.
@@ -123,6 +113,22 @@ public class GameMap extends GameObject implements StoredObject {
 
     public static final int OBJECT_TYPE = GameMap.class.getSimpleName().hashCode();
 
+    /**
+     * Count of the locks over the map objects, must be a power of two.
+     */
+    public static final int OBJECTS_LOCK_STRIPES = 64;
+
+    /**
+     * Size of the lock cells if the map does not have a chunk size.
+     */
+    private static final int DEFAULT_LOCK_CELL_SIZE = 16;
+
+    /**
+     * Version of the stream layout. Written negated in place of the count of the
+     * filled blocks of the layout without a version, so both layouts are read.
+     */
+    public static final int STREAM_VERSION = 1;
+
     /**
      * Record ID set after the object was once stored in the backend.
      */
@@ -161,20 +167,13 @@ public class GameMap extends GameObject implements StoredObject {
 
     private int climateZone;
 
-    /**
-     * Contains the chunks and block indices that have objects.
-     */
-    @EqualsAndHashCode.Exclude
-    @ToString.Exclude
-    private MutableMultimap<Integer, Integer> filledChunks;
-
     /**
      * Contains the indices of blocks that have at least one {@link GameMapObject},
-     * with the objects count.
+     * with the objects count, striped by the chunks.
      */
     @EqualsAndHashCode.Exclude
     @ToString.Exclude
-    private IntObjectMap<AtomicInteger> filledBlocks;
+    private MapOccupancy filledBlocks;
 
     /**
      * A list of the selected blocks indices.
@@ -191,18 +190,28 @@ public class GameMap extends GameObject implements StoredObject {
     private long cursorObject = 0;
 
     /**
-     * Cashes the chunk ID for the block index.
+     * Flat index of the leaf chunks, see {@link MapChunksIndex}. Returns the
+     * chunk ID for the block index. Volatile to safely publish the cells of the
+     * index that are filled after the index is created.
+     */
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private volatile MapChunksIndex chunksIndex;
+
+    /**
+     * Spatial index of the map objects, see {@link MapObjectsIndex}. The index
+     * is not stored.
      */
     @EqualsAndHashCode.Exclude
     @ToString.Exclude
-    private IntIntMap cids;
+    private final MapObjectsIndex objectsIndex = new MapObjectsIndex();
 
     /**
-     * Lock to get game map objects.
+     * Locks to get game map objects, striped by the chunk cells of the blocks.
      */
     @EqualsAndHashCode.Exclude
     @ToString.Exclude
-    private final Semaphore objectsLock;
+    private final StampedLock[] objectsLocks;
 
     /**
      * Sets the ID of the selected object.
@@ -226,14 +235,10 @@ public class GameMap extends GameObject implements StoredObject {
     private MutableMultimap<Integer, Long> typesObjects;
 
     public GameMap() {
-        final MutableIntObjectMap<AtomicInteger> filledBlocks = IntObjectMaps.mutable.withInitialCapacity(100);
-        this.filledBlocks = filledBlocks.asSynchronized();
-        final MutableMultimap<Integer, Integer> filledChunks = Multimaps.mutable.set.empty();
-        this.filledChunks = filledChunks.asSynchronized();
+        this.filledBlocks = new MapOccupancy();
         final MutableIntList selectedBlocks = IntLists.mutable.empty();
         this.selectedBlocks = selectedBlocks.asSynchronized();
-        this.cids = IntIntMaps.immutable.empty();
-        this.objectsLock = new Semaphore(1);
+        this.objectsLocks = createObjectsLocks();
         final MutableMultimap<Integer, Long> typesObjects = Multimaps.mutable.set.empty();
         this.typesObjects = typesObjects.asSynchronized();
     }
@@ -243,14 +248,10 @@ public class GameMap extends GameObject implements StoredObject {
         this.width = width;
         this.height = height;
         this.depth = depth;
-        final MutableIntObjectMap<AtomicInteger> filledBlocks = IntObjectMaps.mutable
-                .withInitialCapacity(width * height * depth);
-        this.filledBlocks = filledBlocks.asSynchronized();
-        final MutableMultimap<Integer, Integer> filledChunks = Multimaps.mutable.set.empty();
-        this.filledChunks = filledChunks.asSynchronized();
+        this.filledBlocks = new MapOccupancy();
         final MutableIntList selectedBlocks = IntLists.mutable.empty();
         this.selectedBlocks = selectedBlocks.asSynchronized();
-        this.objectsLock = new Semaphore(1);
+        this.objectsLocks = createObjectsLocks();
         final MutableMultimap<Integer, Long> typesObjects = Multimaps.mutable.set.empty();
         this.typesObjects = typesObjects.asSynchronized();
     }
@@ -316,40 +317,44 @@ public class GameMap extends GameObject implements StoredObject {
     }
 
     public void addFilledBlock(int cid, int index) {
-        final var filledBlocks = (MutableIntObjectMap<AtomicInteger>) this.filledBlocks;
-        filledBlocks.getIfAbsentPut(index, new AtomicInteger(0)).updateAndGet(it -> {
-            it++;
-            this.filledChunks.put(cid, index);
-            return it;
-        });
+        filledBlocks.add(cid, index);
     }
 
     public void removeFilledBlock(int cid, int index) {
-        final var filledBlocks = (MutableIntObjectMap<AtomicInteger>) this.filledBlocks;
-        filledBlocks.getIfAbsentPut(index, new AtomicInteger(0)).updateAndGet(it -> {
-            it--;
-            if (it == 0) {
-                filledBlocks.remove(index);
-                this.filledChunks.remove(cid, index);
-            }
-            return it;
-        });
+        filledBlocks.remove(cid, index);
     }
 
     /**
      * Returns true if the given {@link MapBlock} have any game objects.
      */
     public boolean isFilledBlock(MapBlock mb) {
-        final int index = GameBlockPos.calcIndex(this, mb.getPos());
-        final var count = this.filledBlocks.get(index);
-        return count != null && count.get() > 0;
+        return filledBlocks.isFilled(GameBlockPos.calcIndex(this, mb.getPos()));
+    }
+
+    /**
+     * Returns true if the block with the map index have any game objects.
+     */
+    public boolean isFilledBlock(int index) {
+        return filledBlocks.isFilled(index);
+    }
+
+    /**
+     * Calls the procedure with the indices of the blocks of the chunk that have
+     * any game objects.
+     */
+    public void forEachFilledBlock(int cid, IntProcedure procedure) {
+        filledBlocks.forEachBlock(cid, procedure);
     }
 
     /**
      * Returns the chunk ID for the block index.
      */
     public int getCid(int index) {
-        return this.cids.get(index);
+        final var chunksIndex = this.chunksIndex;
+        if (chunksIndex == null) {
+            return 0;
+        }
+        return chunksIndex.getCid(index);
     }
 
     @Override
@@ -386,21 +391,19 @@ public class GameMap extends GameObject implements StoredObject {
         out.writeFloat(this.sunPos[1]);
         out.writeFloat(this.sunPos[2]);
         out.writeInt(this.climateZone);
-        writeStreamIntObjectMap(out, this.filledBlocks, this::writeAtomicInt);
-        writeStreamIntIntMultimap(out, this.filledChunks);
+        out.writeInt(-STREAM_VERSION);
+        this.filledBlocks.writeStream(out);
         writeStreamIntCollection(out, selectedBlocks.size(), selectedBlocks);
         out.writeLong(this.cursorObject);
-        writeStreamIntIntMap(out, cids);
+        out.writeBoolean(chunksIndex != null);
+        if (chunksIndex != null) {
+            chunksIndex.writeStream(out);
+        }
         out.writeInt(selectedObjectType);
         out.writeLong(selectedObjectId);
         writeStreamIntLongMultimap(out, typesObjects);
     }
 
-    @SneakyThrows
-    private void writeAtomicInt(DataOutput out, AtomicInteger i) {
-        out.writeInt(i.get());
-    }
-
     @Override
     public void readStream(DataInput in) throws IOException {
         super.readStream(in);
@@ -425,23 +428,47 @@ public class GameMap extends GameObject implements StoredObject {
         this.sunPos[1] = in.readFloat();
         this.sunPos[2] = in.readFloat();
         this.climateZone = in.readInt();
-        final var filledBlocks = readStreamIntObjectMapReader(in, this::readAtomicInt);
-        this.filledBlocks = filledBlocks.asSynchronized();
-        final var filledChunks = readStreamIntIntMultimap(in, () -> Multimaps.mutable.set.empty());
-        this.filledChunks = filledChunks.asSynchronized();
+        final int version = in.readInt();
+        if (version < -STREAM_VERSION) {
+            throw new IOException("Unknown game map stream version " + -version);
+        }
+        this.filledBlocks = version < 0 ? MapOccupancy.readStream(in) : readFilledBlocksV0(in, version);
         final MutableIntList selectedBlocks = (MutableIntList) readStreamIntCollection(in);
         this.selectedBlocks = selectedBlocks.asSynchronized();
         this.cursorObject = in.readLong();
-        this.cids = readStreamIntIntMap(in);
+        if (version < 0) {
+            this.chunksIndex = in.readBoolean() ? MapChunksIndex.readStream(in) : null;
+        } else {
+            // the block to chunk map is replaced by the chunks index that is
+            // created from the chunks on demand
+            readStreamIntIntMap(in);
+            this.chunksIndex = null;
+        }
         this.selectedObjectType = in.readInt();
         this.selectedObjectId = in.readLong();
         final var typesObjects = readStreamIntLongMultimap(in, () -> Multimaps.mutable.set.empty());
         this.typesObjects = typesObjects.asSynchronized();
     }
 
-    @SneakyThrows
-    private AtomicInteger readAtomicInt(DataInput in) {
-        return new AtomicInteger(in.readInt());
+    /**
+     * Reads the filled blocks of the layout without a version, the objects count
+     * of each block and the blocks of each chunk.
+     *
+     * @param size the count of the filled blocks.
+     */
+    private static MapOccupancy readFilledBlocksV0(DataInput in, int size) throws IOException {
+        final MutableIntIntMap counts = IntIntMaps.mutable.ofInitialCapacity(size);
+        for (int i = 0; i < size; i++) {
+            counts.put(in.readInt(), in.readInt());
+        }
+        final var filledChunks = readStreamIntIntMultimap(in, Multimaps.mutable.set::empty);
+        final var filledBlocks = new MapOccupancy();
+        filledChunks.forEachKeyValue((cid, index) -> {
+            for (int n = counts.get(index); n > 0; n--) {
+                filledBlocks.add(cid, index);
+            }
+        });
+        return filledBlocks;
     }
 
     @SneakyThrows
@@ -467,21 +494,73 @@ public class GameMap extends GameObject implements StoredObject {
      * Returns only the indices of the blocks with at least one map object.
      */
     public IntSet getFilledBlocksIndices() {
-        MutableIntSet set = IntSets.mutable.withInitialCapacity(filledBlocks.size());
-        for (val entry : filledBlocks.keyValuesView()) {
-            if (entry.getTwo().get() > 0) {
-                set.add(entry.getOne());
-            }
+        return filledBlocks.getBlocks().toImmutable();
+    }
+
+    private static StampedLock[] createObjectsLocks() {
+        final var locks = new StampedLock[OBJECTS_LOCK_STRIPES];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new StampedLock();
+        }
+        return locks;
+    }
+
+    /**
+     * Returns the lock over the map objects of the block with the map index. The
+     * locks are striped by the chunk cell of the block, so the objects in
+     * different regions of the map are locked independently.
+     */
+    public StampedLock getObjectsLock(int index) {
+        return objectsLocks[getObjectsStripe(index)];
+    }
+
+    /**
+     * Returns the stripe of the lock over the map objects of the block with the
+     * map index, from 0 to {@link #OBJECTS_LOCK_STRIPES} exclusive.
+     */
+    public int getObjectsStripe(int index) {
+        if (width == 0 || height == 0) {
+            return 0;
         }
-        return set.asUnmodifiable();
+        final int cs = chunkSize > 0 ? chunkSize : DEFAULT_LOCK_CELL_SIZE;
+        final int x = index % width / cs;
+        final int y = index / width % height / cs;
+        final int z = index / width / height / cs;
+        final int hash = (x * 73856093) ^ (y * 19349663) ^ (z * 83492791);
+        return hash & OBJECTS_LOCK_STRIPES - 1;
+    }
+
+    /**
+     * Acquires a lock over the map objects of the block with the map index, blocks
+     * until a lock is available.
+     */
+    public AutoCloseable acquireLockMapObjects(int index) throws InterruptedException {
+        final var lock = getObjectsLock(index);
+        final long stamp = lock.writeLockInterruptibly();
+        return () -> lock.unlockWrite(stamp);
     }
 
     /**
-     * Acquires a lock over the map objects, blocks until a lock is available.
+     * Acquires a lock over all map objects, blocks until a lock is available.
      */
     public AutoCloseable acquireLockMapObjects() throws InterruptedException {
-        objectsLock.acquire();
-        return () -> objectsLock.release();
+        final long[] stamps = new long[objectsLocks.length];
+        int i = 0;
+        try {
+            for (; i < objectsLocks.length; i++) {
+                stamps[i] = objectsLocks[i].writeLockInterruptibly();
+            }
+        } catch (final InterruptedException e) {
+            unlockObjectsLocks(stamps, i);
+            throw e;
+        }
+        return () -> unlockObjectsLocks(stamps, objectsLocks.length);
+    }
+
+    private void unlockObjectsLocks(long[] stamps, int count) {
+        for (int i = count - 1; i >= 0; i--) {
+            objectsLocks[i].unlockWrite(stamps[i]);
+        }
     }
 
     /**
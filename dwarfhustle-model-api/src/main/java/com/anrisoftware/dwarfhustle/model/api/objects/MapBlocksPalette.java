@@ -0,0 +1,213 @@
+/*
+ * dwarfhustle-model-api - Manages the compile dependencies for the model.
+ * Copyright © 2022-2025 Erwin Müller (erwin.mueller@anrisoftware.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.anrisoftware.dwarfhustle.model.api.objects;
+
+import static java.nio.ByteBuffer.allocateDirect;
+
+import org.agrona.DirectBuffer;
+import org.agrona.ExpandableArrayBuffer;
+import org.agrona.MutableDirectBuffer;
+import org.agrona.concurrent.UnsafeBuffer;
+
+/**
+ * Palette of the distinct {@link MapBlock}s of a {@link MapChunk}. Each block of
+ * the chunk is stored as a bit-packed index into the palette.
+ * <p>
+ * The palette entries have the same layout as the blocks, so they are read with
+ * the same accessors as the blocks.
+ * <p>
+ * The palette is not thread-safe. {@link #set(int, DirectBuffer, int)} resizes
+ * the indices, so it must not run concurrent to the readers of the palette.
+ *
+ * @author Erwin Müller, {@code <erwin@muellerpublic.de>}
+ */
+public class MapBlocksPalette {
+
+    /**
+     * Maximum entries of the palette.
+     */
+    public static final int MAX_SIZE = 256;
+
+    /**
+     * Returns the palette of the blocks or {@code null} if the blocks have more
+     * distinct entries than {@link #MAX_SIZE}.
+     *
+     * @param blocks     the blocks.
+     * @param recordSize the size in bytes of one block.
+     */
+    public static MapBlocksPalette pack(DirectBuffer blocks, int recordSize) {
+        final int count = blocks.capacity() / recordSize;
+        final var palette = new MapBlocksPalette(count, recordSize);
+        for (int i = 0; i < count; i++) {
+            if (!palette.set(i, blocks, i * recordSize)) {
+                return null;
+            }
+        }
+        return palette;
+    }
+
+    private final int count;
+
+    private final int recordSize;
+
+    private final MutableDirectBuffer entries;
+
+    private int size;
+
+    private int bits;
+
+    private long[] indices;
+
+    private int last;
+
+    private MapBlocksPalette(int count, int recordSize) {
+        this.count = count;
+        this.recordSize = recordSize;
+        this.entries = new ExpandableArrayBuffer(recordSize * 2);
+        this.size = 0;
+        this.bits = 1;
+        this.indices = new long[(count * bits + 63) / 64];
+        this.last = 0;
+    }
+
+    /**
+     * Returns the palette entries.
+     */
+    public DirectBuffer getEntries() {
+        return entries;
+    }
+
+    /**
+     * Returns the offset in {@link #getEntries()} of the block with the index.
+     */
+    public int getEntryOff(int index) {
+        return getIndex(index) * recordSize;
+    }
+
+    /**
+     * Sets the block with the index to the record. Returns false if the record is
+     * not in the palette and the palette is full.
+     */
+    public boolean set(int index, DirectBuffer b, int off) {
+        int entry = findEntry(b, off);
+        if (entry < 0) {
+            if (size == MAX_SIZE) {
+                return false;
+            }
+            entry = size++;
+            entries.putBytes(entry * recordSize, b, off, recordSize);
+            if (size > 1 << bits) {
+                resize(bits * 2);
+            }
+        }
+        setIndex(index, entry);
+        last = entry;
+        return true;
+    }
+
+    /**
+     * Writes the blocks in the flat layout to the buffer.
+     */
+    public void unpack(MutableDirectBuffer b) {
+        unpack(0, count, b, 0);
+    }
+
+    /**
+     * Writes the blocks from the index in the flat layout to the buffer at the
+     * offset.
+     *
+     * @param index the index of the first block.
+     * @param n     the count of the blocks.
+     */
+    public void unpack(int index, int n, MutableDirectBuffer b, int off) {
+        for (int i = 0; i < n; i++) {
+            b.putBytes(off + i * recordSize, entries, getIndex(index + i) * recordSize, recordSize);
+        }
+    }
+
+    /**
+     * Returns the blocks in the flat layout in a new buffer.
+     */
+    public MutableDirectBuffer unpack() {
+        final var b = new UnsafeBuffer(allocateDirect(count * recordSize));
+        unpack(b);
+        return b;
+    }
+
+    /**
+     * Returns the count of the palette entries.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the size in bytes of the palette entries and indices.
+     */
+    public int getMemorySize() {
+        return entries.capacity() + indices.length * 8;
+    }
+
+    private int findEntry(DirectBuffer b, int off) {
+        if (size > 0 && isEqual(last, b, off)) {
+            return last;
+        }
+        for (int i = 0; i < size; i++) {
+            if (isEqual(i, b, off)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean isEqual(int entry, DirectBuffer b, int off) {
+        final int eoff = entry * recordSize;
+        for (int i = 0; i < recordSize; i++) {
+            if (entries.getByte(eoff + i) != b.getByte(off + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int getIndex(int index) {
+        final long bit = (long) index * bits;
+        final long mask = (1L << bits) - 1;
+        return (int) (indices[(int) (bit >>> 6)] >>> (bit & 63) & mask);
+    }
+
+    private void setIndex(int index, int entry) {
+        final long bit = (long) index * bits;
+        final long mask = (1L << bits) - 1;
+        final int i = (int) (bit >>> 6);
+        final int shift = (int) (bit & 63);
+        indices[i] = indices[i] & ~(mask << shift) | (entry & mask) << shift;
+    }
+
+    private void resize(int newBits) {
+        final var old = new int[count];
+        for (int i = 0; i < count; i++) {
+            old[i] = getIndex(i);
+        }
+        this.bits = newBits;
+        this.indices = new long[(count * newBits + 63) / 64];
+        for (int i = 0; i < count; i++) {
+            setIndex(i, old[i]);
+        }
+    }
+}
@@ -23,9 +23,12 @@ import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.BitSet;
 import java.util.Optional;
 import java.util.function.Function;
 
+import org.agrona.BufferUtil;
+import org.agrona.DirectBuffer;
 import org.agrona.MutableDirectBuffer;
 import org.agrona.concurrent.UnsafeBuffer;
 import org.eclipse.collections.api.factory.primitive.LongObjectMaps;
@@ -37,6 +40,12 @@ import lombok.ToString;
 
 /**
  * Collection of map tile chunks and blocks.
+ * <p>
+ * The {@link MapBlock}s of a chunk have a single writer. The packed blocks are
+ * unpacked by {@link #getBlocks()} and {@link #getWritableBlocks()}, and are
+ * packed again by the storage when the chunk is stored, so the blocks must not
+ * be read by other threads while the chunk is modified. The buffers returned by
+ * {@link #getBlocks()} must not be used after the chunk was stored.
  *
  * @author Erwin Müller, {@code <erwin@muellerpublic.de>}
  */
@@ -48,6 +57,8 @@ public class MapChunk extends GameObject {
 
     public static final int OBJECT_TYPE = MapChunk.class.getSimpleName().hashCode();
 
+    private static final int BLOCK_BYTES = 14;
+
     public static Function<Long, MapChunk> getMapChunkRetriever(ObjectsGetter og) {
         return id -> og.get(OBJECT_TYPE, id);
     }
@@ -126,12 +137,53 @@ public class MapChunk extends GameObject {
     @ToString.Exclude
     public Optional<MutableDirectBuffer> blocks;
 
+    /**
+     * True if the {@link #blocks} are a read-only view into a storage buffer. The
+     * view is copied by {@link #getWritableBlocks()} before it is modified.
+     */
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private boolean blocksView;
+
+    /**
+     * The indices of the {@link MapBlock}s that were modified since the chunk was
+     * read or stored. {@code null} if all blocks must be stored.
+     */
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private BitSet dirtyBlocks;
+
+    /**
+     * Counts the modifications of the {@link #dirtyBlocks}. The modified blocks
+     * are only cleared after they were stored if the stamp is unchanged.
+     */
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private int dirtyStamp;
+
+    /**
+     * The {@link MapBlocksPalette} of the blocks if the blocks are packed. The
+     * {@link #blocks} are empty if the blocks are packed.
+     */
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private MapBlocksPalette palette;
+
     public MapChunk() {
         this.centerExtent = new CenterExtent();
         this.pos = new GameChunkPos();
     }
 
     public MapChunk(long id, int parent, int cs, int w, int h, GameChunkPos pos) {
+        this(id, parent, cs, w, h, pos, null, 0);
+    }
+
+    /**
+     * Creates the chunk with the {@link MapBlock}s as a read-only view of the
+     * buffer at the offset. No memory is allocated for the blocks. If the buffer
+     * is {@code null} then the blocks are allocated.
+     */
+    public MapChunk(long id, int parent, int cs, int w, int h, GameChunkPos pos, DirectBuffer view, int viewOffset) {
         super(id);
         this.parent = parent;
         this.chunkSize = cs;
@@ -141,8 +193,13 @@ public class MapChunk extends GameObject {
         updateCenterExtent(w, h);
         this.leaf = calcLeaf();
         if (leaf) {
-            this.blocks = Optional
-                    .of(new UnsafeBuffer(allocateDirect(pos.getSizeX() * pos.getSizeY() * pos.getSizeZ() * 14)));
+            final int size = getBlocksSize();
+            if (view != null) {
+                this.blocks = Optional.of(new UnsafeBuffer(view, viewOffset, size));
+                this.blocksView = true;
+            } else {
+                this.blocks = Optional.of(new UnsafeBuffer(allocateDirect(size)));
+            }
         } else {
             this.blocks = Optional.empty();
         }
@@ -205,10 +262,229 @@ public class MapChunk extends GameObject {
         return getPos().contains(p);
     }
 
+    /**
+     * Returns the {@link MapBlock}s buffer. The buffer must not be modified if
+     * {@link #isBlocksView()}, use {@link #getWritableBlocks()} to modify the
+     * blocks. Packed blocks are unpacked. The writes to the buffer are not
+     * tracked, so all blocks are marked as modified. Use
+     * {@link #getFlatBlocks()} to only read the blocks.
+     */
     public MutableDirectBuffer getBlocks() {
+        markAllBlocksDirty();
+        unpackBlocks();
+        return blocks.orElseThrow();
+    }
+
+    /**
+     * Returns the {@link MapBlock}s in the flat layout without unpacking the
+     * blocks. If the blocks are packed then a temporary copy is returned.
+     */
+    public DirectBuffer getFlatBlocks() {
+        if (palette != null) {
+            return palette.unpack();
+        }
+        return blocks.orElseThrow();
+    }
+
+    /**
+     * Copies the {@link MapBlock}s in the flat layout from the offset to the
+     * buffer. Packed blocks are copied from the palette without unpacking all
+     * blocks.
+     *
+     * @param off    the offset of the first block in the flat layout.
+     * @param dst    the destination buffer.
+     * @param dstOff the offset in the destination buffer.
+     * @param length the length in bytes, a multiple of the block size.
+     */
+    public void getFlatBlocks(int off, MutableDirectBuffer dst, int dstOff, int length) {
+        if (palette != null) {
+            palette.unpack(off / BLOCK_BYTES, length / BLOCK_BYTES, dst, dstOff);
+        } else {
+            dst.putBytes(dstOff, blocks.orElseThrow(), off, length);
+        }
+    }
+
+    /**
+     * Returns the size in bytes of the {@link MapBlock}s in the flat layout.
+     */
+    public int getBlocksSize() {
+        return pos.getSizeX() * pos.getSizeY() * pos.getSizeZ() * BLOCK_BYTES;
+    }
+
+    /**
+     * Returns the size in bytes of the memory owned by the {@link MapBlock}s.
+     * Read-only views are not owned by the chunk.
+     */
+    public int getMemorySize() {
+        if (palette != null) {
+            return palette.getMemorySize();
+        }
+        if (blocks.isPresent() && !blocksView) {
+            return blocks.get().capacity();
+        }
+        return 0;
+    }
+
+    /**
+     * Frees the direct memory of the {@link MapBlock}s. The chunk and buffers
+     * returned by {@link #getBlocks()} must not be used after the release.
+     * Read-only views are not freed.
+     *
+     * @return the size in bytes of the freed memory.
+     */
+    public int releaseBlocks() {
+        final int size = getMemorySize();
+        if (blocks.isPresent() && !blocksView) {
+            BufferUtil.free(blocks.get());
+        }
+        this.blocks = Optional.empty();
+        this.blocksView = false;
+        this.palette = null;
+        return size;
+    }
+
+    /**
+     * Packs the {@link MapBlock}s in a {@link MapBlocksPalette} if the blocks
+     * have not more distinct blocks than {@link MapBlocksPalette#MAX_SIZE}.
+     *
+     * @return true if the blocks are packed.
+     */
+    public boolean packBlocks() {
+        if (palette != null) {
+            return true;
+        }
+        if (!leaf) {
+            return false;
+        }
+        final var p = MapBlocksPalette.pack(blocks.orElseThrow(), BLOCK_BYTES);
+        if (p == null) {
+            return false;
+        }
+        this.palette = p;
+        this.blocks = Optional.empty();
+        this.blocksView = false;
+        return true;
+    }
+
+    private void unpackBlocks() {
+        if (palette != null) {
+            this.blocks = Optional.of(palette.unpack());
+            this.palette = null;
+        }
+    }
+
+    /**
+     * Returns the {@link MapBlock}s buffer to modify. If the blocks are a read-only
+     * view then the blocks are copied first. All blocks are marked as modified.
+     */
+    public MutableDirectBuffer getWritableBlocks() {
+        markAllBlocksDirty();
+        return copyBlocksView();
+    }
+
+    /**
+     * Returns the {@link MapBlock}s buffer to modify the block at the offset. If
+     * the blocks are a read-only view then the blocks are copied first. The block
+     * is marked as modified.
+     */
+    public MutableDirectBuffer getWritableBlocks(int off) {
+        markBlockDirty(off);
+        return copyBlocksView();
+    }
+
+    /**
+     * Marks the block at the offset as modified.
+     */
+    public synchronized void markBlockDirty(int off) {
+        if (dirtyBlocks != null) {
+            dirtyBlocks.set(off / BLOCK_BYTES);
+        }
+        dirtyStamp++;
+    }
+
+    /**
+     * Marks all {@link MapBlock}s as modified.
+     */
+    public synchronized void markAllBlocksDirty() {
+        this.dirtyBlocks = null;
+        dirtyStamp++;
+    }
+
+    /**
+     * Returns the indices of the modified {@link MapBlock}s, or {@code null} if
+     * all blocks are modified.
+     */
+    public synchronized BitSet getDirtyBlocks() {
+        return dirtyBlocks;
+    }
+
+    /**
+     * Sets the indices of the modified {@link MapBlock}s, or {@code null} if all
+     * blocks are modified.
+     */
+    public synchronized void setDirtyBlocks(BitSet dirtyBlocks) {
+        this.dirtyBlocks = dirtyBlocks;
+        dirtyStamp++;
+    }
+
+    /**
+     * Returns the count of the modifications of the {@link MapBlock}s. Read the
+     * stamp before {@link #copyDirtyBlocks()} and pass it to
+     * {@link #clearDirtyBlocks(int)} after the blocks are stored.
+     */
+    public synchronized int getDirtyStamp() {
+        return dirtyStamp;
+    }
+
+    /**
+     * Returns a copy of the indices of the modified {@link MapBlock}s, or
+     * {@code null} if all blocks are modified.
+     */
+    public synchronized BitSet copyDirtyBlocks() {
+        return dirtyBlocks != null ? (BitSet) dirtyBlocks.clone() : null;
+    }
+
+    private MutableDirectBuffer copyBlocksView() {
+        unpackBlocks();
+        if (blocksView) {
+            final var view = blocks.orElseThrow();
+            final var b = new UnsafeBuffer(allocateDirect(view.capacity()));
+            b.putBytes(0, view, 0, view.capacity());
+            this.blocks = Optional.of(b);
+            this.blocksView = false;
+        }
         return blocks.orElseThrow();
     }
 
+    /**
+     * Marks all {@link MapBlock}s as not modified. Called after the chunk was
+     * read or stored.
+     */
+    public synchronized void clearDirtyBlocks() {
+        if (dirtyBlocks == null) {
+            this.dirtyBlocks = new BitSet();
+        } else {
+            dirtyBlocks.clear();
+        }
+        dirtyStamp++;
+    }
+
+    /**
+     * Marks all {@link MapBlock}s as not modified if the blocks were not modified
+     * since the stamp was read. Called after the chunk was stored.
+     *
+     * @param stamp the stamp from {@link #getDirtyStamp()} before the chunk was
+     *              stored.
+     * @return true if the blocks are marked as not modified.
+     */
+    public synchronized boolean clearDirtyBlocks(int stamp) {
+        if (dirtyStamp != stamp) {
+            return false;
+        }
+        clearDirtyBlocks();
+        return true;
+    }
+
     /**
      * Returns the CID of the {@link MapChunk} in the direction of the
      * {@link NeighboringDir} or 0.
@@ -247,9 +523,10 @@ public class MapChunk extends GameObject {
         out.writeBoolean(leaf);
         centerExtent.writeStream(out);
         if (isLeaf()) {
-            int size = blocks.get().capacity();
+            final var b = getFlatBlocks();
+            int size = b.capacity();
             var buff = new byte[size];
-            blocks.get().getBytes(0, buff);
+            b.getBytes(0, buff);
             out.writeInt(size);
             out.write(buff);
         }
@@ -274,6 +551,8 @@ public class MapChunk extends GameObject {
             var bb = ByteBuffer.allocateDirect(size);
             bb.put(buff);
             blocks = Optional.of(new UnsafeBuffer(bb));
+            blocksView = false;
+            palette = null;
         }
     }
 }
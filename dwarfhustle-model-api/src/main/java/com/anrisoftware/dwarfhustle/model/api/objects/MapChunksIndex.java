@@ -0,0 +1,243 @@
+/*
+ * dwarfhustle-model-api - Manages the compile dependencies for the model.
+ * Copyright © 2022-2025 Erwin Müller (erwin.mueller@anrisoftware.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.anrisoftware.dwarfhustle.model.api.objects;
+
+import static com.anrisoftware.dwarfhustle.model.api.objects.MapChunk.cid2Id;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.eclipse.collections.api.factory.primitive.IntLists;
+import org.eclipse.collections.api.list.primitive.IntList;
+import org.eclipse.collections.api.list.primitive.MutableIntList;
+
+/**
+ * Flat index of the leaf {@link MapChunk}s of a {@link GameMap}. The map is
+ * divided in cells of the same size and each cell stores the CID of the leaf
+ * chunk that contains it, so the chunk of a block is found without descending
+ * the chunks tree.
+ * <p>
+ * The index only keeps the CIDs and does not keep references to the chunks.
+ * The chunks are always retrieved from the {@link ObjectsGetter}, so a chunk
+ * that was evicted and retrieved again from the storage is never returned
+ * stale.
+ *
+ * @author Erwin Müller, {@code <erwin@muellerpublic.de>}
+ */
+public class MapChunksIndex {
+
+    /**
+     * Returns the {@link MapChunksIndex} of the {@link GameMap}. The index is
+     * created from the chunks tree if the map does not have an index yet.
+     */
+    public static MapChunksIndex getChunksIndex(GameMap gm, ObjectsGetter og) {
+        var index = gm.getChunksIndex();
+        if (index == null) {
+            synchronized (gm) {
+                index = gm.getChunksIndex();
+                if (index == null) {
+                    index = create(MapChunk.getChunk(og, cid2Id(0)), og);
+                    gm.setChunksIndex(index);
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Creates the {@link MapChunksIndex} from the chunks tree.
+     *
+     * @param root the root {@link MapChunk}.
+     * @param og   the {@link ObjectsGetter} to retrieve the children chunks.
+     */
+    public static MapChunksIndex create(MapChunk root, ObjectsGetter og) {
+        final MutableIntList leafs = IntLists.mutable.empty();
+        collectLeafs(root, og, leafs);
+        final var pos = root.getPos();
+        return create(pos.ep.x, pos.ep.y, pos.ep.z, leafs);
+    }
+
+    /**
+     * Creates the {@link MapChunksIndex} from the positions of the leaf chunks.
+     *
+     * @param leafs the CID, start and end positions of each leaf chunk, i.e.
+     *              {@code cid,x,y,z,ex,ey,ez} for each leaf.
+     */
+    public static MapChunksIndex create(int width, int height, int depth, IntList leafs) {
+        int csx = 0, csy = 0, csz = 0, maxcid = 0;
+        for (int i = 0; i < leafs.size(); i += 7) {
+            csx = gcd(csx, gcd(leafs.get(i + 1), leafs.get(i + 4)));
+            csy = gcd(csy, gcd(leafs.get(i + 2), leafs.get(i + 5)));
+            csz = gcd(csz, gcd(leafs.get(i + 3), leafs.get(i + 6)));
+            maxcid = Math.max(maxcid, leafs.get(i));
+        }
+        final var index = new MapChunksIndex(width, height, depth, csx, csy, csz, maxcid + 1);
+        for (int i = 0; i < leafs.size(); i += 7) {
+            index.putCells(leafs.get(i), leafs.get(i + 1), leafs.get(i + 2), leafs.get(i + 3), leafs.get(i + 4),
+                    leafs.get(i + 5), leafs.get(i + 6));
+        }
+        return index;
+    }
+
+    private static void collectLeafs(MapChunk chunk, ObjectsGetter og, MutableIntList leafs) {
+        if (chunk.isLeaf()) {
+            final var pos = chunk.getPos();
+            leafs.addAll(chunk.getCid(), pos.x, pos.y, pos.z, pos.ep.x, pos.ep.y, pos.ep.z);
+        } else {
+            for (final var it = chunk.getChunks().keySet().longIterator(); it.hasNext();) {
+                collectLeafs(MapChunk.getChunk(og, cid2Id(it.next())), og, leafs);
+            }
+        }
+    }
+
+    /**
+     * Reads the {@link MapChunksIndex} from the stream.
+     *
+     * @see #writeStream(DataOutput)
+     */
+    public static MapChunksIndex readStream(DataInput in) throws IOException {
+        final int width = in.readInt();
+        final int height = in.readInt();
+        final int depth = in.readInt();
+        final int csx = in.readInt();
+        final int csy = in.readInt();
+        final int csz = in.readInt();
+        final int count = in.readInt();
+        final var index = new MapChunksIndex(width, height, depth, csx, csy, csz, count);
+        for (int i = 0; i < index.cells.length; i++) {
+            index.cells[i] = in.readInt();
+        }
+        return index;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            final int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    private final int width;
+
+    private final int height;
+
+    private final int depth;
+
+    private final int csx;
+
+    private final int csy;
+
+    private final int csz;
+
+    private final int cw;
+
+    private final int ch;
+
+    private final int[] cells;
+
+    /**
+     * The maximum CID plus one of the leaf chunks.
+     */
+    private final int count;
+
+    private MapChunksIndex(int width, int height, int depth, int csx, int csy, int csz, int count) {
+        this.width = width;
+        this.height = height;
+        this.depth = depth;
+        this.csx = csx;
+        this.csy = csy;
+        this.csz = csz;
+        this.cw = width / csx;
+        this.ch = height / csy;
+        this.cells = new int[cw * ch * (depth / csz)];
+        Arrays.fill(cells, -1);
+        this.count = count;
+    }
+
+    private void putCells(int cid, int x, int y, int z, int ex, int ey, int ez) {
+        for (int zz = z / csz; zz < ez / csz; zz++) {
+            for (int yy = y / csy; yy < ey / csy; yy++) {
+                for (int xx = x / csx; xx < ex / csx; xx++) {
+                    cells[zz * cw * ch + yy * cw + xx] = cid;
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the cells of the index to the stream.
+     */
+    public void writeStream(DataOutput out) throws IOException {
+        out.writeInt(width);
+        out.writeInt(height);
+        out.writeInt(depth);
+        out.writeInt(csx);
+        out.writeInt(csy);
+        out.writeInt(csz);
+        out.writeInt(count);
+        for (final int cid : cells) {
+            out.writeInt(cid);
+        }
+    }
+
+    /**
+     * Returns the CID of the leaf chunk that contains the block with the map
+     * block index, see {@link GameBlockPos#calcIndex(GameMap, int, int, int)}.
+     */
+    public int getCid(int index) {
+        final int x = index % width;
+        final int y = index / width % height;
+        final int z = index / width / height;
+        return getCid(x, y, z);
+    }
+
+    /**
+     * Returns the CID of the leaf chunk that contains the block or -1 if the
+     * block is outside of the map or of the leaf chunks.
+     */
+    public int getCid(int x, int y, int z) {
+        if (x < 0 || y < 0 || z < 0 || x >= width || y >= height || z >= depth) {
+            return -1;
+        }
+        return cells[z / csz * cw * ch + y / csy * cw + x / csx];
+    }
+
+    /**
+     * Returns the leaf chunk that contains the block or {@code null} if the
+     * block is outside of the map.
+     */
+    public MapChunk getChunk(int x, int y, int z, ObjectsGetter og) {
+        final int cid = getCid(x, y, z);
+        if (cid == -1) {
+            return null;
+        }
+        return getLeaf(cid, og);
+    }
+
+    /**
+     * Returns the leaf chunk with the CID from the {@link ObjectsGetter}.
+     */
+    public MapChunk getLeaf(int cid, ObjectsGetter og) {
+        return MapChunk.getChunk(og, cid2Id(cid));
+    }
+
+}
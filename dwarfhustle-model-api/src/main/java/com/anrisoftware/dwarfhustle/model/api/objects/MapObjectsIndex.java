@@ -0,0 +1,358 @@
+/*
+ * dwarfhustle-model-api - Manages the compile dependencies for the model.
+ * Copyright © 2022-2025 Erwin Müller (erwin.mueller@anrisoftware.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.anrisoftware.dwarfhustle.model.api.objects;
+
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.eclipse.collections.api.factory.primitive.IntLists;
+import org.eclipse.collections.api.factory.primitive.LongLists;
+import org.eclipse.collections.api.factory.primitive.LongObjectMaps;
+import org.eclipse.collections.api.list.primitive.LongList;
+import org.eclipse.collections.api.list.primitive.MutableIntList;
+import org.eclipse.collections.api.list.primitive.MutableLongList;
+import org.eclipse.collections.api.map.primitive.MutableLongObjectMap;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * In-memory spatial index of the {@link GameMapObject}s of a {@link GameMap}.
+ * The map is divided in a uniform grid of cells and each cell stores the ID,
+ * type and position of its objects, so range and nearest neighbor queries
+ * return the object IDs without the storage.
+ * <p>
+ * The index is not stored with the {@link GameMap}, it is filled by the objects
+ * actor from the filled blocks of the map.
+ *
+ * @author Erwin Müller, {@code <erwin@muellerpublic.de>}
+ */
+public class MapObjectsIndex {
+
+    /**
+     * The size of the cells in blocks.
+     */
+    public static final int CELL_SIZE = 8;
+
+    private static final int CELL_BITS = 3;
+
+    /**
+     * The objects of a cell. The position is stored as x,y,z for each object.
+     */
+    private static class Cell {
+
+        final MutableLongList ids = LongLists.mutable.empty();
+
+        final MutableIntList types = IntLists.mutable.empty();
+
+        final MutableIntList pos = IntLists.mutable.empty();
+
+        void add(int type, long id, int x, int y, int z) {
+            ids.add(id);
+            types.add(type);
+            pos.addAll(x, y, z);
+        }
+
+        boolean remove(long id) {
+            final int i = ids.indexOf(id);
+            if (i == -1) {
+                return false;
+            }
+            final int last = ids.size() - 1;
+            ids.set(i, ids.get(last));
+            types.set(i, types.get(last));
+            pos.set(i * 3, pos.get(last * 3));
+            pos.set(i * 3 + 1, pos.get(last * 3 + 1));
+            pos.set(i * 3 + 2, pos.get(last * 3 + 2));
+            ids.removeAtIndex(last);
+            types.removeAtIndex(last);
+            pos.removeAtIndex(last * 3 + 2);
+            pos.removeAtIndex(last * 3 + 1);
+            pos.removeAtIndex(last * 3);
+            return true;
+        }
+    }
+
+    private static long cellKey(int cx, int cy, int cz) {
+        return (long) cx << 42 | (long) cy << 21 | cz;
+    }
+
+    private static long distance2(int x, int y, int z, int x2, int y2, int z2) {
+        final long dx = x2 - x, dy = y2 - y, dz = z2 - z;
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    private final MutableLongObjectMap<Cell> cells = LongObjectMaps.mutable.empty();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private int minCx = Integer.MAX_VALUE, minCy = Integer.MAX_VALUE, minCz = Integer.MAX_VALUE;
+
+    private int maxCx = Integer.MIN_VALUE, maxCy = Integer.MIN_VALUE, maxCz = Integer.MIN_VALUE;
+
+    private int size;
+
+    /**
+     * Set after the index was filled with the existing objects of the map.
+     */
+    @Getter
+    @Setter
+    private volatile boolean filled;
+
+    /**
+     * Adds the object on the (x,y,z) block.
+     */
+    public void add(int type, long id, int x, int y, int z) {
+        final int cx = x >> CELL_BITS, cy = y >> CELL_BITS, cz = z >> CELL_BITS;
+        lock.writeLock().lock();
+        try {
+            cells.getIfAbsentPut(cellKey(cx, cy, cz), Cell::new).add(type, id, x, y, z);
+            minCx = Math.min(minCx, cx);
+            minCy = Math.min(minCy, cy);
+            minCz = Math.min(minCz, cz);
+            maxCx = Math.max(maxCx, cx);
+            maxCy = Math.max(maxCy, cy);
+            maxCz = Math.max(maxCz, cz);
+            size++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds the object.
+     */
+    public void add(GameMapObject go) {
+        final var pos = go.getPos();
+        add(go.getObjectType(), go.getId(), pos.getX(), pos.getY(), pos.getZ());
+    }
+
+    /**
+     * Removes the object from the (x,y,z) block.
+     */
+    public boolean remove(long id, int x, int y, int z) {
+        final long key = cellKey(x >> CELL_BITS, y >> CELL_BITS, z >> CELL_BITS);
+        lock.writeLock().lock();
+        try {
+            final var cell = cells.get(key);
+            if (cell == null || !cell.remove(id)) {
+                return false;
+            }
+            if (cell.ids.isEmpty()) {
+                cells.remove(key);
+            }
+            size--;
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the object.
+     */
+    public boolean remove(GameMapObject go) {
+        final var pos = go.getPos();
+        return remove(go.getId(), pos.getX(), pos.getY(), pos.getZ());
+    }
+
+    /**
+     * Returns the count of the objects.
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the IDs of the objects inside of the range start (x,y,z) to end
+     * (x,y,z), the end is exclusive.
+     *
+     * @param type the object type or 0 for objects of all types.
+     */
+    public LongList findRange(int type, int sx, int sy, int sz, int ex, int ey, int ez) {
+        final MutableLongList res = LongLists.mutable.empty();
+        if (sx >= ex || sy >= ey || sz >= ez) {
+            return res;
+        }
+        lock.readLock().lock();
+        try {
+            final int scx = Math.max(sx >> CELL_BITS, minCx), ecx = Math.min(ex - 1 >> CELL_BITS, maxCx);
+            final int scy = Math.max(sy >> CELL_BITS, minCy), ecy = Math.min(ey - 1 >> CELL_BITS, maxCy);
+            final int scz = Math.max(sz >> CELL_BITS, minCz), ecz = Math.min(ez - 1 >> CELL_BITS, maxCz);
+            for (int cz = scz; cz <= ecz; cz++) {
+                for (int cy = scy; cy <= ecy; cy++) {
+                    for (int cx = scx; cx <= ecx; cx++) {
+                        final var cell = cells.get(cellKey(cx, cy, cz));
+                        if (cell == null) {
+                            continue;
+                        }
+                        for (int i = 0; i < cell.ids.size(); i++) {
+                            final int x = cell.pos.get(i * 3), y = cell.pos.get(i * 3 + 1), z = cell.pos.get(i * 3 + 2);
+                            if ((type == 0 || cell.types.get(i) == type) && x >= sx && x < ex && y >= sy && y < ey
+                                    && z >= sz && z < ez) {
+                                res.add(cell.ids.get(i));
+                            }
+                        }
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return res;
+    }
+
+    /**
+     * Returns the IDs of the objects inside of the radius around the (x,y,z)
+     * block.
+     *
+     * @param type the object type or 0 for objects of all types.
+     */
+    public LongList findRadius(int type, int x, int y, int z, int radius) {
+        final MutableLongList res = LongLists.mutable.empty();
+        final long r2 = (long) radius * radius;
+        lock.readLock().lock();
+        try {
+            final int scx = Math.max(x - radius >> CELL_BITS, minCx), ecx = Math.min(x + radius >> CELL_BITS, maxCx);
+            final int scy = Math.max(y - radius >> CELL_BITS, minCy), ecy = Math.min(y + radius >> CELL_BITS, maxCy);
+            final int scz = Math.max(z - radius >> CELL_BITS, minCz), ecz = Math.min(z + radius >> CELL_BITS, maxCz);
+            for (int cz = scz; cz <= ecz; cz++) {
+                for (int cy = scy; cy <= ecy; cy++) {
+                    for (int cx = scx; cx <= ecx; cx++) {
+                        final var cell = cells.get(cellKey(cx, cy, cz));
+                        if (cell == null) {
+                            continue;
+                        }
+                        for (int i = 0; i < cell.ids.size(); i++) {
+                            if ((type == 0 || cell.types.get(i) == type) && distance2(x, y, z, cell.pos.get(i * 3),
+                                    cell.pos.get(i * 3 + 1), cell.pos.get(i * 3 + 2)) <= r2) {
+                                res.add(cell.ids.get(i));
+                            }
+                        }
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return res;
+    }
+
+    /**
+     * Returns the IDs of the k nearest objects to the (x,y,z) block, ordered by
+     * the distance. The cells are searched in growing shells around the cell of
+     * the block until no closer object can be found.
+     *
+     * @param type the object type or 0 for objects of all types.
+     */
+    public LongList findNearest(int type, int x, int y, int z, int k) {
+        final MutableLongList res = LongLists.mutable.empty();
+        if (k < 1) {
+            return res;
+        }
+        final long[] ids = new long[k];
+        final long[] dist = new long[k];
+        int found = 0;
+        lock.readLock().lock();
+        try {
+            if (size == 0) {
+                return res;
+            }
+            final int qx = x >> CELL_BITS, qy = y >> CELL_BITS, qz = z >> CELL_BITS;
+            final int maxShell = Math.max(Math.max(Math.max(Math.abs(qx - minCx), Math.abs(qx - maxCx)),
+                    Math.max(Math.abs(qy - minCy), Math.abs(qy - maxCy))),
+                    Math.max(Math.abs(qz - minCz), Math.abs(qz - maxCz)));
+            for (int s = 0; s <= maxShell; s++) {
+                if (found == k) {
+                    // the blocks of the shell s are at least (s - 1) cells away
+                    final long min = (long) (s - 1) * CELL_SIZE + 1;
+                    if (min > 0 && min * min > dist[k - 1]) {
+                        break;
+                    }
+                }
+                for (int cz = qz - s; cz <= qz + s; cz++) {
+                    for (int cy = qy - s; cy <= qy + s; cy++) {
+                        for (int cx = qx - s; cx <= qx + s; cx++) {
+                            if (Math.abs(cx - qx) != s && Math.abs(cy - qy) != s && Math.abs(cz - qz) != s) {
+                                continue;
+                            }
+                            final var cell = cells.get(cellKey(cx, cy, cz));
+                            if (cell == null) {
+                                continue;
+                            }
+                            for (int i = 0; i < cell.ids.size(); i++) {
+                                if (type != 0 && cell.types.get(i) != type) {
+                                    continue;
+                                }
+                                final long d = distance2(x, y, z, cell.pos.get(i * 3), cell.pos.get(i * 3 + 1),
+                                        cell.pos.get(i * 3 + 2));
+                                found = insertSorted(ids, dist, found, cell.ids.get(i), d);
+                            }
+                        }
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        for (int i = 0; i < found; i++) {
+            res.add(ids[i]);
+        }
+        return res;
+    }
+
+    /**
+     * Inserts the ID in the list sorted by the distance, keeps only the nearest
+     * IDs.
+     */
+    private static int insertSorted(long[] ids, long[] dist, int found, long id, long d) {
+        final int k = ids.length;
+        if (found == k && d >= dist[k - 1]) {
+            return found;
+        }
+        int i = found == k ? k - 1 : found;
+        while (i > 0 && dist[i - 1] > d) {
+            ids[i] = ids[i - 1];
+            dist[i] = dist[i - 1];
+            i--;
+        }
+        ids[i] = id;
+        dist[i] = d;
+        return found == k ? k : found + 1;
+    }
+
+    /**
+     * Removes all objects.
+     */
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            cells.clear();
+            size = 0;
+            minCx = minCy = minCz = Integer.MAX_VALUE;
+            maxCx = maxCy = maxCz = Integer.MIN_VALUE;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
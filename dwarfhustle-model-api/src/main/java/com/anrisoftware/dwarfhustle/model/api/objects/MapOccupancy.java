@@ -0,0 +1,272 @@
+/*
+ * dwarfhustle-model-api - Manages the compile dependencies for the model.
+ * Copyright © 2022-2025 Erwin Müller (erwin.mueller@anrisoftware.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.anrisoftware.dwarfhustle.model.api.objects;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.eclipse.collections.api.block.procedure.primitive.IntProcedure;
+import org.eclipse.collections.api.factory.primitive.IntIntMaps;
+import org.eclipse.collections.api.factory.primitive.IntSets;
+import org.eclipse.collections.api.map.primitive.MutableIntIntMap;
+import org.eclipse.collections.api.set.primitive.IntSet;
+import org.eclipse.collections.api.set.primitive.MutableIntSet;
+
+/**
+ * Index of the blocks of a {@link GameMap} that have at least one
+ * {@link GameMapObject}.
+ * <p>
+ * The objects count of the blocks are kept in primitive maps striped by the
+ * {@link MapChunk} CID, so the updates of different chunks do not contend for
+ * the same lock. A bitset of all blocks answers {@link #isFilled(int)} without
+ * a lock. The bitset is divided in pages that are created on the first filled
+ * block of the page, and the array of the pages only grows up to the last
+ * filled page, so the index does not need the size of the map and an empty
+ * index is small.
+ *
+ * @author Erwin Müller, {@code <erwin@muellerpublic.de>}
+ */
+public class MapOccupancy {
+
+    private static final int PAGE_BITS = 18;
+
+    private static final int PAGE_MASK = (1 << PAGE_BITS) - 1;
+
+    /**
+     * Reads the {@link MapOccupancy} from the stream.
+     *
+     * @see #writeStream(DataOutput)
+     */
+    public static MapOccupancy readStream(DataInput in) throws IOException {
+        final var o = new MapOccupancy();
+        int cid;
+        while ((cid = in.readInt()) != -1) {
+            final int blocks = in.readInt();
+            final var stripe = o.getStripe(cid);
+            for (int j = 0; j < blocks; j++) {
+                final int index = in.readInt();
+                stripe.put(index, in.readInt());
+                o.setBit(index);
+            }
+        }
+        return o;
+    }
+
+    private volatile AtomicReferenceArray<AtomicLongArray> pages;
+
+    private volatile AtomicReferenceArray<MutableIntIntMap> stripes;
+
+    public MapOccupancy() {
+        this.pages = new AtomicReferenceArray<>(0);
+        this.stripes = new AtomicReferenceArray<>(64);
+    }
+
+    /**
+     * Adds an object to the block.
+     */
+    public void add(int cid, int index) {
+        final var stripe = getStripe(cid);
+        synchronized (stripe) {
+            if (stripe.addToValue(index, 1) == 1) {
+                setBit(index);
+            }
+        }
+    }
+
+    /**
+     * Removes an object from the block.
+     */
+    public void remove(int cid, int index) {
+        final var stripe = getStripe(cid);
+        synchronized (stripe) {
+            if (!stripe.containsKey(index)) {
+                return;
+            }
+            if (stripe.addToValue(index, -1) <= 0) {
+                stripe.remove(index);
+                clearBit(index);
+            }
+        }
+    }
+
+    /**
+     * Returns true if the block with the map index have any objects.
+     */
+    public boolean isFilled(int index) {
+        final var page = getPageOrNull(index >>> PAGE_BITS);
+        if (page == null) {
+            return false;
+        }
+        final int i = index & PAGE_MASK;
+        return (page.get(i >>> 6) & 1L << i) != 0;
+    }
+
+    /**
+     * Returns the count of the filled blocks of the chunk.
+     */
+    public int getBlocksCount(int cid) {
+        final var stripe = getStripeOrNull(cid);
+        if (stripe == null) {
+            return 0;
+        }
+        synchronized (stripe) {
+            return stripe.size();
+        }
+    }
+
+    /**
+     * Calls the procedure with the indices of the filled blocks of the chunk.
+     */
+    public void forEachBlock(int cid, IntProcedure procedure) {
+        final var stripe = getStripeOrNull(cid);
+        if (stripe == null) {
+            return;
+        }
+        synchronized (stripe) {
+            stripe.forEachKey(procedure);
+        }
+    }
+
+    /**
+     * Calls the procedure with the indices of all filled blocks.
+     */
+    public void forEachBlock(IntProcedure procedure) {
+        final var stripes = this.stripes;
+        for (int cid = 0; cid < stripes.length(); cid++) {
+            forEachBlock(cid, procedure);
+        }
+    }
+
+    /**
+     * Returns the indices of all filled blocks.
+     */
+    public IntSet getBlocks() {
+        final MutableIntSet set = IntSets.mutable.empty();
+        forEachBlock(set::add);
+        return set;
+    }
+
+    /**
+     * Writes the filled blocks with the objects count to the stream, grouped by
+     * the chunk CID. The end is marked with the CID -1.
+     */
+    public void writeStream(DataOutput out) throws IOException {
+        final var stripes = this.stripes;
+        for (int cid = 0; cid < stripes.length(); cid++) {
+            final var stripe = stripes.get(cid);
+            if (stripe == null) {
+                continue;
+            }
+            synchronized (stripe) {
+                if (stripe.isEmpty()) {
+                    continue;
+                }
+                out.writeInt(cid);
+                out.writeInt(stripe.size());
+                for (final var it = stripe.keyValuesView().iterator(); it.hasNext();) {
+                    final var kv = it.next();
+                    out.writeInt(kv.getOne());
+                    out.writeInt(kv.getTwo());
+                }
+            }
+        }
+        out.writeInt(-1);
+    }
+
+    private MutableIntIntMap getStripeOrNull(int cid) {
+        final var stripes = this.stripes;
+        return cid < stripes.length() ? stripes.get(cid) : null;
+    }
+
+    private MutableIntIntMap getStripe(int cid) {
+        final var stripe = getStripeOrNull(cid);
+        if (stripe != null) {
+            return stripe;
+        }
+        return createStripe(cid);
+    }
+
+    /**
+     * Creates the stripe of the chunk. The stripes are only created and the
+     * stripes array is only grown with the lock, so no stripe is lost.
+     */
+    private synchronized MutableIntIntMap createStripe(int cid) {
+        var stripes = this.stripes;
+        if (cid >= stripes.length()) {
+            final var grown = new AtomicReferenceArray<MutableIntIntMap>(Math.max(cid + 1, stripes.length() * 2));
+            for (int i = 0; i < stripes.length(); i++) {
+                grown.set(i, stripes.get(i));
+            }
+            this.stripes = stripes = grown;
+        }
+        var stripe = stripes.get(cid);
+        if (stripe == null) {
+            stripe = IntIntMaps.mutable.empty();
+            stripes.set(cid, stripe);
+        }
+        return stripe;
+    }
+
+    private AtomicLongArray getPageOrNull(int p) {
+        final var pages = this.pages;
+        return p < pages.length() ? pages.get(p) : null;
+    }
+
+    /**
+     * Creates the page of the bitset. The pages are only created and the pages
+     * array is only grown with the lock, so no page is lost.
+     */
+    private synchronized AtomicLongArray createPage(int p) {
+        var pages = this.pages;
+        if (p >= pages.length()) {
+            final var grown = new AtomicReferenceArray<AtomicLongArray>(p + 1);
+            for (int i = 0; i < pages.length(); i++) {
+                grown.set(i, pages.get(i));
+            }
+            this.pages = pages = grown;
+        }
+        var page = pages.get(p);
+        if (page == null) {
+            page = new AtomicLongArray(1 << PAGE_BITS - 6);
+            pages.set(p, page);
+        }
+        return page;
+    }
+
+    private void setBit(int index) {
+        final int p = index >>> PAGE_BITS;
+        var page = getPageOrNull(p);
+        if (page == null) {
+            page = createPage(p);
+        }
+        final int i = index & PAGE_MASK;
+        page.getAndAccumulate(i >>> 6, 1L << i, (v, b) -> v | b);
+    }
+
+    private void clearBit(int index) {
+        final var page = getPageOrNull(index >>> PAGE_BITS);
+        if (page != null) {
+            final int i = index & PAGE_MASK;
+            page.getAndAccumulate(i >>> 6, 1L << i, (v, b) -> v & ~b);
+        }
+    }
+
+}
@@ -204,4 +204,29 @@ public enum NeighboringDir {
      * level.
      */
     public static final NeighboringDir[] DIRS_EDGE_SAME_LEVEL = { NE, SE, SW, NW };
+
+    /**
+     * All directions, without the copy of {@link #values()}.
+     */
+    public static final NeighboringDir[] DIRS = values();
+
+    private static final NeighboringDir[] OFFSETS = new NeighboringDir[3 * 3 * 3];
+
+    static {
+        for (var dir : DIRS) {
+            OFFSETS[offsetIndex(dir.pos.x, dir.pos.y, dir.pos.z)] = dir;
+        }
+    }
+
+    private static int offsetIndex(int x, int y, int z) {
+        return (z + 1) * 9 + (y + 1) * 3 + x + 1;
+    }
+
+    /**
+     * Returns the direction of the x/y/z offset, each offset is -1, 0 or 1.
+     * Returns {@code null} for the offset 0/0/0.
+     */
+    public static NeighboringDir fromOffset(int x, int y, int z) {
+        return OFFSETS[offsetIndex(x, y, z)];
+    }
 }
@@ -19,6 +19,13 @@ package com.anrisoftware.dwarfhustle.model.api.objects;
 
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+import org.eclipse.collections.api.LongIterable;
+import org.eclipse.collections.api.factory.primitive.LongObjectMaps;
+import org.eclipse.collections.api.map.primitive.LongObjectMap;
+import org.eclipse.collections.api.map.primitive.MutableLongObjectMap;
 
 /**
  * Returns {@link GameObject} game objects.
@@ -57,4 +64,63 @@ public interface ObjectsGetter {
      * Returns the {@link GameObject}.
      */
     <T extends GameObject> T get(int type, long key) throws ObjectsGetterException;
+
+    /**
+     * Returns the {@link GameObject}s of the keys. Objects that are not found
+     * are not in the returned map. Implementations should retrieve all keys at
+     * once, the default implementation calls {@link #get(int, long)} for each
+     * key.
+     */
+    default <T extends GameObject> LongObjectMap<T> getAll(int type, LongIterable keys)
+            throws ObjectsGetterException {
+        final MutableLongObjectMap<T> res = LongObjectMaps.mutable.ofInitialCapacity(keys.size());
+        keys.forEach(key -> {
+            final T go = get(type, key);
+            if (go != null) {
+                res.put(key, go);
+            }
+        });
+        return res;
+    }
+
+    /**
+     * Returns the {@link GameObject} without blocking the caller. The default
+     * implementation calls {@link #get(int, long)} in the
+     * {@link ForkJoinPool#commonPool()}, so implementations that block on I/O
+     * must override it, or the callers must use
+     * {@link #getAsync(int, long, Executor)}.
+     */
+    default <T extends GameObject> CompletionStage<T> getAsync(int type, long key) {
+        return getAsync(type, key, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Returns the {@link GameObject} without blocking the caller. The object is
+     * retrieved in the {@link Executor}.
+     */
+    default <T extends GameObject> CompletionStage<T> getAsync(int type, long key, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> get(type, key), executor);
+    }
+
+    /**
+     * Returns the {@link GameObject}s of the keys without blocking the caller.
+     * The default implementation calls {@link #getAll(int, LongIterable)} in the
+     * {@link ForkJoinPool#commonPool()}, see {@link #getAsync(int, long)}.
+     *
+     * @see #getAll(int, LongIterable)
+     */
+    default <T extends GameObject> CompletionStage<LongObjectMap<T>> getAllAsync(int type, LongIterable keys) {
+        return getAllAsync(type, keys, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Returns the {@link GameObject}s of the keys without blocking the caller.
+     * The objects are retrieved in the {@link Executor}.
+     *
+     * @see #getAll(int, LongIterable)
+     */
+    default <T extends GameObject> CompletionStage<LongObjectMap<T>> getAllAsync(int type, LongIterable keys,
+            Executor executor) {
+        return CompletableFuture.supplyAsync(() -> getAll(type, keys), executor);
+    }
 }
@@ -0,0 +1,122 @@
+/*
+ * dwarfhustle-model-api - Manages the compile dependencies for the model.
+ * Copyright © 2022-2025 Erwin Müller (erwin.mueller@anrisoftware.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.anrisoftware.dwarfhustle.model.api.objects
+
+import org.junit.jupiter.api.Test
+
+/**
+ * @see GameMap
+ *
+ * @author Erwin Müller, {@code <erwin@muellerpublic.de>}
+ */
+class GameMapTest {
+
+    /**
+     * Size of the stream of an empty map after the climate zone.
+     */
+    static final int EMPTY_TAIL_SIZE = 4 + 4 + 4 + 8 + 1 + 4 + 8 + 4
+
+    static byte[] write(GameMap gm) {
+        def bytes = new ByteArrayOutputStream()
+        new DataOutputStream(bytes).withCloseable { gm.writeStream(it) }
+        return bytes.toByteArray()
+    }
+
+    static GameMap read(byte[] b) {
+        def gm = new GameMap()
+        new DataInputStream(new ByteArrayInputStream(b)).withCloseable { gm.readStream(it) }
+        return gm
+    }
+
+    @Test
+    void write_read_stream() {
+        def gm = new GameMap(1, 32, 32, 8)
+        gm.climateZone = 5
+        gm.addFilledBlock(1, 10)
+        gm.addFilledBlock(1, 10)
+        gm.addFilledBlock(2, 100)
+        def thatGm = read(write(gm))
+        assert thatGm.climateZone == 5
+        assert thatGm.filledBlocksIndices == gm.filledBlocksIndices
+        thatGm.removeFilledBlock(1, 10)
+        assert thatGm.isFilledBlock(10)
+    }
+
+    @Test
+    void read_stream_without_version() {
+        def gm = new GameMap(1, 32, 32, 8)
+        gm.climateZone = 5
+        def b = write(gm)
+        def out = new ByteArrayOutputStream()
+        out.write(b, 0, b.length - EMPTY_TAIL_SIZE)
+        new DataOutputStream(out).withCloseable {
+            // filled blocks with the objects count
+            it.writeInt(2)
+            it.writeInt(10)
+            it.writeInt(2)
+            it.writeInt(100)
+            it.writeInt(1)
+            // filled blocks of the chunks
+            it.writeInt(2)
+            it.writeInt(1)
+            it.writeInt(1)
+            it.writeInt(10)
+            it.writeInt(1)
+            it.writeInt(2)
+            it.writeInt(100)
+            // selected blocks
+            it.writeInt(0)
+            // cursor object
+            it.writeLong(7)
+            // block to chunk map
+            it.writeInt(1)
+            it.writeInt(10)
+            it.writeInt(1)
+            // selected object
+            it.writeInt(3)
+            it.writeLong(4)
+            // types objects
+            it.writeInt(0)
+        }
+        def thatGm = read(out.toByteArray())
+        assert thatGm.climateZone == 5
+        assert thatGm.cursorObject == 7
+        assert thatGm.selectedObjectType == 3
+        assert thatGm.selectedObjectId == 4
+        assert thatGm.chunksIndex == null
+        assert thatGm.filledBlocksIndices.toSortedArray() == [10, 100] as int[]
+        thatGm.removeFilledBlock(1, 10)
+        assert thatGm.isFilledBlock(10)
+        thatGm.removeFilledBlock(1, 10)
+        assert !thatGm.isFilledBlock(10)
+    }
+
+    @Test
+    void read_stream_unknown_version() {
+        def gm = new GameMap(1, 32, 32, 8)
+        def b = write(gm)
+        b[b.length - EMPTY_TAIL_SIZE + 3] = (byte) -2
+        def error
+        try {
+            read(b)
+        } catch (IOException e) {
+            error = e
+        }
+        assert error != null
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * dwarfhustle-model-api - Manages the compile dependencies for the model.
+ * Copyright © 2022-2025 Erwin Müller (erwin.mueller@anrisoftware.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.anrisoftware.dwarfhustle.model.api.objects
+
+import java.nio.ByteBuffer
+
+import org.agrona.concurrent.UnsafeBuffer
+import org.junit.jupiter.api.Test
+
+/**
+ * @see MapBlocksPalette
+ *
+ * @author Erwin Müller, {@code <erwin@muellerpublic.de>}
+ */
+class MapBlocksPaletteTest {
+
+    static final int SIZE = 14
+
+    @Test
+    void pack_set_unpack() {
+        def blocks = new UnsafeBuffer(ByteBuffer.allocate(4096 * SIZE))
+        for (int i = 0; i < 4096; i++) {
+            blocks.putShort(i * SIZE + 6, (short) 100)
+        }
+        def palette = MapBlocksPalette.pack(blocks, SIZE)
+        assert palette.size == 1
+        def b = new UnsafeBuffer(new byte[SIZE])
+        for (int i = 0; i < 255; i++) {
+            b.putShort(6, (short) (200 + i))
+            assert palette.set(i * 16, b, 0)
+            blocks.putShort(i * 16 * SIZE + 6, (short) (200 + i))
+        }
+        assert palette.size == MapBlocksPalette.MAX_SIZE
+        b.putShort(6, (short) 1000)
+        assert !palette.set(1, b, 0)
+        b.putShort(6, (short) 300)
+        assert palette.set(1, b, 0)
+        blocks.putShort(1 * SIZE + 6, (short) 300)
+        assert palette.entries.getShort(palette.getEntryOff(1) + 6) == 300
+        def unpacked = palette.unpack()
+        for (int i = 0; i < 4096 * SIZE; i++) {
+            assert unpacked.getByte(i) == blocks.getByte(i)
+        }
+    }
+
+    @Test
+    void pack_too_many_distinct() {
+        def blocks = new UnsafeBuffer(ByteBuffer.allocate(512 * SIZE))
+        for (int i = 0; i < 512; i++) {
+            blocks.putShort(i * SIZE + 6, (short) i)
+        }
+        assert MapBlocksPalette.pack(blocks, SIZE) == null
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * dwarfhustle-model-api - Manages the compile dependencies for the model.
+ * Copyright © 2022-2025 Erwin Müller (erwin.mueller@anrisoftware.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.anrisoftware.dwarfhustle.model.api.objects
+
+import static com.anrisoftware.dwarfhustle.model.api.objects.MapChunk.cid2Id
+
+import org.eclipse.collections.api.factory.primitive.LongObjectMaps
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.params.ParameterizedTest
+import org.junit.jupiter.params.provider.CsvSource
+
+/**
+ * @see MapChunksIndex
+ *
+ * @author Erwin Müller, {@code <erwin@muellerpublic.de>}
+ */
+class MapChunksIndexTest {
+
+    static Map<Long, MapChunk> createChunks(int w, int h, int d, int chunkSize) {
+        def chunks = [:]
+        def root = new MapChunk(cid2Id(0), 0, chunkSize, w, h, new GameChunkPos(0, 0, 0, w, h, d))
+        chunks[root.id] = root
+        createMap(chunks, root, chunkSize, w, h)
+        return chunks
+    }
+
+    static void createMap(Map<Long, MapChunk> chunks, MapChunk parent, int chunkSize, int w, int h) {
+        def pos = parent.pos
+        def children = LongObjectMaps.mutable.empty()
+        int cx = pos.sizeX / 2
+        int cy = pos.sizeY / 2
+        int cz = pos.sizeZ > chunkSize ? pos.sizeZ / 2 : pos.sizeZ
+        for (int xx = pos.x; xx < pos.ep.x; xx += cx) {
+            for (int yy = pos.y; yy < pos.ep.y; yy += cy) {
+                for (int zz = pos.z; zz < pos.ep.z; zz += cz) {
+                    def chunk = new MapChunk(cid2Id(chunks.size()), parent.cid, chunkSize, w, h,
+                            new GameChunkPos(xx, yy, zz, xx + cx, yy + cy, zz + cz))
+                    chunks[chunk.id] = chunk
+                    children.put(chunk.cid, chunk.pos)
+                    if (!chunk.leaf) {
+                        createMap(chunks, chunk, chunkSize, w, h)
+                    }
+                }
+            }
+        }
+        parent.chunks = children
+    }
+
+    @ParameterizedTest
+    @CsvSource([
+        "8,8,8,2",
+        "8,8,4,4",
+        "16,16,4,4",
+        "32,32,32,8",
+    ])
+    void getCid_all_blocks(int w, int h, int d, int chunkSize) {
+        def chunks = createChunks(w, h, d, chunkSize)
+        int gets = 0
+        def og = { type, id ->
+            gets++
+            chunks[id]
+        } as ObjectsGetter
+        def index = MapChunksIndex.create(chunks[cid2Id(0)], og)
+        def leafs = chunks.values().findAll { it.leaf }
+        for (int z = 0; z < d; z++) {
+            for (int y = 0; y < h; y++) {
+                for (int x = 0; x < w; x++) {
+                    def leaf = leafs.find { it.isInside(x, y, z) }
+                    assert index.getCid(x, y, z) == leaf.cid
+                }
+            }
+        }
+        assert index.getCid(-1, 0, 0) == -1
+        assert index.getCid(w, 0, 0) == -1
+        assert index.getCid(0, 0, d) == -1
+        gets = 0
+        def chunk = index.getChunk(w - 1, h - 1, d - 1, og)
+        assert chunk.isInside(w - 1, h - 1, d - 1)
+        assert gets == 1
+        chunks[cid2Id(chunk.cid)] = new MapChunk(chunk.id, chunk.parent as int, chunkSize, w, h, chunk.pos)
+        def thatChunk = index.getChunk(w - 1, h - 1, d - 1, og)
+        assert gets == 2
+        assert !thatChunk.is(chunk)
+        assert thatChunk.cid == chunk.cid
+    }
+
+    @Test
+    void write_read_stream_getCid_index() {
+        def chunks = createChunks(16, 16, 8, 4)
+        def og = { type, id -> chunks[id] } as ObjectsGetter
+        def index = MapChunksIndex.create(chunks[cid2Id(0)], og)
+        def bout = new ByteArrayOutputStream()
+        index.writeStream(new DataOutputStream(bout))
+        def thatIndex = MapChunksIndex.readStream(new DataInputStream(new ByteArrayInputStream(bout.toByteArray())))
+        def gm = new GameMap(1, 16, 16, 8)
+        gm.chunksIndex = thatIndex
+        for (int z = 0; z < 8; z++) {
+            for (int y = 0; y < 16; y++) {
+                for (int x = 0; x < 16; x++) {
+                    int i = GameBlockPos.calcIndex(gm, x, y, z)
+                    assert gm.getCid(i) == index.getCid(x, y, z)
+                }
+            }
+        }
+    }
+}
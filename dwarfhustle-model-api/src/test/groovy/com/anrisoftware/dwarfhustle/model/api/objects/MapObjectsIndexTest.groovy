@@ -0,0 +1,81 @@
+/*
+ * dwarfhustle-model-api - Manages the compile dependencies for the model.
+ * Copyright © 2022-2025 Erwin Müller (erwin.mueller@anrisoftware.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.anrisoftware.dwarfhustle.model.api.objects
+
+import org.junit.jupiter.api.Test
+
+/**
+ * @see MapObjectsIndex
+ *
+ * @author Erwin Müller, {@code <erwin@muellerpublic.de>}
+ */
+class MapObjectsIndexTest {
+
+    static List createObjects(MapObjectsIndex index, int count) {
+        def rnd = new Random(1)
+        def objects = []
+        for (int i = 0; i < count; i++) {
+            def o = [id: 100L + i, type: 1 + rnd.nextInt(2), x: rnd.nextInt(64), y: rnd.nextInt(64), z: rnd.nextInt(16)]
+            index.add(o.type, o.id, o.x, o.y, o.z)
+            objects << o
+        }
+        return objects
+    }
+
+    static long dist2(Map o, int x, int y, int z) {
+        (o.x - x) * (o.x - x) + (o.y - y) * (o.y - y) + (o.z - z) * (o.z - z)
+    }
+
+    @Test
+    void findRange_findRadius_compare_scan() {
+        def index = new MapObjectsIndex()
+        def objects = createObjects(index, 2000)
+        assert index.size() == 2000
+        def range = index.findRange(1, 10, 20, 2, 30, 41, 9).toSortedArray() as List
+        assert range == objects.findAll {
+            it.type == 1 && it.x >= 10 && it.x < 30 && it.y >= 20 && it.y < 41 && it.z >= 2 && it.z < 9
+        }.collect { it.id as long }.sort()
+        def radius = index.findRadius(0, 32, 32, 8, 10).toSortedArray() as List
+        assert radius == objects.findAll { dist2(it, 32, 32, 8) <= 100 }.collect { it.id as long }.sort()
+    }
+
+    @Test
+    void findNearest_compare_scan() {
+        def index = new MapObjectsIndex()
+        def objects = createObjects(index, 2000)
+        [[0, 0, 0], [32, 32, 8], [63, 10, 15], [100, 100, 100]].each { x, y, z ->
+            def nearest = index.findNearest(2, x, y, z, 5)
+            def expected = objects.findAll { it.type == 2 }.collect { dist2(it, x, y, z) }.sort().take(5)
+            def byId = objects.collectEntries { [it.id, it] }
+            assert nearest.toArray().collect { dist2(byId[it], x, y, z) } == expected
+        }
+    }
+
+    @Test
+    void remove_objects() {
+        def index = new MapObjectsIndex()
+        index.add(1, 100, 1, 1, 1)
+        index.add(1, 101, 2, 1, 1)
+        index.add(1, 102, 20, 1, 1)
+        assert index.remove(100, 1, 1, 1)
+        assert !index.remove(100, 1, 1, 1)
+        assert index.size() == 2
+        assert index.findNearest(1, 0, 0, 0, 1).get(0) == 101
+        assert index.findRadius(0, 0, 0, 0, 50).toSortedArray() as List == [101L, 102L]
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * dwarfhustle-model-api - Manages the compile dependencies for the model.
+ * Copyright © 2022-2025 Erwin Müller (erwin.mueller@anrisoftware.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.anrisoftware.dwarfhustle.model.api.objects
+
+import java.util.stream.IntStream
+
+import org.eclipse.collections.api.factory.primitive.IntSets
+import org.junit.jupiter.api.Test
+
+/**
+ * @see MapOccupancy
+ *
+ * @author Erwin Müller, {@code <erwin@muellerpublic.de>}
+ */
+class MapOccupancyTest {
+
+    @Test
+    void add_remove_blocks() {
+        def o = new MapOccupancy()
+        o.add(1, 10)
+        o.add(1, 10)
+        o.add(2, 1000000)
+        o.add(100, 20)
+        assert o.isFilled(10)
+        assert o.isFilled(1000000)
+        assert o.isFilled(20)
+        assert !o.isFilled(11)
+        assert o.getBlocksCount(1) == 1
+        assert o.getBlocksCount(3) == 0
+        o.remove(1, 10)
+        assert o.isFilled(10)
+        o.remove(1, 10)
+        assert !o.isFilled(10)
+        o.remove(1, 10)
+        assert !o.isFilled(10)
+        assert o.getBlocksCount(1) == 0
+        assert o.blocks == IntSets.immutable.with(1000000, 20)
+    }
+
+    @Test
+    void forEachBlock_of_chunk() {
+        def o = new MapOccupancy()
+        o.add(1, 10)
+        o.add(1, 11)
+        o.add(2, 12)
+        def blocks = IntSets.mutable.empty()
+        o.forEachBlock(1, { blocks.add(it) })
+        assert blocks == IntSets.immutable.with(10, 11)
+    }
+
+    @Test
+    void write_read_stream() {
+        def o = new MapOccupancy()
+        o.add(1, 10)
+        o.add(1, 10)
+        o.add(5, 500)
+        def bout = new ByteArrayOutputStream(512)
+        o.writeStream(new DataOutputStream(bout))
+        def that = MapOccupancy.readStream(new DataInputStream(new ByteArrayInputStream(bout.toByteArray())))
+        assert that.isFilled(10)
+        assert that.isFilled(500)
+        assert that.blocks == o.blocks
+        that.remove(1, 10)
+        assert that.isFilled(10)
+    }
+
+    @Test
+    void add_remove_parallel() {
+        def o = new MapOccupancy()
+        IntStream.range(0, 100000).parallel().forEach({ o.add(it % 128, it) })
+        assert IntStream.range(0, 100000).allMatch({ o.isFilled(it) })
+        IntStream.range(0, 100000).parallel().forEach({ o.remove(it % 128, it) })
+        assert o.blocks.empty
+    }
+}
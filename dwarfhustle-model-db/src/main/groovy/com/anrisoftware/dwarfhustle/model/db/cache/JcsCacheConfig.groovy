@@ -63,6 +63,9 @@ public class JcsCacheConfig {
      *               <li>max_idle
      *               <li>is_eternal
      *               <li>max_life
+     *               <li>max_bytes, uses the {@link MapChunksMemoryCache}
+     *               <li>release_blocks, frees the evicted chunks, the chunks used
+     *               outside of the cache must be pinned
      *               </ul>
      */
     public static void createCache(Properties config, Map<String, Object> params) {
@@ -74,9 +77,17 @@ public class JcsCacheConfig {
         } else {
             config["${region}"] = ""
         }
-        config["${region}.cacheattributes"] = "org.apache.commons.jcs3.engine.CompositeCacheAttributes"
-        config["${region}.cacheattributes.MaxObjects"] = "${params.max_objects}"
-        config["${region}.cacheattributes.MemoryCacheName"] = "org.apache.commons.jcs3.engine.memory.lru.LRUMemoryCache"
+        if (params.containsKey("max_bytes")) {
+            config["${region}.cacheattributes"] = MapChunksCacheAttributes.name
+            config["${region}.cacheattributes.MaxObjects"] = "${params.max_objects}"
+            config["${region}.cacheattributes.MemoryCacheName"] = MapChunksMemoryCache.name
+            config["${region}.cacheattributes.MaxBytes"] = "${params.max_bytes}"
+            config["${region}.cacheattributes.ReleaseBlocks"] = "${params.containsKey("release_blocks") ? params.release_blocks : false}"
+        } else {
+            config["${region}.cacheattributes"] = "org.apache.commons.jcs3.engine.CompositeCacheAttributes"
+            config["${region}.cacheattributes.MaxObjects"] = "${params.max_objects}"
+            config["${region}.cacheattributes.MemoryCacheName"] = "org.apache.commons.jcs3.engine.memory.lru.LRUMemoryCache"
+        }
         config["${region}.cacheattributes.UseMemoryShrinker"] = "${params.containsKey("use_mem_shrinker") ? params.use_mem_shrinker : false}"
         config["${region}.cacheattributes.ShrinkerIntervalSeconds"] = "${params.containsKey("shrinker_interval") ? params.shrinker_interval : 30}"
         config["${region}.cacheattributes.MaxMemoryIdleTimeSeconds"] = "${params.containsKey("max_idle") ? params.max_idle : 60}"
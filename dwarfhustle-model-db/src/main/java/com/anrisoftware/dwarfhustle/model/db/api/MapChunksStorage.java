@@ -43,6 +43,13 @@ public interface MapChunksStorage extends AutoCloseable, ObjectsSetter {
      */
     void putChunks(Iterable<MapChunk> chunks);
 
+    /**
+     * Writes all pending {@link MapChunk}(s). Returns after the chunks are
+     * durable.
+     */
+    default void flush() {
+    }
+
     /**
      * Returns the {@link MapChunk} with the chunk ID.
      */
@@ -53,4 +60,12 @@ public interface MapChunksStorage extends AutoCloseable, ObjectsSetter {
      */
     void forEachValue(Consumer<MapChunk> consumer);
 
+    /**
+     * Retrieves all {@link MapChunk} chunks as read-only views. The chunks are only
+     * valid inside of the consumer and must be copied to be used outside of it.
+     */
+    default void forEachValueView(Consumer<MapChunk> consumer) {
+        forEachValue(consumer);
+    }
+
 }
@@ -27,10 +27,12 @@ import java.nio.ByteBuffer;
 
 import org.agrona.DirectBuffer;
 import org.agrona.MutableDirectBuffer;
+import org.agrona.concurrent.UnsafeBuffer;
 
 import com.anrisoftware.dwarfhustle.model.api.objects.GameBlockPos;
 import com.anrisoftware.dwarfhustle.model.api.objects.MapBlock;
 import com.anrisoftware.dwarfhustle.model.api.objects.MapBlockFlags;
+import com.anrisoftware.dwarfhustle.model.api.objects.MapBlocksPalette;
 import com.anrisoftware.dwarfhustle.model.api.objects.MapChunk;
 import com.anrisoftware.dwarfhustle.model.api.objects.PropertiesSet;
 
@@ -51,6 +53,11 @@ import com.anrisoftware.dwarfhustle.model.api.objects.PropertiesSet;
  * short 0    1    2    3    4    5    6
  *       pppp pppp PPPP mmmm oooo tttt llll
  * </pre>
+ * <p>
+ * The accessors with the {@link MapChunk} argument read and write the blocks of
+ * the chunk either from the blocks buffer or from the {@link MapBlocksPalette}
+ * if the blocks of the chunk are packed. If the palette is full then the blocks
+ * are unpacked.
  */
 public class MapBlockBuffer {
 
@@ -77,6 +84,19 @@ public class MapBlockBuffer {
 
     private static final int LUX_BYTE = 6 * 2;
 
+    private static final ThreadLocal<MutableDirectBuffer> buffBlock = ThreadLocal
+            .withInitial(() -> new UnsafeBuffer(new byte[SIZE]));
+
+    /**
+     * Sets a value of the block.
+     *
+     * @author Erwin Müller, {@code <erwin@muellerpublic.de>}
+     */
+    @FunctionalInterface
+    private interface BlockSetter {
+        void set(MutableDirectBuffer b, int off, int v);
+    }
+
     /**
      * Returns the size of the {@link MapBlock}'s buffer for the chunk width, height
      * and depth.
@@ -173,6 +193,96 @@ public class MapBlockBuffer {
         return short2int(b.getShort(LUX_BYTE + off));
     }
 
+    /**
+     * Returns the buffer with the block of the {@link MapChunk}.
+     */
+    private static DirectBuffer getBuffer(MapChunk c) {
+        final var p = c.getPalette();
+        return p != null ? p.getEntries() : c.getFlatBlocks();
+    }
+
+    /**
+     * Returns the offset of the block in the buffer from
+     * {@link #getBuffer(MapChunk)}.
+     */
+    private static int getBufferOff(MapChunk c, int off) {
+        final var p = c.getPalette();
+        return p != null ? p.getEntryOff(off / SIZE) : off;
+    }
+
+    private static void setBlock(MapChunk c, int off, int v, BlockSetter setter) {
+        final var p = c.getPalette();
+        if (p != null) {
+            final var b = buffBlock.get();
+            b.putBytes(0, p.getEntries(), p.getEntryOff(off / SIZE), SIZE);
+            setter.set(b, 0, v);
+            if (p.set(off / SIZE, b, 0)) {
+                c.markBlockDirty(off);
+                return;
+            }
+        }
+        setter.set(c.getWritableBlocks(off), off, v);
+    }
+
+    public static void setParent(MapChunk c, int off, int p) {
+        setBlock(c, off, p, MapBlockBuffer::setParent);
+    }
+
+    public static int getParent(MapChunk c, int off) {
+        return getParent(getBuffer(c), getBufferOff(c, off));
+    }
+
+    public static void setMaterial(MapChunk c, int off, int m) {
+        setBlock(c, off, m, MapBlockBuffer::setMaterial);
+    }
+
+    public static int getMaterial(MapChunk c, int off) {
+        return getMaterial(getBuffer(c), getBufferOff(c, off));
+    }
+
+    public static void setObject(MapChunk c, int off, int o) {
+        setBlock(c, off, o, MapBlockBuffer::setObject);
+    }
+
+    public static int getObject(MapChunk c, int off) {
+        return getObject(getBuffer(c), getBufferOff(c, off));
+    }
+
+    public static void setProp(MapChunk c, int off, int p) {
+        setBlock(c, off, p, MapBlockBuffer::setProp);
+    }
+
+    public static int getProp(MapChunk c, int off) {
+        return getProp(getBuffer(c), getBufferOff(c, off));
+    }
+
+    public static boolean isProp(MapChunk c, int off, int flags) {
+        return isFlag(getProp(c, off), flags);
+    }
+
+    public static void setTemp(MapChunk c, int off, int t) {
+        setBlock(c, off, t, MapBlockBuffer::setTemp);
+    }
+
+    public static int getTemp(MapChunk c, int off) {
+        return getTemp(getBuffer(c), getBufferOff(c, off));
+    }
+
+    public static void setLux(MapChunk c, int off, int l) {
+        setBlock(c, off, l, MapBlockBuffer::setLux);
+    }
+
+    public static int getLux(MapChunk c, int off) {
+        return getLux(getBuffer(c), getBufferOff(c, off));
+    }
+
+    /**
+     * Reads the {@link MapBlock} of the {@link MapChunk} at the offset.
+     */
+    public static MapBlock read(MapChunk c, int off, GameBlockPos pos) {
+        return read(getBuffer(c), getBufferOff(c, off), pos);
+    }
+
     /**
      * Writes the {@link MapBlock} to the buffer.
      *
@@ -217,6 +327,15 @@ public class MapBlockBuffer {
         return read(b, off, pos);
     }
 
+    /**
+     * Reads the {@link MapBlock} of the {@link MapChunk} with the specified index.
+     */
+    public static MapBlock readMapBlockIndex(MapChunk c, int i, int cw, int ch, int cd, int sx, int sy, int sz) {
+        final var pos = new GameBlockPos(calcX(i, cw, sx), calcY(i, cw, sy), calcZ(i, cw, ch, sz));
+        final var off = GameBlockPos.calcIndex(cw, ch, cd, sx, sy, sz, pos.x, pos.y, pos.z) * SIZE;
+        return read(c, off, pos);
+    }
+
     /**
      * Writes the {@link MapBlock} from the buffer with the specified index.
      */
@@ -18,7 +18,9 @@
 package com.anrisoftware.dwarfhustle.model.db.buffers;
 
 import static com.anrisoftware.dwarfhustle.model.api.objects.GameBlockPos.calcIndex;
-import static com.anrisoftware.dwarfhustle.model.api.objects.GameBlockPos.fromIndex;
+import static com.anrisoftware.dwarfhustle.model.api.objects.GameBlockPos.calcX;
+import static com.anrisoftware.dwarfhustle.model.api.objects.GameBlockPos.calcY;
+import static com.anrisoftware.dwarfhustle.model.api.objects.GameBlockPos.calcZ;
 import static com.anrisoftware.dwarfhustle.model.api.objects.MapBlock.EMPTY_POS;
 import static com.anrisoftware.dwarfhustle.model.api.objects.MapChunk.cid2Id;
 import static com.anrisoftware.dwarfhustle.model.api.objects.MapChunk.getChunk;
@@ -32,9 +34,9 @@ import java.util.function.Consumer;
 import org.agrona.DirectBuffer;
 import org.agrona.MutableDirectBuffer;
 import org.agrona.concurrent.UnsafeBuffer;
-import org.eclipse.collections.api.factory.primitive.IntIntMaps;
+import org.eclipse.collections.api.factory.primitive.IntLists;
 import org.eclipse.collections.api.factory.primitive.LongObjectMaps;
-import org.eclipse.collections.api.map.primitive.MutableIntIntMap;
+import org.eclipse.collections.api.list.primitive.MutableIntList;
 import org.eclipse.collections.api.map.primitive.MutableLongObjectMap;
 
 import com.anrisoftware.dwarfhustle.model.api.objects.GameBlockPos;
@@ -42,6 +44,7 @@ import com.anrisoftware.dwarfhustle.model.api.objects.GameChunkPos;
 import com.anrisoftware.dwarfhustle.model.api.objects.GameMap;
 import com.anrisoftware.dwarfhustle.model.api.objects.MapBlock;
 import com.anrisoftware.dwarfhustle.model.api.objects.MapChunk;
+import com.anrisoftware.dwarfhustle.model.api.objects.MapChunksIndex;
 import com.anrisoftware.dwarfhustle.model.api.objects.NeighboringDir;
 import com.anrisoftware.dwarfhustle.model.api.objects.ObjectsGetter;
 import com.anrisoftware.dwarfhustle.model.api.objects.PropertiesSet;
@@ -64,11 +67,22 @@ import lombok.RequiredArgsConstructor;
  * <li>@{code C} 8 {@link CidGameChunkPosMapBuffer};
  * <li>@{code b} w*h*d times {@link MapBlockBuffer};
  * </ul>
+ * <p>
+ * The blocks of a leaf chunk can be stored run-length encoded, see
+ * {@link #writeRle(MutableDirectBuffer, int, MapChunk)}. A leaf chunk have no
+ * children, so the format of the blocks is stored in place of the children
+ * {@code C}.
+ * <ul>
+ * <li>@{code f} blocks format, {@link #FORMAT_RAW} or {@link #FORMAT_RLE};
+ * <li>@{code n} count of runs;
+ * <li>@{code r} run length and {@link MapBlockBuffer}.
+ * </ul>
  *
  * <pre>
  * int   0         1         2         3         4         5         6         7         8
  * short 0    1    2    3    4    5    6    7    8    9    10   11        37        94
  *       iiii PPPP cccc wwww hhhh xxxx yyyy zzzz XXXX YYYY ZZZZ NNNN x26. CCCC x8.. bbbb ....
+ *       iiii PPPP cccc wwww hhhh xxxx yyyy zzzz XXXX YYYY ZZZZ NNNN x26. ffff ..   nnnnnnnn rrrrrrrr bbbb ....
  * </pre>
  */
 public class MapChunkBuffer {
@@ -111,6 +125,26 @@ public class MapChunkBuffer {
 
     }
 
+    /**
+     * Receives the values of a {@link MapBlock} without creating the block.
+     *
+     * @author Erwin Müller, {@code <erwin@muellerpublic.de>}
+     */
+    @FunctionalInterface
+    public interface BlockValuesConsumer {
+
+        /**
+         * @param index the block index in the chunk.
+         * @param x     the X position of the block on the map.
+         * @param y     the Y position of the block on the map.
+         * @param z     the Z position of the block on the map.
+         * @param p     the block properties.
+         * @param m     the material KID.
+         * @param o     the object KID.
+         */
+        void accept(int index, int x, int y, int z, int p, int m, int o);
+    }
+
     private static final int ID_BYTE = 0 * 2;
 
     private static final int PARENT_BYTE = 1 * 2;
@@ -129,6 +163,23 @@ public class MapChunkBuffer {
 
     private static final int BLOCKS_BYTE = 94 * 2;
 
+    /**
+     * Offset in bytes of the {@link MapBlock}s.
+     */
+    public static final int BLOCKS_OFFSET = BLOCKS_BYTE;
+
+    private static final int FORMAT_BYTE = CHUNKS_BYTE;
+
+    /**
+     * The blocks are stored as is.
+     */
+    public static final int FORMAT_RAW = 0;
+
+    /**
+     * The blocks are stored run-length encoded.
+     */
+    public static final int FORMAT_RLE = 1;
+
     public static MutableDirectBuffer createBlocks(int size) {
         return new UnsafeBuffer(allocateDirect(size));
     }
@@ -137,20 +188,33 @@ public class MapChunkBuffer {
         return w * h * d * MapBlockBuffer.SIZE;
     }
 
+    /**
+     * Creates the {@link MapChunksIndex} of the map from the leaf chunks in the
+     * storage. The chunk ID of a block is calculated from the index.
+     */
     public static void cacheCids(GameMap gm, MapChunksStorage storage) {
-        final MutableIntIntMap map = IntIntMaps.mutable.ofInitialCapacity(gm.getSize());
-        storage.forEachValue(c -> {
+        final MutableIntList leafs = IntLists.mutable.empty();
+        storage.forEachValueView(c -> {
             if (c.isLeaf()) {
-                for (final var b : MapChunkBuffer.getBlocks(c)) {
-                    final int index = GameBlockPos.calcIndex(gm, b.getPos());
-                    map.put(index, c.getCid());
-                }
+                final var p = c.getPos();
+                leafs.addAll(c.getCid(), p.x, p.y, p.z, p.ep.x, p.ep.y, p.ep.z);
             }
         });
-        gm.setCids(map.toImmutable());
+        gm.setChunksIndex(MapChunksIndex.create(gm.getWidth(), gm.getHeight(), gm.getDepth(), leafs));
     }
 
     public static void write(MutableDirectBuffer b, int offset, MapChunk chunk) {
+        writeHeader(b, offset, chunk);
+        if (chunk.isLeaf()) {
+            final var blocks = chunk.getFlatBlocks();
+            b.putBytes(BLOCKS_BYTE + offset, blocks, 0, blocks.capacity());
+        }
+    }
+
+    /**
+     * Writes the {@link MapChunk} without the {@link MapBlock}s.
+     */
+    public static void writeHeader(MutableDirectBuffer b, int offset, MapChunk chunk) {
         b.putShort(ID_BYTE + offset, (short) chunk.getCid());
         b.putShort(PARENT_BYTE + offset, (short) chunk.parent);
         b.putShort(CHUNK_SIZE_BYTE + offset, (short) chunk.chunkSize);
@@ -176,15 +240,142 @@ public class MapChunkBuffer {
                 }
             }
             CidGameChunkPosMapBuffer.write(b, CHUNKS_BYTE + offset, CHUNKS_COUNT, chunks);
-        } else {
-            b.putBytes(BLOCKS_BYTE + offset, chunk.getBlocks(), 0, chunk.getBlocks().capacity());
         }
     }
 
+    /**
+     * Returns the size in bytes of the {@link MapChunk} with run-length encoded
+     * {@link MapBlock}s.
+     */
+    public static int getSizeRle(MapChunk chunk) {
+        final var blocks = chunk.getFlatBlocks();
+        final int count = blocks.capacity() / MapBlockBuffer.SIZE;
+        int runs = 0;
+        for (int i = 0; i < count;) {
+            i = nextRun(blocks, i, count);
+            runs++;
+        }
+        return BLOCKS_BYTE + 4 + runs * (4 + MapBlockBuffer.SIZE);
+    }
+
+    /**
+     * Writes the leaf {@link MapChunk} with run-length encoded {@link MapBlock}s.
+     * The size of the buffer is returned by {@link #getSizeRle(MapChunk)}.
+     */
+    public static void writeRle(MutableDirectBuffer b, int offset, MapChunk chunk) {
+        writeHeader(b, offset, chunk);
+        b.putShort(FORMAT_BYTE + offset, (short) FORMAT_RLE);
+        final var blocks = chunk.getFlatBlocks();
+        final int count = blocks.capacity() / MapBlockBuffer.SIZE;
+        int off = BLOCKS_BYTE + offset + 4;
+        int runs = 0;
+        for (int i = 0; i < count;) {
+            final int end = nextRun(blocks, i, count);
+            b.putInt(off, end - i);
+            b.putBytes(off + 4, blocks, i * MapBlockBuffer.SIZE, MapBlockBuffer.SIZE);
+            off += 4 + MapBlockBuffer.SIZE;
+            runs++;
+            i = end;
+        }
+        b.putInt(BLOCKS_BYTE + offset, runs);
+    }
+
+    /**
+     * Returns the index after the run of equal blocks that starts at the index.
+     */
+    private static int nextRun(DirectBuffer blocks, int i, int count) {
+        final int off = i * MapBlockBuffer.SIZE;
+        final long a = blocks.getLong(off);
+        final int b = blocks.getInt(off + 8);
+        final short c = blocks.getShort(off + 12);
+        int end = i + 1;
+        for (int o = end * MapBlockBuffer.SIZE; end < count; end++, o += MapBlockBuffer.SIZE) {
+            if (blocks.getLong(o) != a || blocks.getInt(o + 8) != b || blocks.getShort(o + 12) != c) {
+                break;
+            }
+        }
+        return end;
+    }
+
+    private static void readRle(DirectBuffer b, int offset, MutableDirectBuffer blocks) {
+        final int runs = b.getInt(BLOCKS_BYTE + offset);
+        int off = BLOCKS_BYTE + offset + 4;
+        int dst = 0;
+        for (int r = 0; r < runs; r++) {
+            final int n = b.getInt(off);
+            for (int i = 0; i < n; i++) {
+                blocks.putBytes(dst, b, off + 4, MapBlockBuffer.SIZE);
+                dst += MapBlockBuffer.SIZE;
+            }
+            off += 4 + MapBlockBuffer.SIZE;
+        }
+    }
+
+    /**
+     * Returns the format of the {@link MapBlock}s of the stored leaf
+     * {@link MapChunk}, {@link #FORMAT_RAW} or {@link #FORMAT_RLE}.
+     */
+    public static int getFormat(DirectBuffer b, int offset) {
+        return b.getShort(FORMAT_BYTE + offset);
+    }
+
+    /**
+     * Returns a copy of the stored {@link MapChunk} with the {@link MapBlock}s in
+     * {@link #FORMAT_RAW}.
+     */
+    public static MutableDirectBuffer copyRaw(DirectBuffer b, int offset) {
+        if (isLeaf(b, offset) && getFormat(b, offset) == FORMAT_RLE) {
+            final var chunk = read(b, offset);
+            final var copy = new UnsafeBuffer(allocateDirect(SIZE_MIN + chunk.getBlocksSize()));
+            write(copy, 0, chunk);
+            return copy;
+        }
+        final int size = b.capacity() - offset;
+        final var copy = new UnsafeBuffer(allocateDirect(size));
+        copy.putBytes(0, b, offset, size);
+        return copy;
+    }
+
     public static MapChunk read(DirectBuffer b, int offset) {
         final var chunk = new MapChunk(cid2Id(b.getShort(ID_BYTE + offset)), b.getShort(PARENT_BYTE + offset),
                 b.getShort(CHUNK_SIZE_BYTE + offset), b.getShort(WIDTH_BYTE + offset), b.getShort(HEIGHT_BYTE + offset),
                 GameChunkPosBuffer.read(b, POS_BYTE + offset));
+        readLinks(b, offset, chunk);
+        if (chunk.isLeaf()) {
+            if (getFormat(b, offset) == FORMAT_RLE) {
+                readRle(b, offset, chunk.getBlocks());
+            } else {
+                chunk.getBlocks().putBytes(0, b, BLOCKS_BYTE + offset, chunk.getBlocks().capacity());
+            }
+        }
+        return chunk;
+    }
+
+    /**
+     * Reads the {@link MapChunk} without copying the {@link MapBlock}s. The blocks
+     * of the chunk are a read-only view of the buffer and are only valid as long
+     * as the buffer is valid. The blocks are copied on
+     * {@link MapChunk#getWritableBlocks()}. Run-length encoded blocks are decoded
+     * and not a view.
+     */
+    public static MapChunk readView(DirectBuffer b, int offset) {
+        if (getFormat(b, offset) == FORMAT_RLE && isLeaf(b, offset)) {
+            return read(b, offset);
+        }
+        final var chunk = new MapChunk(cid2Id(b.getShort(ID_BYTE + offset)), b.getShort(PARENT_BYTE + offset),
+                b.getShort(CHUNK_SIZE_BYTE + offset), b.getShort(WIDTH_BYTE + offset), b.getShort(HEIGHT_BYTE + offset),
+                GameChunkPosBuffer.read(b, POS_BYTE + offset), b, BLOCKS_BYTE + offset);
+        readLinks(b, offset, chunk);
+        return chunk;
+    }
+
+    private static boolean isLeaf(DirectBuffer b, int offset) {
+        final int cs = b.getShort(CHUNK_SIZE_BYTE + offset);
+        final var pos = GameChunkPosBuffer.read(b, POS_BYTE + offset);
+        return pos.getSizeX() <= cs && pos.getSizeY() <= cs && pos.getSizeZ() <= cs;
+    }
+
+    private static void readLinks(DirectBuffer b, int offset, MapChunk chunk) {
         for (int i = 0; i < 26; i++) {
             chunk.neighbors[i] = b.getShort(offset + NEIGHBORS_BYTE + i * 2);
         }
@@ -202,10 +393,7 @@ public class MapChunkBuffer {
                                 chunkEntries[i * 7 + 6]));
             }
             chunk.setChunks(chunks);
-        } else {
-            chunk.getBlocks().putBytes(0, b, BLOCKS_BYTE + offset, chunk.getBlocks().capacity());
         }
-        return chunk;
     }
 
     public static MapChunk findChunk(MapChunk mc, GameBlockPos pos, ObjectsGetter og) {
@@ -284,7 +472,7 @@ public class MapChunkBuffer {
     public static MapBlock findBlock(MapChunk c, GameBlockPos pos, ObjectsGetter og) {
         final var res = findBlockIndex(c, pos, og);
         if (res.isValid()) {
-            return MapBlockBuffer.read(res.c.getBlocks(), res.getOff(), pos);
+            return MapBlockBuffer.read(res.c, res.getOff(), pos);
         } else {
             return null;
         }
@@ -322,8 +510,8 @@ public class MapChunkBuffer {
         final int sx = mc.pos.x;
         final int sy = mc.pos.y;
         final int sz = mc.pos.z;
-        final var b = mc.blocks.orElseThrow();
-        return () -> new Itr(cw, ch, cd, sx, sy, sz, b, b.capacity() / MapBlockBuffer.SIZE);
+        final int size = mc.getBlocksSize() / MapBlockBuffer.SIZE;
+        return () -> new Itr(cw, ch, cd, sx, sy, sz, mc, size);
     }
 
     @RequiredArgsConstructor
@@ -334,13 +522,13 @@ public class MapChunkBuffer {
         final int sx;
         final int sy;
         final int sz;
-        final DirectBuffer b;
+        final MapChunk c;
         final int size;
         int i = 0;
 
         @Override
         public MapBlock next() {
-            return readMapBlockIndex(b, 0, i++, cw, ch, cd, sx, sy, sz);
+            return readMapBlockIndex(c, i++, cw, ch, cd, sx, sy, sz);
         }
 
         @Override
@@ -356,29 +544,73 @@ public class MapChunkBuffer {
         final int sx = mc.pos.x;
         final int sy = mc.pos.y;
         final int sz = mc.pos.z;
-        mc.blocks.ifPresent(b -> {
-            for (int i = 0; i < b.capacity() / MapBlockBuffer.SIZE; i++) {
-                consumer.accept(readMapBlockIndex(b, 0, i, cw, ch, cd, sx, sy, sz));
+        if (mc.isLeaf()) {
+            for (int i = 0; i < mc.getBlocksSize() / MapBlockBuffer.SIZE; i++) {
+                consumer.accept(readMapBlockIndex(mc, i, cw, ch, cd, sx, sy, sz));
             }
-        });
+        }
+    }
+
+    /**
+     * Calls the consumer with the values of each block of the leaf chunk. The
+     * values are read directly from the blocks buffer and no {@link MapBlock} is
+     * created.
+     */
+    public static void forEachBlockValues(MapChunk mc, BlockValuesConsumer consumer) {
+        if (!mc.isLeaf()) {
+            return;
+        }
+        final var pos = mc.pos;
+        final int sx = pos.x, sy = pos.y, sz = pos.z;
+        final int ex = pos.ep.x, ey = pos.ep.y, ez = pos.ep.z;
+        final var palette = mc.getPalette();
+        final DirectBuffer b = palette != null ? palette.getEntries() : mc.getFlatBlocks();
+        int i = 0;
+        for (int z = sz; z < ez; z++) {
+            for (int y = sy; y < ey; y++) {
+                for (int x = sx; x < ex; x++) {
+                    final int off = palette != null ? palette.getEntryOff(i) : i * MapBlockBuffer.SIZE;
+                    consumer.accept(i, x, y, z, MapBlockBuffer.getProp(b, off), MapBlockBuffer.getMaterial(b, off),
+                            MapBlockBuffer.getObject(b, off));
+                    i++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the leaf chunk that contains the x/y/z position. If the position
+     * is outside of the chunk then the adjacent chunk is retrieved from the
+     * {@link MapChunk#neighbors} of the chunk. Only if the adjacent chunk is not
+     * linked, the chunk is searched from the parent chunk.
+     */
+    public static MapChunk findNeighborChunk(MapChunk c, int x, int y, int z, ObjectsGetter og) {
+        final var pos = c.pos;
+        final int ox = x < pos.x ? -1 : x >= pos.ep.x ? 1 : 0;
+        final int oy = y < pos.y ? -1 : y >= pos.ep.y ? 1 : 0;
+        final int oz = z < pos.z ? -1 : z >= pos.ep.z ? 1 : 0;
+        if (ox == 0 && oy == 0 && oz == 0) {
+            return c;
+        }
+        final long ncid = c.neighbors[NeighboringDir.fromOffset(ox, oy, oz).ordinal()];
+        if (ncid != 0) {
+            final var n = getChunk(og, cid2Id(ncid));
+            if (n.isLeaf() && n.isInside(x, y, z)) {
+                return n;
+            }
+        }
+        return findChunk(getChunk(og, cid2Id(c.parent)), x, y, z, og);
     }
 
     public static MapBlock getNeighbor(MapBlock mb, NeighboringDir dir, MapChunk c, int w, int h, int d,
             ObjectsGetter og) {
-        final var dirpos = mb.pos.add(dir.pos);
-        if (dirpos.isNegative()) {
+        final int x = mb.pos.x + dir.pos.x, y = mb.pos.y + dir.pos.y, z = mb.pos.z + dir.pos.z;
+        if (x < 0 || y < 0 || z < 0 || x >= w || y >= h || z >= d) {
             return null;
         }
-        if (dirpos.isOutBounds(w, h, d)) {
-            return null;
-        }
-        if (c.isInside(dirpos)) {
-            final int off = GameChunkPos.calcIndex(c, dirpos.x, dirpos.y, dirpos.z) * MapBlockBuffer.SIZE;
-            return MapBlockBuffer.read(c.getBlocks(), off, dirpos);
-        } else {
-            final var parent = getChunk(og, cid2Id(c.parent));
-            return findBlock(parent, dirpos, og);
-        }
+        final var n = findNeighborChunk(c, x, y, z, og);
+        final int off = calcIndex(n, x, y, z) * MapBlockBuffer.SIZE;
+        return MapBlockBuffer.read(n, off, new GameBlockPos(x, y, z));
     }
 
     public static MapBlock getNeighborNorth(MapBlock mb, MapChunk chunk, int w, int h, int d, ObjectsGetter og) {
@@ -403,36 +635,54 @@ public class MapChunkBuffer {
 
     public static boolean isNeighborsUpEmptyContinuously(MapBlock mb, MapChunk chunk, int w, int h, int d,
             ObjectsGetter og) {
-        MapBlock up = getNeighbor(mb, NeighboringDir.U, chunk, w, h, d, og);
-        while (up != null) {
-            if (!up.isEmpty()) {
-                return false;
-            }
-            if (mb.parent != up.parent) {
-                chunk = getChunk(og, cid2Id(up.parent));
-            }
-            up = getNeighbor(up, NeighboringDir.U, chunk, w, h, d, og);
-        }
-        return true;
+        return isNeighborsUpEmptyContinuously(calcIndex(chunk, mb.pos.x, mb.pos.y, mb.pos.z), chunk, w, h, d, og);
     }
 
     public static MapBlockResult getNeighbor(int index, NeighboringDir dir, MapChunk c, int w, int h, int d,
             ObjectsGetter og) {
-        final var dirpos = fromIndex(index, c).add(dir.pos);
-        if (dirpos.isNegative()) {
+        final var pos = c.pos;
+        final int x = calcX(index, pos.getSizeX(), pos.x) + dir.pos.x;
+        final int y = calcY(index, pos.getSizeX(), pos.y) + dir.pos.y;
+        final int z = calcZ(index, pos.getSizeX(), pos.getSizeY(), pos.z) + dir.pos.z;
+        if (x < 0 || y < 0 || z < 0 || x >= w || y >= h || z >= d) {
             return new MapBlockResult(c, -1);
         }
-        if (dirpos.isOutBounds(w, h, d)) {
-            return new MapBlockResult(c, -1);
-        }
-        if (c.isInside(dirpos)) {
-            index = calcIndex(c, dirpos.x, dirpos.y, dirpos.z);
-            return new MapBlockResult(c, index);
-        } else {
-            final var parent = getChunk(og, cid2Id(c.parent));
-            final var res = findBlockIndex(parent, dirpos, og);
-            return new MapBlockResult(res.c, res.index);
+        final var n = findNeighborChunk(c, x, y, z, og);
+        return new MapBlockResult(n, calcIndex(n, x, y, z));
+    }
+
+    /**
+     * Finds all 26 neighbors of the block without creating a
+     * {@link MapBlockResult} for each neighbor. The chunk and the block offset of
+     * the neighbor in the direction {@link NeighboringDir#ordinal()} are set in
+     * the arrays. The offset is -1 and the chunk is {@code null} if the neighbor
+     * is outside of the map.
+     *
+     * @param chunks the chunks of the neighbors, at least 26 elements.
+     * @param offs   the offsets of the neighbors, at least 26 elements.
+     * @return the count of the found neighbors.
+     */
+    public static int getNeighbors(int index, MapChunk c, int w, int h, int d, ObjectsGetter og, MapChunk[] chunks,
+            int[] offs) {
+        final var pos = c.pos;
+        final int x = calcX(index, pos.getSizeX(), pos.x);
+        final int y = calcY(index, pos.getSizeX(), pos.y);
+        final int z = calcZ(index, pos.getSizeX(), pos.getSizeY(), pos.z);
+        int count = 0;
+        for (final var dir : NeighboringDir.DIRS) {
+            final int i = dir.ordinal();
+            final int dx = x + dir.pos.x, dy = y + dir.pos.y, dz = z + dir.pos.z;
+            if (dx < 0 || dy < 0 || dz < 0 || dx >= w || dy >= h || dz >= d) {
+                chunks[i] = null;
+                offs[i] = -1;
+                continue;
+            }
+            final var n = findNeighborChunk(c, dx, dy, dz, og);
+            chunks[i] = n;
+            offs[i] = calcIndex(n, dx, dy, dz) * MapBlockBuffer.SIZE;
+            count++;
         }
+        return count;
     }
 
     public static MapBlockResult getNeighborNorth(int index, MapChunk chunk, int w, int h, int d, ObjectsGetter og) {
@@ -459,15 +709,10 @@ public class MapChunkBuffer {
             ObjectsGetter og) {
         var up = getNeighbor(index, NeighboringDir.U, chunk, w, h, d, og);
         while (up.isValid()) {
-            if (!(PropertiesSet.get(getProp(up.c.getBlocks(), up.getOff()), EMPTY_POS))) {
+            if (!(PropertiesSet.get(getProp(up.c, up.getOff()), EMPTY_POS))) {
                 return false;
             }
-            final int mbparent = MapBlockBuffer.getParent(chunk.getBlocks(), index * MapBlockBuffer.SIZE);
-            final int upparent = MapBlockBuffer.getParent(up.c.getBlocks(), up.getOff());
-            if (mbparent != upparent) {
-                chunk = getChunk(og, cid2Id(upparent));
-            }
-            up = getNeighbor(up.index, NeighboringDir.U, chunk, w, h, d, og);
+            up = getNeighbor(up.index, NeighboringDir.U, up.c, w, h, d, og);
         }
         return true;
     }
@@ -0,0 +1,164 @@
+/*
+ * dwarfhustle-model-db - Manages the compile dependencies for the model.
+ * Copyright © 2022-2025 Erwin Müller (erwin.mueller@anrisoftware.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.anrisoftware.dwarfhustle.model.db.buffers;
+
+import org.agrona.DirectBuffer;
+import org.agrona.MutableDirectBuffer;
+import org.agrona.concurrent.UnsafeBuffer;
+
+import com.anrisoftware.dwarfhustle.model.api.objects.MapBlock;
+import com.anrisoftware.dwarfhustle.model.api.objects.MapChunk;
+import com.anrisoftware.dwarfhustle.model.api.objects.ObjectsGetter;
+
+/**
+ * Copy of the {@link MapBlock}s of a leaf {@link MapChunk} with a halo of one
+ * block from the 26 neighboring chunks, in one contiguous buffer. Stencil
+ * computations can read the neighbors of every block of the chunk from the
+ * buffer without looking up chunks.
+ * <p>
+ * The blocks in the buffer have the layout of {@link MapBlockBuffer} and are
+ * accessed with the offset from {@link #getOff(int, int, int)}. Halo blocks
+ * outside of the map are zero. The buffer is reused for the next chunk.
+ *
+ * <pre>
+ * var halo = new MapChunkHalo();
+ * halo.load(chunk, w, h, d, og);
+ * int p = MapBlockBuffer.getProp(halo.getBuffer(), halo.getOff(x + 1, y, z));
+ * MapBlockBuffer.setProp(halo.getBuffer(), halo.getOff(x, y, z), p);
+ * halo.store(chunk);
+ * </pre>
+ *
+ * @author Erwin Müller, {@code <erwin@muellerpublic.de>}
+ */
+public class MapChunkHalo {
+
+    private MutableDirectBuffer buffer = new UnsafeBuffer(new byte[0]);
+
+    private int sx;
+
+    private int sy;
+
+    private int sz;
+
+    private int hw;
+
+    private int hh;
+
+    private int hd;
+
+    /**
+     * Copies the blocks of the leaf chunk and the halo from the neighboring
+     * chunks in the buffer.
+     *
+     * @param c  the leaf {@link MapChunk}.
+     * @param w  the width of the map.
+     * @param h  the height of the map.
+     * @param d  the depth of the map.
+     * @param og the {@link ObjectsGetter} to retrieve the neighboring chunks.
+     */
+    public void load(MapChunk c, int w, int h, int d, ObjectsGetter og) {
+        final var pos = c.pos;
+        this.sx = pos.x - 1;
+        this.sy = pos.y - 1;
+        this.sz = pos.z - 1;
+        this.hw = pos.getSizeX() + 2;
+        this.hh = pos.getSizeY() + 2;
+        this.hd = pos.getSizeZ() + 2;
+        final int size = hw * hh * hd * MapBlockBuffer.SIZE;
+        if (buffer.capacity() < size) {
+            this.buffer = new UnsafeBuffer(new byte[size]);
+        }
+        final int cw = pos.getSizeX(), ch = pos.getSizeY();
+        final int row = cw * MapBlockBuffer.SIZE;
+        for (int z = pos.z; z < pos.ep.z; z++) {
+            for (int y = pos.y; y < pos.ep.y; y++) {
+                final int off = ((z - pos.z) * cw * ch + (y - pos.y) * cw) * MapBlockBuffer.SIZE;
+                c.getFlatBlocks(off, buffer, getOff(pos.x, y, z), row);
+            }
+        }
+        MapChunk n = c;
+        for (int z = sz; z < sz + hd; z++) {
+            for (int y = sy; y < sy + hh; y++) {
+                for (int x = sx; x < sx + hw; x++) {
+                    if (c.isInside(x, y, z)) {
+                        continue;
+                    }
+                    final int hoff = getOff(x, y, z);
+                    if (x < 0 || y < 0 || z < 0 || x >= w || y >= h || z >= d) {
+                        buffer.setMemory(hoff, MapBlockBuffer.SIZE, (byte) 0);
+                        continue;
+                    }
+                    if (!n.isInside(x, y, z)) {
+                        n = MapChunkBuffer.findNeighborChunk(c, x, y, z, og);
+                    }
+                    n.getFlatBlocks(MapBlockBuffer.calcOff(n, x, y, z), buffer, hoff, MapBlockBuffer.SIZE);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the modified blocks of the chunk from the buffer back to the chunk.
+     * Only the changed blocks are marked as modified.
+     *
+     * @return the count of the changed blocks.
+     */
+    public int store(MapChunk c) {
+        final var pos = c.pos;
+        final var blocks = c.getFlatBlocks();
+        int count = 0;
+        for (int z = pos.z; z < pos.ep.z; z++) {
+            for (int y = pos.y; y < pos.ep.y; y++) {
+                for (int x = pos.x; x < pos.ep.x; x++) {
+                    final int off = MapBlockBuffer.calcOff(c, x, y, z);
+                    final int hoff = getOff(x, y, z);
+                    if (!equalsBlock(blocks, off, hoff)) {
+                        c.getWritableBlocks(off).putBytes(off, buffer, hoff, MapBlockBuffer.SIZE);
+                        count++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    private boolean equalsBlock(DirectBuffer blocks, int off, int hoff) {
+        for (int i = 0; i < MapBlockBuffer.SIZE; i++) {
+            if (blocks.getByte(off + i) != buffer.getByte(hoff + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the buffer with the blocks.
+     */
+    public MutableDirectBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Returns the offset in the buffer of the block with the map x/y/z position.
+     * The position must be inside of the chunk or of the halo.
+     */
+    public int getOff(int x, int y, int z) {
+        return ((z - sz) * hw * hh + (y - sy) * hw + x - sx) * MapBlockBuffer.SIZE;
+    }
+
+}
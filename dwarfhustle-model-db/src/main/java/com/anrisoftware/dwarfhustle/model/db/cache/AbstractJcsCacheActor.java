@@ -20,17 +20,27 @@ package com.anrisoftware.dwarfhustle.model.db.cache;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
 import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.CompletionStage;
-import java.util.function.Consumer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 
 import org.apache.commons.jcs3.access.CacheAccess;
 import org.apache.commons.jcs3.access.exception.CacheException;
+import org.eclipse.collections.api.LongIterable;
+import org.eclipse.collections.api.factory.primitive.LongLists;
+import org.eclipse.collections.api.factory.primitive.LongObjectMaps;
+import org.eclipse.collections.api.map.primitive.LongObjectMap;
+import org.eclipse.collections.api.map.primitive.MutableLongObjectMap;
 
 import com.anrisoftware.dwarfhustle.model.actor.ActorSystemProvider;
 import com.anrisoftware.dwarfhustle.model.actor.MessageActor.Message;
 import com.anrisoftware.dwarfhustle.model.api.objects.GameObject;
 import com.anrisoftware.dwarfhustle.model.api.objects.ObjectsGetter;
 import com.anrisoftware.dwarfhustle.model.api.objects.ObjectsSetter;
+import com.anrisoftware.dwarfhustle.model.db.cache.CacheGetMessage.CacheGetMissMessage;
 import com.anrisoftware.dwarfhustle.model.db.cache.CacheGetMessage.CacheGetSuccessMessage;
 import com.anrisoftware.dwarfhustle.model.db.cache.CacheResponseMessage.CacheErrorMessage;
 import com.anrisoftware.dwarfhustle.model.db.cache.CacheResponseMessage.CacheSuccessMessage;
@@ -39,6 +49,7 @@ import com.google.inject.Injector;
 import com.google.inject.assistedinject.Assisted;
 
 import akka.actor.typed.Behavior;
+import akka.actor.typed.DispatcherSelector;
 import akka.actor.typed.javadsl.ActorContext;
 import akka.actor.typed.javadsl.BehaviorBuilder;
 import akka.actor.typed.javadsl.Behaviors;
@@ -68,6 +79,18 @@ public abstract class AbstractJcsCacheActor implements ObjectsGetter, ObjectsSet
         public final Throwable cause;
     }
 
+    /**
+     * The value of a cache miss was loaded from the backend.
+     */
+    @RequiredArgsConstructor
+    @ToString(callSuper = true)
+    protected static class CacheMissLoadedMessage extends Message {
+        @SuppressWarnings("rawtypes")
+        public final CacheGetMessage m;
+        public final GameObject go;
+        public final Throwable cause;
+    }
+
     /**
      * Factory to create {@link AbstractJcsCacheActor}.
      *
@@ -112,6 +135,17 @@ public abstract class AbstractJcsCacheActor implements ObjectsGetter, ObjectsSet
         });
     }
 
+    /**
+     * Maximum keys that are remembered as missing in the backend.
+     */
+    private static final int MAX_MISSING_KEYS = 100_000;
+
+    /**
+     * Time to live of the keys that are remembered as missing in the backend, so
+     * values that are stored in the backend past the cache are found again.
+     */
+    private static final Duration MISSING_KEYS_TTL = Duration.ofSeconds(10);
+
     protected final Duration timeout = Duration.ofSeconds(300);
 
     @Inject
@@ -139,6 +173,19 @@ public abstract class AbstractJcsCacheActor implements ObjectsGetter, ObjectsSet
 
     protected CacheAccess<Object, GameObject> cache;
 
+    /**
+     * Runs the blocking loads of the values from the backend.
+     */
+    protected Executor ioExecutor;
+
+    private final Map<Long, CompletableFuture<GameObject>> loads = new ConcurrentHashMap<>();
+
+    /**
+     * The keys that are not in the backend, so a repeated lookup of a missing
+     * value does not query the backend again.
+     */
+    private final MissingKeys missing = new MissingKeys(MAX_MISSING_KEYS, MISSING_KEYS_TTL);
+
     /**
      * Stash behavior. Returns a behavior for the messages:
      *
@@ -185,10 +232,10 @@ public abstract class AbstractJcsCacheActor implements ObjectsGetter, ObjectsSet
     private Behavior<Message> onCachePut(@SuppressWarnings("rawtypes") CachePutMessage m) {
         try {
             preCachePut(m.value.getId(), m.value);
-            cache.put(m.value.getId(), m.value);
+            cachePut(m.value.getId(), m.value);
             storeValueBackend(m.value);
             m.replyTo.tell(new CacheSuccessMessage<>(m));
-        } catch (CacheException e) {
+        } catch (CacheException | ObjectsSetterException e) {
             m.replyTo.tell(new CacheErrorMessage<>(m, e));
         }
         return Behaviors.same();
@@ -203,11 +250,11 @@ public abstract class AbstractJcsCacheActor implements ObjectsGetter, ObjectsSet
             for (var o : m.values) {
                 var go = (GameObject) o;
                 preCachePut(go.getId(), go);
-                cache.put(go.getId(), go);
+                cachePut(go.getId(), go);
             }
             storeValuesBackend(m.objectType, m.values);
             m.replyTo.tell(new CacheSuccessMessage<>(m));
-        } catch (CacheException e) {
+        } catch (CacheException | ObjectsSetterException e) {
             m.replyTo.tell(new CacheErrorMessage<>(m, e));
         }
         return Behaviors.same();
@@ -224,7 +271,7 @@ public abstract class AbstractJcsCacheActor implements ObjectsGetter, ObjectsSet
                 m.onMiss.run();
                 handleCacheMiss(m);
             } else {
-                m.consumer.accept(v);
+                acceptValue(m, v);
                 m.replyTo.tell(new CacheGetSuccessMessage<>(m, v));
             }
         } catch (CacheException e) {
@@ -233,13 +280,106 @@ public abstract class AbstractJcsCacheActor implements ObjectsGetter, ObjectsSet
         return Behaviors.same();
     }
 
-    @SuppressWarnings("unchecked")
+    /**
+     * Loads the missing value on the blocking I/O dispatcher, so the actor can
+     * process other messages while the value is loaded. The loaded value is piped
+     * back to the actor in a {@link CacheMissLoadedMessage}, so the consumer and
+     * the reply run on the actor.
+     */
     protected void handleCacheMiss(@SuppressWarnings("rawtypes") CacheGetMessage m) {
-        context.getSelf().tell(new CacheRetrieveFromBackendMessage(m, go -> {
-            cache.put(m.key, go);
-            m.consumer.accept(go);
-            m.replyTo.tell(new CacheGetSuccessMessage<>(m, go));
-        }));
+        context.pipeToSelf(loadValue(m.type, m.key, ioExecutor),
+                (go, cause) -> new CacheMissLoadedMessage(m, go, cause));
+    }
+
+    /**
+     * Handle {@link CacheMissLoadedMessage}. Replies to the
+     * {@link CacheGetMessage} of the cache miss. Returns a behavior for the
+     * messages from {@link #getInitialBehavior()}
+     */
+    @SuppressWarnings("unchecked")
+    private Behavior<Message> onCacheMissLoaded(CacheMissLoadedMessage lm) {
+        final var m = lm.m;
+        if (lm.cause != null) {
+            m.replyTo.tell(new CacheErrorMessage<>(m, lm.cause));
+        } else if (lm.go == null) {
+            m.replyTo.tell(new CacheGetMissMessage<>(m));
+        } else {
+            acceptValue(m, lm.go);
+            m.replyTo.tell(new CacheGetSuccessMessage<>(m, lm.go));
+        }
+        return Behaviors.same();
+    }
+
+    /**
+     * Calls the consumer of the {@link CacheGetMessage} with the value.
+     */
+    @SuppressWarnings("unchecked")
+    protected void acceptValue(@SuppressWarnings("rawtypes") CacheGetMessage m, GameObject go) {
+        m.consumer.accept(go);
+    }
+
+    /**
+     * Loads the value from the backend and caches it. Concurrent loads of the
+     * same key share the one running load.
+     *
+     * @param executor the {@link Executor} to load the value, or {@code null} to
+     *                 load the value on the calling thread.
+     */
+    protected CompletableFuture<GameObject> loadValue(int type, long key, Executor executor) {
+        if (missing.contains(type, key)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        final var load = new CompletableFuture<GameObject>();
+        final var running = loads.putIfAbsent(key, load);
+        if (running != null) {
+            return running;
+        }
+        final Runnable task = () -> {
+            try {
+                var go = cache.get(key);
+                if (go == null && !missing.contains(type, key)) {
+                    go = getValueFromBackend(type, key);
+                    if (go != null) {
+                        cache.put(key, go);
+                    } else {
+                        addMissing(type, key);
+                    }
+                }
+                load.complete(go);
+            } catch (final Throwable e) {
+                load.completeExceptionally(e);
+            } finally {
+                loads.remove(key, load);
+            }
+        };
+        if (executor == null) {
+            task.run();
+        } else {
+            executor.execute(task);
+        }
+        return load;
+    }
+
+    /**
+     * Remembers that the key of the type is not in the backend for
+     * {@link #MISSING_KEYS_TTL}. The keys are cleared if they grow over
+     * {@link #MAX_MISSING_KEYS}.
+     */
+    private void addMissing(int type, long key) {
+        missing.add(type, key);
+        if (cache.get(key) != null) {
+            // the value was put while it was loaded
+            missing.remove(key);
+        }
+    }
+
+    /**
+     * Puts the value in the cache and forgets that the key was missing in the
+     * backend for all types.
+     */
+    protected void cachePut(long key, GameObject go) {
+        cache.put(key, go);
+        missing.remove(key);
     }
 
     /**
@@ -262,21 +402,13 @@ public abstract class AbstractJcsCacheActor implements ObjectsGetter, ObjectsSet
         return Behaviors.same();
     }
 
-    /**
-     * Handle {@link CacheRetrieveFromBackendMessage}. Returns a behavior for the
-     * messages from {@link #getInitialBehavior()}
-     */
-    protected Behavior<Message> onCacheRetrieveFromBackend(CacheRetrieveFromBackendMessage m) {
-        retrieveValueFromBackend(m.m, m.consumer);
-        return Behaviors.same();
-    }
-
     /**
      * Unstash all messages kept in the buffer and return the initial behavior.
      * Returns a behavior for the messages from {@link #getInitialBehavior()}
      */
     protected Behavior<Message> initialStage(InitialStateMessage m) {
         log.debug("initialStage {}", m);
+        this.ioExecutor = context.getSystem().dispatchers().lookup(DispatcherSelector.blocking());
         return buffer.unstashAll(getInitialBehavior()//
                 .build());
     }
@@ -289,7 +421,7 @@ public abstract class AbstractJcsCacheActor implements ObjectsGetter, ObjectsSet
      * <li>{@link CachePutMessage}
      * <li>{@link CachePutsMessage}
      * <li>{@link CacheGetMessage}
-     * <li>{@link CacheRetrieveFromBackendMessage}
+     * <li>{@link CacheMissLoadedMessage}
      * <li>{@link CacheRetrieveMessage}
      * <li>{@link CacheElementEventMessage}
      * </ul>
@@ -299,7 +431,7 @@ public abstract class AbstractJcsCacheActor implements ObjectsGetter, ObjectsSet
                 .onMessage(CachePutMessage.class, this::onCachePut)//
                 .onMessage(CachePutsMessage.class, this::onCachePuts)//
                 .onMessage(CacheGetMessage.class, this::onCacheGet)//
-                .onMessage(CacheRetrieveFromBackendMessage.class, this::onCacheRetrieveFromBackend)//
+                .onMessage(CacheMissLoadedMessage.class, this::onCacheMissLoaded)//
                 .onMessage(CacheRetrieveMessage.class, this::onCacheRetrieve)//
                 .onMessage(CacheElementEventMessage.class, this::onCacheElementEvent)//
         ;
@@ -320,18 +452,6 @@ public abstract class AbstractJcsCacheActor implements ObjectsGetter, ObjectsSet
      */
     protected abstract void storeValuesBackend(int objectType, Iterable<GameObject> values);
 
-    /**
-     * Retrieves the value from the database. Example send a database command:
-     *
-     * <pre>
-     * actor.tell(new LoadObjectMessage&lt;&gt;(objectsResponseAdapter, OBJECT_TYPE, consumer, db -&gt; {
-     *     var query = "SELECT * from ? where ...";
-     *     return db.query(query, ...);
-     * }));
-     * </pre>
-     */
-    protected abstract void retrieveValueFromBackend(CacheGetMessage<?> m, Consumer<GameObject> consumer);
-
     /**
      * Returns the value from the database.
      *
@@ -350,6 +470,22 @@ public abstract class AbstractJcsCacheActor implements ObjectsGetter, ObjectsSet
      */
     protected abstract <T extends GameObject> T getValueFromBackend(int type, long key);
 
+    /**
+     * Returns the values from the database. Values that are not found are not
+     * in the returned map. The default implementation calls
+     * {@link #getValueFromBackend(int, long)} for each key.
+     */
+    protected <T extends GameObject> LongObjectMap<T> getValuesFromBackend(int type, LongIterable keys) {
+        final MutableLongObjectMap<T> res = LongObjectMaps.mutable.ofInitialCapacity(keys.size());
+        keys.forEach(key -> {
+            final T go = getValueFromBackend(type, key);
+            if (go != null) {
+                res.put(key, go);
+            }
+        });
+        return res;
+    }
+
     /**
      * Called before the value is cached.
      */
@@ -371,24 +507,76 @@ public abstract class AbstractJcsCacheActor implements ObjectsGetter, ObjectsSet
     @SuppressWarnings("unchecked")
     @Override
     public <T extends GameObject> T get(int type, long key) {
-        return (T) cache.get(key, () -> supplyValue(type, key));
+        final var go = cache.get(key);
+        if (go != null) {
+            return (T) go;
+        }
+        try {
+            return (T) loadValue(type, key, null).join();
+        } catch (final CompletionException e) {
+            if (e.getCause() instanceof RuntimeException re) {
+                throw re;
+            }
+            throw new ObjectsGetterException("Load value " + key, e.getCause());
+        }
     }
 
-    private GameObject supplyValue(int type, long key) {
-        var go = getValueFromBackend(type, key);
-        return go;
+    /**
+     * Returns the values for the keys directly from the cache. The missing values
+     * are retrieved from the backend at once and cached.
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T extends GameObject> LongObjectMap<T> getAll(int type, LongIterable keys) {
+        final MutableLongObjectMap<T> res = LongObjectMaps.mutable.ofInitialCapacity(keys.size());
+        final var misses = LongLists.mutable.empty();
+        keys.forEach(key -> {
+            final var go = cache.get(key);
+            if (go != null) {
+                res.put(key, (T) go);
+            } else if (!missing.contains(type, key)) {
+                misses.add(key);
+            }
+        });
+        if (misses.notEmpty()) {
+            final LongObjectMap<T> values = getValuesFromBackend(type, misses);
+            misses.forEach(key -> {
+                final T go = values.get(key);
+                if (go != null) {
+                    cache.put(key, go);
+                    res.put(key, go);
+                } else {
+                    addMissing(type, key);
+                }
+            });
+        }
+        return res;
+    }
+
+    /**
+     * Returns a completed stage if the value is cached, otherwise the value is
+     * loaded on the blocking I/O dispatcher.
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T extends GameObject> CompletionStage<T> getAsync(int type, long key) {
+        final var go = cache.get(key);
+        if (go != null) {
+            return CompletableFuture.completedFuture((T) go);
+        }
+        return loadValue(type, key, ioExecutor).thenApply(v -> (T) v);
     }
 
     @Override
     public void set(int type, GameObject go) {
-        cache.put(go.getId(), go);
+        cachePut(go.getId(), go);
         storeValueBackend(go);
     }
 
     @Override
     public void set(int type, Iterable<GameObject> values) {
         for (GameObject go : values) {
-            cache.put(go.getId(), go);
+            cachePut(go.getId(), go);
         }
         storeValuesBackend(type, values);
     }
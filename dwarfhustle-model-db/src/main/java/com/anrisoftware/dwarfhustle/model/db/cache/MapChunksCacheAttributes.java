@@ -17,25 +17,38 @@
  */
 package com.anrisoftware.dwarfhustle.model.db.cache;
 
-import java.util.function.Consumer;
+import org.apache.commons.jcs3.engine.CompositeCacheAttributes;
 
-import com.anrisoftware.dwarfhustle.model.actor.MessageActor.Message;
-import com.anrisoftware.dwarfhustle.model.api.objects.GameObject;
-
-import lombok.RequiredArgsConstructor;
-import lombok.ToString;
+import lombok.Getter;
+import lombok.Setter;
 
 /**
- * Message to retrieve the {@link GameObject} from the backend because it was
- * not found in the cache.
+ * Attributes of the {@link MapChunksMemoryCache}. Configured in the region
+ * with {@code cacheattributes.MaxBytes} and
+ * {@code cacheattributes.ReleaseBlocks}.
  *
  * @author Erwin Müller, {@code <erwin@muellerpublic.de>}
  */
-@RequiredArgsConstructor
-@ToString(callSuper = true)
-public class CacheRetrieveFromBackendMessage extends Message {
+@Getter
+@Setter
+public class MapChunksCacheAttributes extends CompositeCacheAttributes {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The memory budget in bytes of the cached chunks, or 0 for no budget.
+     */
+    private long maxBytes = 0;
 
-    public final CacheGetMessage<?> m;
+    /**
+     * True if the direct memory of evicted chunks is freed. Only safe if all
+     * chunks that are used outside of the cache are pinned, so the default is
+     * false.
+     */
+    private boolean releaseBlocks = false;
 
-	public final Consumer<GameObject> consumer;
+    @Override
+    public String toString() {
+        return super.toString() + "[maxBytes=" + maxBytes + ", releaseBlocks=" + releaseBlocks + "]";
+    }
 }
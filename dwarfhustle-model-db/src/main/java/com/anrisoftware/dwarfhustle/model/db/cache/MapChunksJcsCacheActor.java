@@ -22,11 +22,12 @@ import static com.anrisoftware.dwarfhustle.model.actor.CreateActorMessage.create
 import java.time.Duration;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
-import java.util.function.Consumer;
 
 import org.apache.commons.jcs3.JCS;
 import org.apache.commons.jcs3.access.CacheAccess;
 import org.apache.commons.jcs3.access.exception.CacheException;
+import org.eclipse.collections.api.LongIterable;
+import org.eclipse.collections.api.map.primitive.LongObjectMap;
 
 import com.anrisoftware.dwarfhustle.model.actor.ActorSystemProvider;
 import com.anrisoftware.dwarfhustle.model.actor.MessageActor.Message;
@@ -46,7 +47,9 @@ import akka.actor.typed.receptionist.ServiceKey;
 import lombok.extern.slf4j.Slf4j;
 
 /**
- * Cache for {@link MapChunk} backend stored game objects.
+ * Cache for {@link MapChunk} backend stored game objects. The region
+ * {@code chunks} can be configured with the {@link MapChunksMemoryCache} for a
+ * memory budget in bytes.
  *
  * @author Erwin Müller, {@code <erwin@muellerpublic.de>}
  */
@@ -60,6 +63,8 @@ public class MapChunksJcsCacheActor extends AbstractJcsCacheActor {
 
     public static final int ID = KEY.hashCode();
 
+    private MapChunksMemoryCache<Object, GameObject> memoryCache;
+
     /**
      * Factory to create {@link MapChunksJcsCacheActor}.
      *
@@ -119,9 +124,31 @@ public class MapChunksJcsCacheActor extends AbstractJcsCacheActor {
     @Override
     protected Behavior<Message> initialStage(InitialStateMessage m) {
         log.debug("initialStage {}", m);
+        this.memoryCache = MapChunksMemoryCache.getMemoryCache(m.cache).orElse(null);
+        if (memoryCache != null) {
+            log.debug("Chunks memory cache with budget {} bytes", memoryCache.getMaxBytes());
+        }
         return super.initialStage(m);
     }
 
+    /**
+     * Pins the chunk in the {@link MapChunksMemoryCache} while the consumer runs,
+     * so the chunk is not evicted and its blocks are not released.
+     */
+    @Override
+    protected void acceptValue(@SuppressWarnings("rawtypes") CacheGetMessage m, GameObject go) {
+        if (memoryCache == null) {
+            super.acceptValue(m, go);
+            return;
+        }
+        memoryCache.pin(go.getId());
+        try {
+            super.acceptValue(m, go);
+        } finally {
+            memoryCache.unpin(go.getId());
+        }
+    }
+
     @Override
     protected int getId() {
         return ID;
@@ -138,13 +165,13 @@ public class MapChunksJcsCacheActor extends AbstractJcsCacheActor {
     }
 
     @Override
-    protected void retrieveValueFromBackend(CacheGetMessage<?> m, Consumer<GameObject> consumer) {
-        consumer.accept(og.get(m.type, m.key));
+    protected <T extends GameObject> T getValueFromBackend(int type, long key) {
+        return og.get(type, key);
     }
 
     @Override
-    protected <T extends GameObject> T getValueFromBackend(int type, long key) {
-        return og.get(type, key);
+    protected <T extends GameObject> LongObjectMap<T> getValuesFromBackend(int type, LongIterable keys) {
+        return og.getAll(type, keys);
     }
 
     @Override
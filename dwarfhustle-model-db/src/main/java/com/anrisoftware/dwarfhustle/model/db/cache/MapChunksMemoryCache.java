@@ -0,0 +1,356 @@
+/*
+ * dwarfhustle-model-db - Manages the compile dependencies for the model.
+ * Copyright © 2022-2025 Erwin Müller (erwin.mueller@anrisoftware.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.anrisoftware.dwarfhustle.model.db.cache;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.jcs3.access.CacheAccess;
+import org.apache.commons.jcs3.engine.behavior.ICacheElement;
+import org.apache.commons.jcs3.engine.control.CompositeCache;
+import org.apache.commons.jcs3.engine.memory.AbstractMemoryCache;
+import org.apache.commons.jcs3.engine.memory.util.MemoryElementDescriptor;
+import org.apache.commons.jcs3.engine.stats.StatElement;
+import org.apache.commons.jcs3.engine.stats.behavior.IStats;
+import org.apache.commons.jcs3.utils.struct.DoubleLinkedList;
+import org.eclipse.collections.api.factory.primitive.ObjectIntMaps;
+import org.eclipse.collections.api.map.primitive.MutableObjectIntMap;
+
+import com.anrisoftware.dwarfhustle.model.api.objects.MapChunk;
+
+/**
+ * JCS memory cache for {@link MapChunk}s with a memory budget in bytes and
+ * CLOCK eviction.
+ * <p>
+ * The size of a chunk is the direct memory owned by its blocks, see
+ * {@link MapChunk#getMemorySize()}. The size changes if the blocks of the chunk
+ * are unpacked or packed, so the size is updated on each hit and as the clock
+ * hand passes the chunk. Chunks are evicted if the used bytes are above
+ * {@link MapChunksCacheAttributes#getMaxBytes()} or the count is above the
+ * {@code MaxObjects}. A hit only sets the reference bit of the chunk, the clock
+ * hand gives referenced chunks a second chance. Pinned chunks are never
+ * evicted, the {@link MapChunksJcsCacheActor} pins the chunk while the consumer
+ * of the chunk runs. The direct memory of evicted chunks is freed with
+ * {@link MapChunk#releaseBlocks()} only if
+ * {@link MapChunksCacheAttributes#isReleaseBlocks()} is enabled, and then all
+ * chunks that are used outside of the cache must be pinned. By default the
+ * evicted chunks are spooled and their memory is left to the garbage
+ * collector.
+ * <p>
+ * Configured in the region with:
+ *
+ * <pre>
+ * jcs.region.chunks.cacheattributes=com.anrisoftware.dwarfhustle.model.db.cache.MapChunksCacheAttributes
+ * jcs.region.chunks.cacheattributes.MemoryCacheName=com.anrisoftware.dwarfhustle.model.db.cache.MapChunksMemoryCache
+ * jcs.region.chunks.cacheattributes.MaxBytes=268435456
+ * </pre>
+ *
+ * @author Erwin Müller, {@code <erwin@muellerpublic.de>}
+ */
+public class MapChunksMemoryCache<K, V> extends AbstractMemoryCache<K, V> {
+
+    /**
+     * Returns the {@link MapChunksMemoryCache} of the cache region if the
+     * region is configured with it.
+     */
+    @SuppressWarnings("unchecked")
+    public static <K, V> Optional<MapChunksMemoryCache<K, V>> getMemoryCache(CacheAccess<K, V> cache) {
+        if (cache.getCacheControl().getMemoryCache() instanceof MapChunksMemoryCache<?, ?> mc) {
+            return Optional.of((MapChunksMemoryCache<K, V>) mc);
+        }
+        return Optional.empty();
+    }
+
+    private static class ClockNode<K, V> extends MemoryElementDescriptor<K, V> {
+
+        private static final long serialVersionUID = 1L;
+
+        int size;
+
+        boolean referenced;
+
+        boolean linked;
+
+        ClockNode(ICacheElement<K, V> ce, int size) {
+            super(ce);
+            this.size = size;
+        }
+    }
+
+    private final AtomicLong evictCnt = new AtomicLong();
+
+    private final AtomicLong releasedBytes = new AtomicLong();
+
+    private DoubleLinkedList<ClockNode<K, V>> list;
+
+    private MutableObjectIntMap<K> pins;
+
+    private long usedBytes;
+
+    private long maxBytes;
+
+    private boolean releaseBlocks;
+
+    @Override
+    public void initialize(CompositeCache<K, V> hub) {
+        this.list = new DoubleLinkedList<>();
+        this.pins = ObjectIntMaps.mutable.empty();
+        super.initialize(hub);
+        if (getCacheAttributes() instanceof MapChunksCacheAttributes a) {
+            this.maxBytes = a.getMaxBytes();
+            this.releaseBlocks = a.isReleaseBlocks();
+        } else {
+            this.maxBytes = 0;
+            this.releaseBlocks = false;
+        }
+    }
+
+    @Override
+    public Map<K, MemoryElementDescriptor<K, V>> createMap() {
+        return new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Pins the chunk with the key. A pinned chunk is not evicted until it is
+     * unpinned as many times as it was pinned. The chunk does not need to be in
+     * the cache.
+     */
+    public void pin(K key) {
+        lock.lock();
+        try {
+            pins.addToValue(key, 1);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Unpins the chunk with the key.
+     */
+    public void unpin(K key) {
+        lock.lock();
+        try {
+            if (pins.addToValue(key, -1) <= 0) {
+                pins.remove(key);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns true if the chunk with the key is pinned.
+     */
+    public boolean isPinned(K key) {
+        lock.lock();
+        try {
+            return pins.containsKey(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void update(ICacheElement<K, V> ce) throws IOException {
+        putCnt.incrementAndGet();
+        final var node = new ClockNode<>(ce, sizeOf(ce.getVal()));
+        final List<ClockNode<K, V>> evicted = new ArrayList<>();
+        lock.lock();
+        try {
+            final var old = map.put(ce.getKey(), node);
+            if (old != null) {
+                lockedRemoveElement(old);
+            }
+            list.addLast(node);
+            node.linked = true;
+            usedBytes += node.size;
+            evictNodes(node, evicted, 0);
+        } finally {
+            lock.unlock();
+        }
+        releaseNodes(evicted);
+    }
+
+    @Override
+    public int freeElements(int numberToFree) throws IOException {
+        final List<ClockNode<K, V>> evicted = new ArrayList<>();
+        lock.lock();
+        try {
+            evictNodes(null, evicted, numberToFree);
+        } finally {
+            lock.unlock();
+        }
+        releaseNodes(evicted);
+        return evicted.size();
+    }
+
+    /**
+     * Moves the clock hand until the cache is in the budget or the count of
+     * chunks are evicted. Each chunk gets at most one second chance.
+     */
+    private void evictNodes(ClockNode<K, V> keep, List<ClockNode<K, V>> evicted, int count) {
+        for (int n = list.size() * 2; n > 0; n--) {
+            if (count > 0 ? evicted.size() >= count : !isOverBudget()) {
+                break;
+            }
+            final var hand = list.getFirst();
+            if (hand == null) {
+                break;
+            }
+            resizeNode(hand);
+            final var key = hand.getCacheElement().getKey();
+            if (hand == keep || hand.referenced || pins.containsKey(key)) {
+                hand.referenced = false;
+                // DoubleLinkedList.makeLast() breaks the list for the first node
+                list.remove(hand);
+                list.addLast(hand);
+                continue;
+            }
+            map.remove(key, hand);
+            lockedRemoveElement(hand);
+            evicted.add(hand);
+        }
+    }
+
+    private boolean isOverBudget() {
+        final int maxObjects = getCacheAttributes().getMaxObjects();
+        return maxBytes > 0 && usedBytes > maxBytes || maxObjects > 0 && list.size() > maxObjects;
+    }
+
+    /**
+     * Frees the direct memory of the evicted chunks, or spools the evicted
+     * elements if the memory is not freed.
+     */
+    private void releaseNodes(List<ClockNode<K, V>> evicted) {
+        for (final var node : evicted) {
+            evictCnt.incrementAndGet();
+            final var ce = node.getCacheElement();
+            if (releaseBlocks && ce.getVal() instanceof MapChunk c) {
+                releasedBytes.addAndGet(c.releaseBlocks());
+            } else {
+                getCompositeCache().spoolToDisk(ce);
+            }
+        }
+    }
+
+    private static int sizeOf(Object v) {
+        if (v instanceof MapChunk c) {
+            return c.getMemorySize();
+        }
+        return 0;
+    }
+
+    /**
+     * Updates the size of the linked node to the current size of the chunk.
+     */
+    private void resizeNode(ClockNode<K, V> node) {
+        if (node.linked) {
+            final int size = sizeOf(node.getCacheElement().getVal());
+            usedBytes += size - node.size;
+            node.size = size;
+        }
+    }
+
+    @Override
+    protected void lockedGetElement(MemoryElementDescriptor<K, V> me) {
+        final var node = (ClockNode<K, V>) me;
+        node.referenced = true;
+        resizeNode(node);
+    }
+
+    @Override
+    protected void lockedRemoveElement(MemoryElementDescriptor<K, V> me) {
+        final var node = (ClockNode<K, V>) me;
+        if (node.linked) {
+            list.remove(node);
+            node.linked = false;
+            usedBytes -= node.size;
+        }
+    }
+
+    @Override
+    protected void lockedRemoveAll() {
+        map.values().forEach(me -> ((ClockNode<K, V>) me).linked = false);
+        list.removeAll();
+        usedBytes = 0;
+    }
+
+    /**
+     * Returns the count of the cache hits.
+     */
+    public long getHitCount() {
+        return hitCnt.get();
+    }
+
+    /**
+     * Returns the count of the cache misses.
+     */
+    public long getMissCount() {
+        return missCnt.get();
+    }
+
+    /**
+     * Returns the count of the evicted chunks.
+     */
+    public long getEvictionCount() {
+        return evictCnt.get();
+    }
+
+    /**
+     * Returns the size in bytes of the cached chunks.
+     */
+    public long getUsedBytes() {
+        lock.lock();
+        try {
+            return usedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the size in bytes of the freed direct memory of evicted chunks.
+     */
+    public long getReleasedBytes() {
+        return releasedBytes.get();
+    }
+
+    /**
+     * Returns the memory budget in bytes, or 0 for no budget.
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    @Override
+    public IStats getStatistics() {
+        final var stats = super.getStatistics();
+        stats.setTypeName("Map Chunks Memory Cache");
+        final var elems = stats.getStatElements();
+        elems.add(new StatElement<>("Eviction Count", getEvictionCount()));
+        elems.add(new StatElement<>("Used Bytes", getUsedBytes()));
+        elems.add(new StatElement<>("Max Bytes", maxBytes));
+        elems.add(new StatElement<>("Released Bytes", getReleasedBytes()));
+        return stats;
+    }
+}
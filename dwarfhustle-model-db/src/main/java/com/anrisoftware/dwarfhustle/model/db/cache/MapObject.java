@@ -17,8 +17,6 @@
  */
 package com.anrisoftware.dwarfhustle.model.db.cache;
 
-import static com.anrisoftware.dwarfhustle.model.api.objects.ExternalizableUtils.readStreamLongIntMap;
-import static com.anrisoftware.dwarfhustle.model.api.objects.ExternalizableUtils.writeStreamLongIntMap;
 import static com.anrisoftware.dwarfhustle.model.api.objects.GameBlockPos.calcIndex;
 
 import java.io.DataInput;
@@ -27,7 +25,9 @@ import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
 
+import org.eclipse.collections.api.block.procedure.primitive.LongIntProcedure;
 import org.eclipse.collections.api.factory.primitive.LongIntMaps;
+import org.eclipse.collections.api.map.primitive.LongIntMap;
 import org.eclipse.collections.api.map.primitive.MutableLongIntMap;
 
 import com.anrisoftware.dwarfhustle.model.api.objects.GameBlockPos;
@@ -38,13 +38,21 @@ import com.anrisoftware.dwarfhustle.model.api.objects.MapChunk;
 import com.anrisoftware.dwarfhustle.model.api.objects.ObjectsGetter;
 import com.anrisoftware.dwarfhustle.model.api.objects.ObjectsSetter;
 
+import lombok.AccessLevel;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
+import lombok.Getter;
 import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.SneakyThrows;
 import lombok.ToString;
 
 /**
  * Cache entry for a {@link GameMapObject} on the {@link GameMap}.
+ * <p>
+ * The first two objects are stored inline and only more objects are stored in
+ * a primitive map. The entry is not synchronized, the access must be guarded
+ * by the lock of the block, see {@link GameMap#getObjectsLock(int)}.
  *
  * @author Erwin Müller, {@code <erwin@muellerpublic.de>}
  */
@@ -83,9 +91,41 @@ public class MapObject extends GameObject {
     private int cid;
 
     /**
-     * Stores the {@link GameMapObject} IDs to type.
+     * Count of the {@link GameMapObject}s in the inline slots.
      */
-    private MutableLongIntMap oids = LongIntMaps.mutable.withInitialCapacity(10).asSynchronized();
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @ToString.Exclude
+    private int count;
+
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @ToString.Exclude
+    private long id0;
+
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @ToString.Exclude
+    private int type0;
+
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @ToString.Exclude
+    private long id1;
+
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @ToString.Exclude
+    private int type1;
+
+    /**
+     * Stores the {@link GameMapObject} IDs to type if the block have more
+     * objects than inline slots, otherwise {@code null}.
+     */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @ToString.Exclude
+    private MutableLongIntMap spill;
 
     public MapObject(int index) {
         super(index);
@@ -126,12 +166,35 @@ public class MapObject extends GameObject {
      *         object was already on the map.
      */
     public boolean addObject(int type, long id) {
-        if (oids.containsKey(id)) {
+        if (spill != null) {
+            if (spill.containsKey(id)) {
+                return false;
+            }
+            spill.put(id, type);
+            return true;
+        }
+        if (containsObject(id)) {
             return false;
-        } else {
-            oids.put(id, type);
+        }
+        switch (count) {
+        case 0:
+            id0 = id;
+            type0 = type;
+            break;
+        case 1:
+            id1 = id;
+            type1 = type;
+            break;
+        default:
+            spill = LongIntMaps.mutable.withInitialCapacity(4);
+            spill.put(id0, type0);
+            spill.put(id1, type1);
+            spill.put(id, type);
+            count = 0;
             return true;
         }
+        count++;
+        return true;
     }
 
     /**
@@ -142,15 +205,84 @@ public class MapObject extends GameObject {
      *         the object was already removed the map.
      */
     public boolean removeObject(long id) {
-        if (oids.containsKey(id)) {
-            oids.remove(id);
+        if (spill != null) {
+            if (!spill.containsKey(id)) {
+                return false;
+            }
+            spill.remove(id);
+            if (spill.size() <= 2) {
+                final var s = spill;
+                spill = null;
+                s.forEachKeyValue((oid, type) -> addObject(type, oid));
+            }
+            return true;
+        }
+        if (count > 0 && id0 == id) {
+            id0 = id1;
+            type0 = type1;
+            count--;
+            return true;
+        }
+        if (count > 1 && id1 == id) {
+            count--;
             return true;
         }
         return false;
     }
 
+    /**
+     * Removes all objects from the map.
+     */
+    public void clearObjects() {
+        count = 0;
+        spill = null;
+    }
+
+    /**
+     * Returns true if the object is on the map.
+     */
+    public boolean containsObject(long id) {
+        if (spill != null) {
+            return spill.containsKey(id);
+        }
+        return count > 0 && id0 == id || count > 1 && id1 == id;
+    }
+
+    /**
+     * Returns the count of the objects.
+     */
+    public int size() {
+        return spill != null ? spill.size() : count;
+    }
+
     public boolean isEmpty() {
-        return oids.isEmpty();
+        return size() == 0;
+    }
+
+    /**
+     * Calls the procedure with the ID and the type of each object.
+     */
+    public void forEachObject(LongIntProcedure procedure) {
+        if (spill != null) {
+            spill.forEachKeyValue(procedure);
+            return;
+        }
+        if (count > 0) {
+            procedure.value(id0, type0);
+        }
+        if (count > 1) {
+            procedure.value(id1, type1);
+        }
+    }
+
+    /**
+     * Returns a copy of the {@link GameMapObject} IDs to type.
+     */
+    @ToString.Include
+    public LongIntMap getOids() {
+        final MutableLongIntMap oids = LongIntMaps.mutable.withInitialCapacity(size());
+        forEachObject(oids::put);
+        return oids;
     }
 
     @Override
@@ -167,14 +299,28 @@ public class MapObject extends GameObject {
     public void writeStream(DataOutput out) throws IOException {
         super.writeStream(out);
         out.writeInt(cid);
-        writeStreamLongIntMap(out, oids);
+        out.writeInt(size());
+        forEachObject((id, type) -> {
+            writeObject(out, id, type);
+        });
+    }
+
+    @SneakyThrows
+    private void writeObject(DataOutput out, long id, int type) {
+        out.writeLong(id);
+        out.writeInt(type);
     }
 
     @Override
     public void readStream(DataInput in) throws IOException {
         super.readStream(in);
         cid = in.readInt();
-        oids = ((MutableLongIntMap) readStreamLongIntMap(in)).asSynchronized();
+        clearObjects();
+        final int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            final long id = in.readLong();
+            addObject(in.readInt(), id);
+        }
     }
 
 }
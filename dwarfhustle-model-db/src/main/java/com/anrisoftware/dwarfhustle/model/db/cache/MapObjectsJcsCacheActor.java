@@ -22,7 +22,6 @@ import static com.anrisoftware.dwarfhustle.model.actor.CreateActorMessage.create
 import java.time.Duration;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
-import java.util.function.Consumer;
 
 import org.apache.commons.jcs3.JCS;
 import org.apache.commons.jcs3.access.CacheAccess;
@@ -155,11 +154,6 @@ public class MapObjectsJcsCacheActor extends AbstractJcsCacheActor {
         objects.addAll(v);
     }
 
-    @Override
-    protected void retrieveValueFromBackend(CacheGetMessage<?> m, Consumer<GameObject> consumer) {
-        // retrieved on start
-    }
-
     @SuppressWarnings("unchecked")
     @Override
     protected <T extends GameObject> T getValueFromBackend(int type, long key) {
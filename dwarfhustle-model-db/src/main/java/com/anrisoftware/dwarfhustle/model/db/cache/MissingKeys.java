@@ -0,0 +1,114 @@
+/*
+ * dwarfhustle-model-db - Manages the compile dependencies for the model.
+ * Copyright © 2022-2025 Erwin Müller (erwin.mueller@anrisoftware.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.anrisoftware.dwarfhustle.model.db.cache;
+
+import java.time.Duration;
+
+import org.eclipse.collections.api.factory.primitive.IntObjectMaps;
+import org.eclipse.collections.api.factory.primitive.LongLongMaps;
+import org.eclipse.collections.api.map.primitive.MutableIntObjectMap;
+import org.eclipse.collections.api.map.primitive.MutableLongLongMap;
+
+/**
+ * Remembers the IDs of the {@link com.anrisoftware.dwarfhustle.model.api.objects.GameObject}s
+ * that are not in the backend, by the object type and the ID. The IDs expire
+ * after the time to live, so an object that was stored in the backend past the
+ * cache is found again. All IDs are forgotten if the count grows over the
+ * maximum.
+ *
+ * @author Erwin Müller, {@code <erwin@muellerpublic.de>}
+ */
+public class MissingKeys {
+
+    private final MutableIntObjectMap<MutableLongLongMap> types;
+
+    private final int maxKeys;
+
+    private final long ttl;
+
+    private int size;
+
+    /**
+     * @param maxKeys the maximum count of the remembered IDs.
+     * @param ttl     the {@link Duration} time to live of a remembered ID.
+     */
+    public MissingKeys(int maxKeys, Duration ttl) {
+        this.types = IntObjectMaps.mutable.empty();
+        this.maxKeys = maxKeys;
+        this.ttl = ttl.toNanos();
+    }
+
+    /**
+     * Returns true if the ID of the type is remembered as missing and not
+     * expired.
+     */
+    public synchronized boolean contains(int type, long id) {
+        final var ids = types.get(type);
+        if (ids == null || !ids.containsKey(id)) {
+            return false;
+        }
+        if (System.nanoTime() - ids.get(id) < 0) {
+            return true;
+        }
+        ids.remove(id);
+        size--;
+        return false;
+    }
+
+    /**
+     * Remembers the ID of the type as missing.
+     */
+    public synchronized void add(int type, long id) {
+        if (size >= maxKeys) {
+            clear();
+        }
+        final var ids = types.getIfAbsentPut(type, LongLongMaps.mutable::empty);
+        if (!ids.containsKey(id)) {
+            size++;
+        }
+        ids.put(id, System.nanoTime() + ttl);
+    }
+
+    /**
+     * Forgets the ID for all types.
+     */
+    public synchronized void remove(long id) {
+        types.forEachValue(ids -> {
+            if (ids.containsKey(id)) {
+                ids.remove(id);
+                size--;
+            }
+        });
+    }
+
+    /**
+     * Forgets all IDs.
+     */
+    public synchronized void clear() {
+        types.clear();
+        size = 0;
+    }
+
+    /**
+     * Returns the count of the remembered IDs, including the expired IDs that
+     * were not looked up again.
+     */
+    public synchronized int size() {
+        return size;
+    }
+}
@@ -22,7 +22,6 @@ import static com.anrisoftware.dwarfhustle.model.actor.CreateActorMessage.create
 import java.time.Duration;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
-import java.util.function.Consumer;
 
 import org.apache.commons.jcs3.JCS;
 import org.apache.commons.jcs3.access.CacheAccess;
@@ -132,15 +131,6 @@ public class MockStoredObjectsJcsCacheActor extends AbstractJcsCacheActor {
         }
     }
 
-    @Override
-    protected void retrieveValueFromBackend(CacheGetMessage<?> m, Consumer<GameObject> consumer) {
-        retrieveGameObject(m.type, m.key, consumer);
-    }
-
-    private void retrieveGameObject(int type, long id, Consumer<GameObject> consumer) {
-        consumer.accept(og.get(type, id));
-    }
-
     @Override
     protected <T extends GameObject> T getValueFromBackend(int type, long key) {
         return og.get(type, key);
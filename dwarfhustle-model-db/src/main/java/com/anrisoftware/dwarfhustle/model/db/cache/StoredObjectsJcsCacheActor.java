@@ -20,18 +20,15 @@ package com.anrisoftware.dwarfhustle.model.db.cache;
 import static com.anrisoftware.dwarfhustle.model.actor.CreateActorMessage.createNamedActor;
 
 import java.time.Duration;
-import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
-import java.util.concurrent.Semaphore;
-import java.util.concurrent.TimeUnit;
-import java.util.function.Consumer;
 
 import org.apache.commons.jcs3.JCS;
 import org.apache.commons.jcs3.access.CacheAccess;
 import org.apache.commons.jcs3.access.exception.CacheException;
-import org.eclipse.collections.api.factory.Lists;
+import org.eclipse.collections.api.LongIterable;
 import org.eclipse.collections.api.factory.primitive.LongObjectMaps;
+import org.eclipse.collections.api.map.primitive.LongObjectMap;
 import org.eclipse.collections.api.map.primitive.MutableLongObjectMap;
 
 import com.anrisoftware.dwarfhustle.model.actor.ActorSystemProvider;
@@ -133,13 +130,22 @@ public class StoredObjectsJcsCacheActor extends AbstractJcsCacheActor {
         return initCache;
     }
 
-    private final MutableLongObjectMap<GameObject> queue = LongObjectMaps.mutable.ofInitialCapacity(1000);
+    /**
+     * Count of modified objects to start storing a batch.
+     */
+    public static final int FLUSH_SIZE = 1000;
 
-    private final Semaphore queueLock = new Semaphore(1);
+    /**
+     * Maximum count of modified objects before the producers have to wait.
+     */
+    public static final int MAX_QUEUE_SIZE = 10000;
+
+    private WriteBehindQueue queue;
 
     @Override
     protected Behavior<Message> initialStage(InitialStateMessage m) {
         log.debug("initialStage {}", m);
+        this.queue = new WriteBehindQueue(os, FLUSH_SIZE, MAX_QUEUE_SIZE, NAME + "-store");
         timer.startTimerAtFixedRate(StoreObjectsMessage.KEY, new StoreObjectsMessage(), Duration.ofSeconds(30));
         return super.initialStage(m);
     }
@@ -149,10 +155,19 @@ public class StoredObjectsJcsCacheActor extends AbstractJcsCacheActor {
         return ID;
     }
 
+    /**
+     * Returns the write-behind queue of the modified objects.
+     */
+    public WriteBehindQueue getQueue() {
+        return queue;
+    }
+
     /**
      */
     protected Behavior<Message> onStoreObjects(StoreObjectsMessage m) {
-        storeObjects();
+        queue.flush();
+        log.debug("Write-behind queue depth {}, last flush {}, max flush {}", queue.getQueueDepth(),
+                queue.getLastFlushLatency(), queue.getMaxFlushLatency());
         return Behaviors.same();
     }
 
@@ -160,64 +175,60 @@ public class StoredObjectsJcsCacheActor extends AbstractJcsCacheActor {
      */
     protected Behavior<Message> onShutdown(ShutdownMessage m) {
         timer.cancelAll();
-        storeObjects();
+        queue.close();
         return Behaviors.stopped();
     }
 
-    private void storeObjects() {
-        try {
-            if (queueLock.tryAcquire(1, TimeUnit.SECONDS)) {
-                final List<GameObject> list = Lists.mutable.ofAll(queue.values());
-                queue.clear();
-                for (final var go : list) {
-                    // System.out.println(go); // TODO
-                    os.set(go.getObjectType(), go);
-                }
-                queueLock.release();
-                // System.out.println(list); // TODO
-            }
-        } catch (final InterruptedException e) {
-            log.error("storeObjects", e);
-        }
-        // System.out.println("StoredObjectsJcsCacheActor.storeObjects()"); // TODO
-    }
-
     @Override
     protected void storeValueBackend(GameObject go) {
-        try {
-            if (queueLock.tryAcquire(1, TimeUnit.SECONDS)) {
-                queue.put(go.getId(), go);
-                queueLock.release();
-            }
-        } catch (final InterruptedException e) {
-            log.error("storeValueBackend", e);
-        }
+        queue.put(go);
     }
 
     @Override
     protected void storeValuesBackend(int type, Iterable<GameObject> values) {
-        try {
-            if (queueLock.tryAcquire(1, TimeUnit.SECONDS)) {
-                for (final GameObject go : values) {
-                    queue.put(go.getId(), go);
-                }
-                queueLock.release();
-            }
-        } catch (final InterruptedException e) {
-            log.error("storeValuesBackend", e);
-        }
+        queue.putAll(values);
     }
 
+    /**
+     * Queues the delete in the write-behind queue, so it is done after the
+     * stores of the object that are queued or storing.
+     */
     @Override
-    protected void retrieveValueFromBackend(CacheGetMessage<?> m, Consumer<GameObject> consumer) {
-        consumer.accept(og.get(m.type, m.key));
+    protected void removeValueBackend(int type, GameObject go) {
+        queue.remove(go);
     }
 
+    @SuppressWarnings("unchecked")
     @Override
     protected <T extends GameObject> T getValueFromBackend(int type, long key) {
+        final var go = queue.get(key);
+        if (go != null) {
+            return (T) go;
+        }
+        if (queue.isRemoved(key)) {
+            return null;
+        }
         return og.get(type, key);
     }
 
+    @SuppressWarnings("unchecked")
+    @Override
+    protected <T extends GameObject> LongObjectMap<T> getValuesFromBackend(int type, LongIterable keys) {
+        final MutableLongObjectMap<T> res = LongObjectMaps.mutable.ofInitialCapacity(keys.size());
+        final var misses = keys.reject(key -> {
+            final var go = queue.get(key);
+            if (go != null) {
+                res.put(key, (T) go);
+                return true;
+            }
+            return queue.isRemoved(key);
+        });
+        if (misses.notEmpty()) {
+            res.putAll(og.getAll(type, misses));
+        }
+        return res;
+    }
+
     @Override
     protected BehaviorBuilder<Message> getInitialBehavior() {
         return super.getInitialBehavior()//
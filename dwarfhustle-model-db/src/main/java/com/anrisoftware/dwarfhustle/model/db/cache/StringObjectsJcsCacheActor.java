@@ -22,7 +22,6 @@ import static com.anrisoftware.dwarfhustle.model.actor.CreateActorMessage.create
 import java.time.Duration;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
-import java.util.function.Consumer;
 
 import org.apache.commons.jcs3.JCS;
 import org.apache.commons.jcs3.access.CacheAccess;
@@ -45,7 +44,6 @@ import akka.actor.typed.javadsl.Behaviors;
 import akka.actor.typed.javadsl.StashBuffer;
 import akka.actor.typed.javadsl.TimerScheduler;
 import akka.actor.typed.receptionist.ServiceKey;
-import lombok.val;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -134,12 +132,6 @@ public class StringObjectsJcsCacheActor extends AbstractJcsCacheActor {
         os.set(type, values);
     }
 
-    @Override
-    protected void retrieveValueFromBackend(CacheGetMessage<?> m, Consumer<GameObject> consumer) {
-        val go = getValueFromBackend(m.type, m.key);
-        consumer.accept(go);
-    }
-
     @Override
     protected <T extends GameObject> T getValueFromBackend(int type, long key) {
         return og.get(type, key);
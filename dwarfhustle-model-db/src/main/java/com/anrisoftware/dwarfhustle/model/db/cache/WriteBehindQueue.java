@@ -0,0 +1,506 @@
+/*
+ * dwarfhustle-model-db - Manages the compile dependencies for the model.
+ * Copyright © 2022-2025 Erwin Müller (erwin.mueller@anrisoftware.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.anrisoftware.dwarfhustle.model.db.cache;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.eclipse.collections.api.factory.Lists;
+import org.eclipse.collections.api.factory.primitive.LongObjectMaps;
+import org.eclipse.collections.api.map.primitive.MutableLongObjectMap;
+
+import com.anrisoftware.dwarfhustle.model.api.objects.GameObject;
+import com.anrisoftware.dwarfhustle.model.api.objects.ObjectsSetter;
+import com.anrisoftware.dwarfhustle.model.api.objects.ObjectsSetter.ObjectsSetterException;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Bounded write-behind queue of modified {@link GameObject}s.
+ * <p>
+ * The objects are stored in batches with {@link ObjectsSetter#set(int, Iterable)}
+ * on a dedicated I/O thread if the queue reaches the flush size or
+ * {@link #flush()} is called. Only one batch is stored at a time, so the
+ * objects are stored in order. If the queued and the storing objects reach the
+ * maximum size then the producer in {@link #put(GameObject)} waits until the
+ * batch is stored, but not longer than the timeout. Queued and storing objects
+ * are returned by {@link #get(long)} until they are stored.
+ * <p>
+ * Removed objects are queued as deletes with {@link #remove(GameObject)} and
+ * are removed with {@link ObjectsSetter#remove(int, GameObject)} in the same
+ * batches, so a delete is never overtaken by an earlier store of the object.
+ * Until the delete is done {@link #isRemoved(long)} returns true, so the
+ * object is not read again from the backend.
+ * <p>
+ * A batch that fails to store is queued again and retried with the next flush.
+ * After {@link #MAX_RETRIES} failed batches in a row the objects of the batch
+ * are stored one by one, and the objects that still fail are dropped, logged
+ * and counted in {@link #getDroppedCount()}.
+ *
+ * @author Erwin Müller, {@code <erwin@muellerpublic.de>}
+ */
+@Slf4j
+public class WriteBehindQueue implements AutoCloseable {
+
+    /**
+     * Default time to wait for a full queue and to drain the queue.
+     */
+    public static final Duration TIMEOUT_DEFAULT = Duration.ofMinutes(1);
+
+    /**
+     * Count of failed batches in a row before the objects are stored one by one.
+     */
+    public static final int MAX_RETRIES = 3;
+
+    private static final long RETRY_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final ObjectsSetter os;
+
+    private final int flushSize;
+
+    private final int maxSize;
+
+    private final Duration timeout;
+
+    private final ExecutorService executor;
+
+    private final ReentrantLock lock;
+
+    private final Condition notFull;
+
+    private final Condition drained;
+
+    private final AtomicLong flushCount;
+
+    private final AtomicLong storedCount;
+
+    private final AtomicLong lastFlushNanos;
+
+    private final AtomicLong maxFlushNanos;
+
+    private final AtomicLong waitCount;
+
+    private final AtomicLong droppedCount;
+
+    private MutableLongObjectMap<GameObject> queue;
+
+    private MutableLongObjectMap<GameObject> storing;
+
+    private MutableLongObjectMap<GameObject> removes;
+
+    private MutableLongObjectMap<GameObject> removing;
+
+    private int retries;
+
+    /**
+     * Creates the write-behind queue with the {@link #TIMEOUT_DEFAULT}.
+     *
+     * @see #WriteBehindQueue(ObjectsSetter, int, int, String, Duration)
+     */
+    public WriteBehindQueue(ObjectsSetter os, int flushSize, int maxSize, String name) {
+        this(os, flushSize, maxSize, name, TIMEOUT_DEFAULT);
+    }
+
+    /**
+     * Creates the write-behind queue.
+     *
+     * @param os        the {@link ObjectsSetter} to store the objects.
+     * @param flushSize the count of queued objects to start storing a batch.
+     * @param maxSize   the maximum count of queued and storing objects before
+     *                  the producers have to wait.
+     * @param name      the name of the I/O thread.
+     * @param timeout   the maximum time to wait for a full queue and to drain
+     *                  the queue.
+     */
+    public WriteBehindQueue(ObjectsSetter os, int flushSize, int maxSize, String name, Duration timeout) {
+        assert flushSize <= maxSize : "flushSize > maxSize";
+        this.os = os;
+        this.flushSize = flushSize;
+        this.maxSize = maxSize;
+        this.timeout = timeout;
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            final var t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        });
+        this.lock = new ReentrantLock();
+        this.notFull = lock.newCondition();
+        this.drained = lock.newCondition();
+        this.flushCount = new AtomicLong();
+        this.storedCount = new AtomicLong();
+        this.lastFlushNanos = new AtomicLong();
+        this.maxFlushNanos = new AtomicLong();
+        this.waitCount = new AtomicLong();
+        this.droppedCount = new AtomicLong();
+        this.queue = LongObjectMaps.mutable.ofInitialCapacity(flushSize);
+        this.storing = LongObjectMaps.mutable.empty();
+        this.removes = LongObjectMaps.mutable.empty();
+        this.removing = LongObjectMaps.mutable.empty();
+    }
+
+    /**
+     * Queues the modified {@link GameObject}. Starts to store a batch if the
+     * queue reaches the flush size. Waits while the queue is full.
+     *
+     * @throws ObjectsSetterException if the queue is still full after the
+     *                                timeout or the thread was interrupted.
+     */
+    public void put(GameObject go) {
+        lock.lock();
+        try {
+            waitNotFull();
+            removes.remove(go.getId());
+            queue.put(go.getId(), go);
+            if (queue.size() + removes.size() >= flushSize) {
+                startFlush();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queues the delete of the {@link GameObject}. A queued store of the object
+     * is dropped. Waits while the queue is full.
+     *
+     * @throws ObjectsSetterException if the queue is still full after the
+     *                                timeout or the thread was interrupted.
+     */
+    public void remove(GameObject go) {
+        lock.lock();
+        try {
+            waitNotFull();
+            queue.remove(go.getId());
+            removes.put(go.getId(), go);
+            if (queue.size() + removes.size() >= flushSize) {
+                startFlush();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queues the modified {@link GameObject}(s).
+     */
+    public void putAll(Iterable<? extends GameObject> values) {
+        for (final GameObject go : values) {
+            put(go);
+        }
+    }
+
+    private void waitNotFull() {
+        if (getPendingSize() < maxSize) {
+            return;
+        }
+        waitCount.incrementAndGet();
+        final long deadline = System.nanoTime() + timeout.toNanos();
+        try {
+            while (getPendingSize() >= maxSize) {
+                final long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    throw new ObjectsSetterException("Write-behind queue still full after " + timeout);
+                }
+                startFlush();
+                notFull.awaitNanos(Math.min(left, RETRY_NANOS));
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ObjectsSetterException("Interrupted while the write-behind queue is full", e);
+        }
+    }
+
+    private int getPendingSize() {
+        return queue.size() + storing.size() + removes.size() + removing.size();
+    }
+
+    /**
+     * Returns the queued or storing {@link GameObject} with the ID or
+     * {@code null}. Returns {@code null} if the object was removed after it was
+     * queued.
+     */
+    public GameObject get(long id) {
+        lock.lock();
+        try {
+            final var go = queue.get(id);
+            if (go != null || removes.containsKey(id)) {
+                return go;
+            }
+            return storing.get(id);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns true if the {@link GameObject} with the ID is removed but the
+     * delete is not done yet, and the object was not queued again.
+     */
+    public boolean isRemoved(long id) {
+        lock.lock();
+        try {
+            if (queue.containsKey(id)) {
+                return false;
+            }
+            return removes.containsKey(id) || removing.containsKey(id);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Starts to store the queued objects without waiting.
+     */
+    public void flush() {
+        lock.lock();
+        try {
+            startFlush();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void startFlush() {
+        if (queue.isEmpty() && removes.isEmpty() || storing.notEmpty() || removing.notEmpty()
+                || executor.isShutdown()) {
+            return;
+        }
+        final var batch = queue;
+        final var deletes = removes;
+        this.storing = batch;
+        this.removing = deletes;
+        this.queue = LongObjectMaps.mutable.ofInitialCapacity(flushSize);
+        this.removes = LongObjectMaps.mutable.empty();
+        executor.execute(() -> store(batch, deletes));
+    }
+
+    private void store(MutableLongObjectMap<GameObject> batch, MutableLongObjectMap<GameObject> deletes) {
+        final long start = System.nanoTime();
+        boolean stored = storeBatch(batch, deletes);
+        int count = batch.size();
+        if (!stored && isRetriesExceeded()) {
+            count = storeEach(batch, deletes);
+            stored = true;
+        }
+        final long time = System.nanoTime() - start;
+        lastFlushNanos.set(time);
+        maxFlushNanos.accumulateAndGet(time, Math::max);
+        flushCount.incrementAndGet();
+        lock.lock();
+        try {
+            if (stored) {
+                this.retries = 0;
+                storedCount.addAndGet(count);
+            } else {
+                batch.forEachKeyValue((id, go) -> {
+                    if (!removes.containsKey(id)) {
+                        queue.getIfAbsentPut(id, go);
+                    }
+                });
+                deletes.forEachKeyValue((id, go) -> {
+                    if (!queue.containsKey(id)) {
+                        removes.getIfAbsentPut(id, go);
+                    }
+                });
+            }
+            this.storing = LongObjectMaps.mutable.empty();
+            this.removing = LongObjectMaps.mutable.empty();
+            log.debug("Stored {} objects in {} ms, queue depth {}", batch.size(),
+                    TimeUnit.NANOSECONDS.toMillis(time), queue.size());
+            notFull.signalAll();
+            if (queue.isEmpty() && removes.isEmpty()) {
+                drained.signalAll();
+            } else if (stored && queue.size() + removes.size() >= flushSize) {
+                startFlush();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean storeBatch(MutableLongObjectMap<GameObject> batch, MutableLongObjectMap<GameObject> deletes) {
+        try {
+            Lists.mutable.withAll(batch.values()).groupBy(GameObject::getObjectType)
+                    .forEachKeyMultiValues((type, values) -> {
+                        os.set(type, values);
+                    });
+            deletes.forEachValue(go -> os.remove(go.getObjectType(), go));
+            return true;
+        } catch (final RuntimeException e) {
+            log.error("Store write-behind batch", e);
+            return false;
+        }
+    }
+
+    private boolean isRetriesExceeded() {
+        lock.lock();
+        try {
+            return ++retries >= MAX_RETRIES;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stores and removes the objects of the batch one by one and drops the
+     * objects that fail.
+     *
+     * @return the count of the stored objects.
+     */
+    private int storeEach(MutableLongObjectMap<GameObject> batch, MutableLongObjectMap<GameObject> deletes) {
+        int count = 0;
+        for (final var go : batch.values()) {
+            try {
+                os.set(go.getObjectType(), go);
+                count++;
+            } catch (final RuntimeException e) {
+                droppedCount.incrementAndGet();
+                log.error("Dropped object {} after {} failed batches", go, MAX_RETRIES, e);
+            }
+        }
+        for (final var go : deletes.values()) {
+            try {
+                os.remove(go.getObjectType(), go);
+            } catch (final RuntimeException e) {
+                droppedCount.incrementAndGet();
+                log.error("Dropped delete of object {} after {} failed batches", go, MAX_RETRIES, e);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Stores all queued objects and waits until they are stored, but not longer
+     * than the timeout of the queue.
+     *
+     * @return true if all objects are stored.
+     */
+    public boolean drain() {
+        return drain(timeout);
+    }
+
+    /**
+     * Stores all queued objects and waits until they are stored, but not longer
+     * than the timeout.
+     *
+     * @return true if all objects are stored.
+     */
+    public boolean drain(Duration timeout) {
+        final long deadline = System.nanoTime() + timeout.toNanos();
+        lock.lock();
+        try {
+            while (getPendingSize() > 0) {
+                final long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    log.warn("Write-behind queue not drained after {}, {} objects pending", timeout,
+                            getPendingSize());
+                    return false;
+                }
+                startFlush();
+                if (drained.awaitNanos(Math.min(left, RETRY_NANOS)) <= 0 && storing.isEmpty()
+                        && removing.isEmpty() && (queue.notEmpty() || removes.notEmpty())) {
+                    log.warn("Retry to store {} objects", queue.size() + removes.size());
+                }
+            }
+            return true;
+        } catch (final InterruptedException e) {
+            log.warn("Interrupted while draining the write-behind queue");
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drains the queue and stops the I/O thread. The objects that are not stored
+     * after the timeout are lost.
+     */
+    @Override
+    public void close() {
+        if (!drain()) {
+            log.error("Closed write-behind queue with {} objects not stored", getQueueDepth());
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the count of the queued and storing objects and deletes.
+     */
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return getPendingSize();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the count of the stored batches.
+     */
+    public long getFlushCount() {
+        return flushCount.get();
+    }
+
+    /**
+     * Returns the count of the stored objects.
+     */
+    public long getStoredCount() {
+        return storedCount.get();
+    }
+
+    /**
+     * Returns the count of the objects that were dropped because they failed to
+     * store.
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Returns how many times producers had to wait for a full queue.
+     */
+    public long getWaitCount() {
+        return waitCount.get();
+    }
+
+    /**
+     * Returns the duration to store the last batch.
+     */
+    public Duration getLastFlushLatency() {
+        return Duration.ofNanos(lastFlushNanos.get());
+    }
+
+    /**
+     * Returns the maximum duration to store a batch.
+     */
+    public Duration getMaxFlushLatency() {
+        return Duration.ofNanos(maxFlushNanos.get());
+    }
+}
@@ -18,29 +18,46 @@
 package com.anrisoftware.dwarfhustle.model.db.lmbd;
 
 import static java.nio.ByteBuffer.allocateDirect;
+import static org.agrona.BufferUtil.NULL_BYTES;
 import static org.lmdbjava.DbiFlags.MDB_CREATE;
 import static org.lmdbjava.DbiFlags.MDB_INTEGERKEY;
-import static org.lmdbjava.DirectBufferProxy.PROXY_DB;
-import static org.lmdbjava.Env.create;
+import static org.lmdbjava.GetOp.MDB_SET_RANGE;
 
 import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.agrona.DirectBuffer;
 import org.agrona.MutableDirectBuffer;
 import org.agrona.concurrent.UnsafeBuffer;
+import org.eclipse.collections.api.LongIterable;
 import org.eclipse.collections.api.factory.primitive.IntObjectMaps;
+import org.eclipse.collections.api.factory.primitive.LongObjectMaps;
 import org.eclipse.collections.api.map.primitive.IntObjectMap;
+import org.eclipse.collections.api.map.primitive.LongObjectMap;
 import org.eclipse.collections.api.map.primitive.MutableIntObjectMap;
+import org.eclipse.collections.api.map.primitive.MutableLongObjectMap;
 import org.eclipse.collections.api.set.primitive.IntSet;
+import org.lmdbjava.Cursor;
 import org.lmdbjava.CursorIterable;
 import org.lmdbjava.CursorIterable.KeyVal;
 import org.lmdbjava.Dbi;
-import org.lmdbjava.Env;
+import org.lmdbjava.PutFlags;
 import org.lmdbjava.Txn;
 
 import com.anrisoftware.dwarfhustle.model.api.objects.GameObject;
@@ -56,6 +73,22 @@ import jakarta.inject.Inject;
  */
 public class GameObjectsLmbdStorage implements GameObjectsStorage {
 
+    /**
+     * Maximum size of the staging buffer for the mass storage of game objects.
+     * Only a single object that is larger uses a larger buffer.
+     */
+    private static final int STAGING_SIZE = 64 * 1024 * 1024;
+
+    private static final PutFlags[] APPEND_FLAGS = { PutFlags.MDB_APPEND };
+
+    private static final PutFlags[] NO_FLAGS = {};
+
+    /**
+     * Count of the threads that read the objects for
+     * {@link #getAsync(int, long)}.
+     */
+    private static final int IO_THREADS = Runtime.getRuntime().availableProcessors();
+
     /**
      * Factory to create the {@link GameObjectsLmbdStorage}.
      *
@@ -65,7 +98,7 @@ public class GameObjectsLmbdStorage implements GameObjectsStorage {
         GameObjectsLmbdStorage create(Path file, long mapSize);
     }
 
-    private final Env<DirectBuffer> env;
+    private final LmbdEnv env;
 
     private final IntObjectMap<Dbi<DirectBuffer>> dbs;
 
@@ -73,6 +106,10 @@ public class GameObjectsLmbdStorage implements GameObjectsStorage {
 
     private final IntObjectMap<StoredObjectBuffer> readBuffers;
 
+    private final ThreadLocal<UnsafeBuffer> stagingSlot;
+
+    private final ExecutorService ioExecutor;
+
     /**
      * Creates or opens the game objects storage.
      */
@@ -80,14 +117,22 @@ public class GameObjectsLmbdStorage implements GameObjectsStorage {
     protected GameObjectsLmbdStorage(@Assisted Path file, @Assisted long mapSize, IntSet objectTypes,
             IntObjectMap<StoredObjectBuffer> readBuffers) {
         this.readBuffers = readBuffers;
-        env = create(PROXY_DB).setMapSize(mapSize).setMaxDbs(20).open(file.toFile());
+        env = new LmbdEnv(file, mapSize, 20);
         final MutableIntObjectMap<Dbi<DirectBuffer>> dbs = IntObjectMaps.mutable
                 .withInitialCapacity(objectTypes.size());
         objectTypes.each(type -> {
-            dbs.put(type, env.openDbi(Integer.toString(type), MDB_CREATE, MDB_INTEGERKEY));
+            dbs.put(type, env.getEnv().openDbi(Integer.toString(type), MDB_CREATE, MDB_INTEGERKEY));
         });
         this.dbs = dbs;
         buff8 = ThreadLocal.withInitial(() -> new UnsafeBuffer(allocateDirect(8)));
+        stagingSlot = ThreadLocal.withInitial(UnsafeBuffer::new);
+        final var name = "lmdb-io-" + file.getFileName() + "-";
+        final var count = new AtomicInteger();
+        ioExecutor = Executors.newFixedThreadPool(IO_THREADS, r -> {
+            final var t = new Thread(r, name + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
     }
 
     /**
@@ -95,87 +140,127 @@ public class GameObjectsLmbdStorage implements GameObjectsStorage {
      */
     @Override
     public void close() {
+        ioExecutor.shutdown();
         env.close();
     }
 
+    /**
+     * Returns the used and free pages of the storage.
+     */
+    public LmbdEnv.Stats getStats() {
+        return env.getStats();
+    }
+
     /**
      * Stores the game object in the database.
      */
     public void putObject(int type, long id, int size, Consumer<MutableDirectBuffer> writeBuffer) {
-        try (Txn<DirectBuffer> txn = env.txnWrite()) {
+        env.write(txn -> {
             final var key = buff8.get();
             key.putLong(0, id);
             final var val = new UnsafeBuffer(allocateDirect(size));
             writeBuffer.accept(val);
             dbs.get(type).put(txn, key, val);
-            txn.commit();
-        }
+        });
     }
 
     /**
      * Removes the game object in the database.
      */
     public void removeObject(int type, long id) {
-        try (Txn<DirectBuffer> txn = env.txnWrite()) {
+        env.write(txn -> {
             final var key = buff8.get();
             key.putLong(0, id);
             dbs.get(type).delete(txn, key);
-            txn.commit();
-        }
+        });
     }
 
-    private class ObjectsListRecursiveAction<T extends StoredObject> extends AbstractObjectsListRecursiveAction<T> {
-
-        private static final long serialVersionUID = 1L;
-
-        private final int size;
-
-        private final int type;
-
-        protected final BiConsumer<StoredObject, MutableDirectBuffer> writeBuffer;
+    /**
+     * Mass storage for game objects of the same size. The objects are serialized
+     * in parallel into off-heap staging buffers, sorted by ID and written in one
+     * write transaction.
+     *
+     * @see #putObjects(int, List, ToIntFunction, BiConsumer)
+     */
+    public void putObjects(int type, int size, List<? extends StoredObject> objects,
+            BiConsumer<StoredObject, MutableDirectBuffer> writeBuffer) {
+        putObjects(type, objects, o -> size, writeBuffer);
+    }
 
-        public ObjectsListRecursiveAction(int max, int start, int end, List<T> objects, int size, int type,
-                BiConsumer<StoredObject, MutableDirectBuffer> writeBuffer) {
-            super(max, start, end, objects);
-            this.size = size;
-            this.type = type;
-            this.writeBuffer = writeBuffer;
+    /**
+     * Mass storage for game objects. The objects are serialized in parallel into
+     * off-heap staging buffers, sorted by ID and written in one write transaction.
+     * If all IDs are greater than the already stored IDs, like in a freshly
+     * generated map, the objects are appended with {@code MDB_APPEND} to the end of
+     * the database.
+     */
+    public void putObjects(int type, List<? extends StoredObject> objects, ToIntFunction<StoredObject> size,
+            BiConsumer<StoredObject, MutableDirectBuffer> writeBuffer) {
+        if (objects.isEmpty()) {
+            return;
         }
-
-        @Override
-        protected void processing() {
-            try (Txn<DirectBuffer> txn = env.txnWrite()) {
-                final var key = buff8.get();
-                final var val = new UnsafeBuffer(allocateDirect(size));
-                final var c = dbs.get(type).openCursor(txn);
-                for (int i = start; i < end; i++) {
-                    final var o = objects.get(i);
-                    key.putLong(0, o.getId());
-                    writeBuffer.accept(o, val);
-                    c.put(key, val);
+        final List<StoredObject> sorted = new ArrayList<>(objects);
+        sorted.sort((a, b) -> Long.compareUnsigned(a.getId(), b.getId()));
+        final int n = sorted.size();
+        final int[] sizes = new int[n];
+        final int[] offs = new int[n];
+        final int[] ends = new int[n];
+        int batches = 0;
+        int stagingSize = 0;
+        for (int start = 0; start < n;) {
+            int end = start;
+            int batchSize = 0;
+            while (end < n) {
+                final int s = size.applyAsInt(sorted.get(end));
+                if (end > start && batchSize + s > STAGING_SIZE) {
+                    break;
                 }
-                txn.commit();
+                sizes[end] = s;
+                offs[end] = batchSize;
+                batchSize += s;
+                end++;
             }
+            stagingSize = Math.max(stagingSize, batchSize);
+            ends[batches++] = end;
+            start = end;
         }
-
-        @Override
-        protected AbstractObjectsListRecursiveAction<T> create(int max, int start, int end, List<T> objects) {
-            return new ObjectsListRecursiveAction<>(max, start, end, objects, size, type, writeBuffer);
-        }
+        final int count = batches;
+        final var staging = new UnsafeBuffer(allocateDirect(stagingSize));
+        env.write(txn -> {
+            try (final var c = dbs.get(type).openCursor(txn)) {
+                final var flags = isAppend(c, sorted.get(0).getId()) ? APPEND_FLAGS : NO_FLAGS;
+                final var key = buff8.get();
+                final var val = new UnsafeBuffer();
+                int start = 0;
+                for (int batch = 0; batch < count; batch++) {
+                    final int end = ends[batch];
+                    IntStream.range(start, end).parallel().forEach(i -> {
+                        final var slot = stagingSlot.get();
+                        slot.wrap(staging, offs[i], sizes[i]);
+                        writeBuffer.accept(sorted.get(i), slot);
+                        slot.wrap(NULL_BYTES);
+                    });
+                    for (int i = start; i < end; i++) {
+                        final long id = sorted.get(i).getId();
+                        if (i + 1 < n && sorted.get(i + 1).getId() == id) {
+                            // only the last object with the same ID is stored
+                            continue;
+                        }
+                        key.putLong(0, id);
+                        val.wrap(staging, offs[i], sizes[i]);
+                        c.put(key, val, flags);
+                    }
+                    start = end;
+                }
+            }
+        });
     }
 
-    /**
-     * Mass storage for game objects.
-     */
-    public void putObjects(int type, int size, List<? extends StoredObject> objects,
-            BiConsumer<StoredObject, MutableDirectBuffer> writeBuffer) {
-        final int max = 8192;
-        if (objects.size() < max) {
-            putObjects(type, size, objects, writeBuffer);
-        } else {
-            final var pool = ForkJoinPool.commonPool();
-            pool.invoke(new ObjectsListRecursiveAction<>(max, 0, objects.size(), objects, size, type, writeBuffer));
+    private static boolean isAppend(Cursor<DirectBuffer> c, long firstId) {
+        if (!c.last()) {
+            return true;
         }
+        return Long.compareUnsigned(c.key().getLong(0), firstId) < 0;
     }
 
     /**
@@ -183,51 +268,82 @@ public class GameObjectsLmbdStorage implements GameObjectsStorage {
      */
     public void putObjects(int type, int size, Iterable<? extends StoredObject> objects,
             BiConsumer<StoredObject, MutableDirectBuffer> writeBuffer) {
-        try (Txn<DirectBuffer> txn = env.txnWrite()) {
+        env.write(txn -> {
             final var key = buff8.get();
             final var val = new UnsafeBuffer(allocateDirect(size));
-            final var c = dbs.get(type).openCursor(txn);
-            for (final var o : objects) {
-                key.putLong(0, o.getId());
-                writeBuffer.accept(o, val);
-                c.put(key, val);
+            try (final var c = dbs.get(type).openCursor(txn)) {
+                for (final var o : objects) {
+                    key.putLong(0, o.getId());
+                    writeBuffer.accept(o, val);
+                    c.put(key, val);
+                }
             }
-            txn.commit();
+        });
+    }
+
+    /**
+     * Returns the database of the object type.
+     *
+     * @throws ObjectsGetterException if the object type is not registered.
+     */
+    private Dbi<DirectBuffer> getDbi(int type) {
+        final var dbi = dbs.get(type);
+        if (dbi == null) {
+            throw new ObjectsGetterException("No database for type " + type);
         }
+        return dbi;
     }
 
     /**
      * Retrieves the game object with the specific object ID from the database.
+     * Returns {@code null} if the object is not in the database.
+     *
+     * @throws ObjectsGetterException if the object type is not registered.
      */
     @SuppressWarnings("unchecked")
     public <T extends StoredObject> T getObject(int type, long id) {
-        try (var txn = env.txnRead()) {
+        final var dbi = getDbi(type);
+        final var readBuffer = readBuffers.get(type);
+        return env.read(txn -> {
             final var key = buff8.get();
             key.putLong(0, id);
-            final var dbi = dbs.get(type);
-            if (dbi == null) {
-                System.out.printf("[GameObjectsLmbdStorage] %d - %d\n", type, id); // TODO
-                assert dbi != null;
-            }
             final var val = dbi.get(txn, key);
             if (val == null) {
-                System.out.printf("[GameObjectsLmbdStorage] %d - %d\n", type, id); // TODO
                 return null;
             }
-            return (T) readBuffers.get(type).read(val);
-        }
+            return (T) readBuffer.read(val);
+        });
+    }
+
+    /**
+     * Retrieves the game objects with the object IDs from the database in one
+     * read transaction. Objects that are not found are not in the returned map.
+     *
+     * @throws ObjectsGetterException if the object type is not registered.
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends StoredObject> LongObjectMap<T> getObjects(int type, LongIterable ids) {
+        final var dbi = getDbi(type);
+        final MutableLongObjectMap<T> res = LongObjectMaps.mutable.ofInitialCapacity(ids.size());
+        final var readBuffer = readBuffers.get(type);
+        return env.read(txn -> {
+            final var key = buff8.get();
+            ids.forEach(id -> {
+                key.putLong(0, id);
+                final var val = dbi.get(txn, key);
+                if (val != null) {
+                    res.put(id, (T) readBuffer.read(val));
+                }
+            });
+            return res;
+        });
     }
 
     /**
      * Retrieves all game objects with the specific object type.
      */
     public void getObjects(int type, Consumer<StoredObject> consumer) {
-        try (var txn = env.txnRead()) {
-            final var it = dbs.get(type).iterate(txn);
-            it.forEach(k -> {
-                consumer.accept(readBuffers.get(type).read(k.val()));
-            });
-        }
+        streamObjects(type, false).forEach(consumer);
     }
 
     /**
@@ -241,9 +357,152 @@ public class GameObjectsLmbdStorage implements GameObjectsStorage {
      * </pre>
      */
     public DbIterable getObjects(int type) {
-        final var txn = env.txnRead();
-        final var it = dbs.get(type).iterate(txn);
-        return new DbIterable(it, type, txn);
+        final var dbi = getDbi(type);
+        final var txn = env.beginRead();
+        try {
+            return new DbIterable(dbi.iterate(txn), type, txn);
+        } catch (final RuntimeException e) {
+            env.endRead(txn);
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the game objects with the specific object type as a stream.
+     * <p>
+     * The stream is split by ranges of the object IDs, so with a parallel stream
+     * the ranges are read and deserialized in parallel. The objects are read in
+     * batches, each batch in its own short read transaction, so the stream does
+     * not need to be closed.
+     *
+     * <pre>
+     * storage.streamObjects(Grass.OBJECT_TYPE, true).forEach(go -&gt; {
+     * });
+     * </pre>
+     */
+    public Stream<StoredObject> streamObjects(int type, boolean parallel) {
+        final var dbi = getDbi(type);
+        return env.read(txn -> {
+            try (final var c = dbi.openCursor(txn)) {
+                if (!c.first()) {
+                    return Stream.<StoredObject>empty();
+                }
+                final long first = c.key().getLong(0);
+                c.last();
+                final long last = c.key().getLong(0);
+                final long entries = dbi.stat(txn).entries;
+                return StreamSupport.stream(new DbSpliterator(type, first, last, entries), parallel);
+            }
+        });
+    }
+
+    /**
+     * Reads the game objects of the ID range {@code [next, last]} in batches.
+     * Splits the ID range in half.
+     *
+     * @author Erwin Müller, {@code <erwin@muellerpublic.de>}
+     */
+    private class DbSpliterator implements Spliterator<StoredObject> {
+
+        private static final int BATCH_SIZE = 1024;
+
+        private static final long MIN_SPLIT_SIZE = 4 * BATCH_SIZE;
+
+        private final int type;
+
+        private final long last;
+
+        private final Deque<StoredObject> batch;
+
+        private long next;
+
+        private long estimate;
+
+        private boolean done;
+
+        public DbSpliterator(int type, long next, long last, long estimate) {
+            this.type = type;
+            this.next = next;
+            this.last = last;
+            this.estimate = estimate;
+            this.batch = new ArrayDeque<>(BATCH_SIZE);
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super StoredObject> action) {
+            if (batch.isEmpty() && !readBatch()) {
+                return false;
+            }
+            action.accept(batch.poll());
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super StoredObject> action) {
+            do {
+                StoredObject go;
+                while ((go = batch.poll()) != null) {
+                    action.accept(go);
+                }
+            } while (readBatch());
+        }
+
+        /**
+         * Reads and deserializes the next batch in a read transaction.
+         */
+        private boolean readBatch() {
+            if (done) {
+                return false;
+            }
+            final var read = readBuffers.get(type);
+            env.read(txn -> {
+                try (final var c = dbs.get(type).openCursor(txn)) {
+                    final var key = buff8.get();
+                    key.putLong(0, next);
+                    boolean found = c.get(key, MDB_SET_RANGE);
+                    long id = next;
+                    while (found && batch.size() < BATCH_SIZE) {
+                        id = c.key().getLong(0);
+                        if (Long.compareUnsigned(id, last) > 0) {
+                            done = true;
+                            break;
+                        }
+                        batch.add(read.read(c.val()));
+                        found = c.next();
+                    }
+                    if (!found || id == last) {
+                        done = true;
+                    }
+                    next = id + 1;
+                }
+                return null;
+            });
+            estimate = Math.max(0, estimate - batch.size());
+            return !batch.isEmpty();
+        }
+
+        @Override
+        public Spliterator<StoredObject> trySplit() {
+            final long span = last - next;
+            if (done || !batch.isEmpty() || estimate < MIN_SPLIT_SIZE || span == 0) {
+                return null;
+            }
+            final long mid = next + (span >>> 1);
+            final var prefix = new DbSpliterator(type, next, mid, estimate / 2);
+            this.next = mid + 1;
+            this.estimate -= prefix.estimate;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return estimate + batch.size();
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | DISTINCT | NONNULL;
+        }
     }
 
     /**
@@ -253,13 +512,18 @@ public class GameObjectsLmbdStorage implements GameObjectsStorage {
      */
     public class DbIterable implements Iterable<StoredObject>, Iterator<StoredObject>, AutoCloseable {
 
+        private final CursorIterable<DirectBuffer> cursor;
+
         private final Iterator<KeyVal<DirectBuffer>> it;
 
         private final int type;
 
-        private final Txn<?> txn;
+        private final Txn<DirectBuffer> txn;
+
+        private boolean closed;
 
-        public DbIterable(CursorIterable<DirectBuffer> it, int type, Txn<?> txn) {
+        public DbIterable(CursorIterable<DirectBuffer> it, int type, Txn<DirectBuffer> txn) {
+            this.cursor = it;
             this.it = it.iterator();
             this.type = type;
             this.txn = txn;
@@ -281,9 +545,19 @@ public class GameObjectsLmbdStorage implements GameObjectsStorage {
             return readBuffers.get(type).read(kv.val());
         }
 
+        /**
+         * Closes the cursor and then the read transaction.
+         */
         @Override
         public void close() throws Exception {
-            txn.reset();
+            if (!closed) {
+                closed = true;
+                try {
+                    cursor.close();
+                } finally {
+                    env.endRead(txn);
+                }
+            }
         }
 
     }
@@ -294,6 +568,31 @@ public class GameObjectsLmbdStorage implements GameObjectsStorage {
         return (T) getObject(type, key);
     }
 
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T extends GameObject> LongObjectMap<T> getAll(int type, LongIterable keys) {
+        final LongObjectMap<?> res = getObjects(type, keys);
+        return (LongObjectMap<T>) res;
+    }
+
+    /**
+     * Reads the object on the I/O threads of the storage, so the blocking reads
+     * do not occupy the {@link ForkJoinPool#commonPool()}.
+     */
+    @Override
+    public <T extends GameObject> CompletionStage<T> getAsync(int type, long key) {
+        return getAsync(type, key, ioExecutor);
+    }
+
+    /**
+     * Reads the objects on the I/O threads of the storage, so the blocking reads
+     * do not occupy the {@link ForkJoinPool#commonPool()}.
+     */
+    @Override
+    public <T extends GameObject> CompletionStage<LongObjectMap<T>> getAllAsync(int type, LongIterable keys) {
+        return getAllAsync(type, keys, ioExecutor);
+    }
+
     @Override
     public void set(int type, GameObject go) throws ObjectsSetterException {
         final var soBuffer = readBuffers.get(type);
@@ -309,11 +608,11 @@ public class GameObjectsLmbdStorage implements GameObjectsStorage {
     @Override
     public void set(int type, Iterable<GameObject> values) throws ObjectsSetterException {
         final var soBuffer = readBuffers.get(type);
+        final List<StoredObject> list = new ArrayList<>();
         for (final var go : values) {
-            putObject(type, go.getId(), soBuffer.getSize((StoredObject) go), b -> {
-                soBuffer.write(b, (StoredObject) go);
-            });
+            list.add((StoredObject) go);
         }
+        putObjects(type, list, soBuffer::getSize, (go, b) -> soBuffer.write(b, go));
     }
 
     @Override
@@ -0,0 +1,333 @@
+/*
+ * dwarfhustle-model-db - Manages the compile dependencies for the model.
+ * Copyright © 2022-2025 Erwin Müller (erwin.mueller@anrisoftware.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.anrisoftware.dwarfhustle.model.db.lmbd;
+
+import static org.lmdbjava.DirectBufferProxy.PROXY_DB;
+import static org.lmdbjava.Env.create;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.agrona.DirectBuffer;
+import org.apache.commons.io.FileUtils;
+import org.lmdbjava.CopyFlags;
+import org.lmdbjava.Env;
+import org.lmdbjava.Env.MapFullException;
+import org.lmdbjava.EnvFlags;
+import org.lmdbjava.Txn;
+
+import com.anrisoftware.dwarfhustle.model.api.objects.GameMap;
+
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Manages the LMDB {@link Env} of the storages.
+ * <ul>
+ * <li>the map size is doubled if the map is full;
+ * <li>the database can be compacted with {@code MDB_CP_COMPACT} in the
+ * background;
+ * <li>returns the used and free pages in {@link Stats}.
+ * </ul>
+ * The map size can only be changed if no transactions are active, so the write
+ * transactions must run in {@link #write(Consumer)} and the read transactions
+ * in {@link #read(Function)} or between {@link #beginRead()} and
+ * {@link #endRead(Txn)}. A long-lived read transaction delays the growth of
+ * the map and with it all other transactions, until it is closed.
+ *
+ * @author Erwin Müller, {@code <erwin@muellerpublic.de>}
+ */
+@Slf4j
+public class LmbdEnv implements AutoCloseable {
+
+    /**
+     * Minimum map size in bytes.
+     */
+    public static final long MAP_SIZE_MIN = 16L * 1024 * 1024;
+
+    /**
+     * Default maximum readers of LMDB.
+     */
+    public static final int MAX_READERS_DEFAULT = 126;
+
+    private static final long GROW_WAIT_LOG_SECONDS = 5;
+
+    /**
+     * Returns the starting map size for the {@link GameMap} with the size in bytes
+     * of each block.
+     */
+    public static long calcMapSize(GameMap gm, int blockSize) {
+        return Math.max(MAP_SIZE_MIN, 2L * gm.getSize() * blockSize);
+    }
+
+    /**
+     * Used and free pages of the {@link Env}.
+     *
+     * @author Erwin Müller, {@code <erwin@muellerpublic.de>}
+     */
+    @Data
+    public static class Stats {
+
+        public final long mapSize;
+
+        public final long pageSize;
+
+        /**
+         * Pages used by the database.
+         */
+        public final long usedPages;
+
+        /**
+         * Pages of the map that are not used yet.
+         */
+        public final long freePages;
+
+        public final int readers;
+
+        /**
+         * How many times the map size was increased.
+         */
+        public final int growCount;
+    }
+
+    private final Path file;
+
+    private final Env<DirectBuffer> env;
+
+    private final ReentrantReadWriteLock lock;
+
+    private final AtomicInteger growCount;
+
+    private volatile long mapSize;
+
+    public LmbdEnv(Path file, long mapSize, int maxDbs, EnvFlags... flags) {
+        this(file, mapSize, maxDbs, MAX_READERS_DEFAULT, flags);
+    }
+
+    public LmbdEnv(Path file, long mapSize, int maxDbs, int maxReaders, EnvFlags... flags) {
+        this.file = file;
+        this.mapSize = mapSize;
+        this.env = create(PROXY_DB).setMapSize(mapSize).setMaxDbs(maxDbs).setMaxReaders(maxReaders)
+                .open(file.toFile(), flags);
+        this.lock = new ReentrantReadWriteLock();
+        this.growCount = new AtomicInteger();
+    }
+
+    /**
+     * Returns the {@link Env}. Transactions must not be started directly on the
+     * {@link Env}.
+     */
+    public Env<DirectBuffer> getEnv() {
+        return env;
+    }
+
+    /**
+     * Runs the function in a write transaction and commits the transaction. If the
+     * map is full then the map size is doubled and the function runs again.
+     */
+    public void write(Consumer<Txn<DirectBuffer>> fn) {
+        while (true) {
+            final long size = mapSize;
+            lock.readLock().lock();
+            try (Txn<DirectBuffer> txn = env.txnWrite()) {
+                fn.accept(txn);
+                txn.commit();
+                return;
+            } catch (final MapFullException e) {
+                log.debug("Map full {}", file);
+            } finally {
+                lock.readLock().unlock();
+            }
+            grow(size);
+        }
+    }
+
+    /**
+     * Runs the function in a read transaction and returns the result.
+     */
+    public <T> T read(Function<Txn<DirectBuffer>, T> fn) {
+        final var txn = beginRead();
+        try {
+            return fn.apply(txn);
+        } finally {
+            endRead(txn);
+        }
+    }
+
+    /**
+     * Starts a read transaction. The transaction must be closed with
+     * {@link #endRead(Txn)} by the same thread.
+     */
+    public Txn<DirectBuffer> beginRead() {
+        lock.readLock().lock();
+        try {
+            return env.txnRead();
+        } catch (final RuntimeException e) {
+            lock.readLock().unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Closes the read transaction from {@link #beginRead()}.
+     */
+    public void endRead(Txn<DirectBuffer> txn) {
+        try {
+            txn.close();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Locks the map size for a renewed read transaction.
+     */
+    void lockRead() {
+        lock.readLock().lock();
+    }
+
+    /**
+     * Unlocks the map size after a read transaction was reset.
+     */
+    void unlockRead() {
+        lock.readLock().unlock();
+    }
+
+    /**
+     * Doubles the map size if the map size was not already increased by another
+     * thread.
+     *
+     * @param seenSize the map size when the map was full.
+     */
+    public void grow(long seenSize) {
+        if (lock.getReadHoldCount() > 0) {
+            throw new IllegalStateException("Map full with active read transactions on the thread: " + file);
+        }
+        lockGrow();
+        try {
+            if (mapSize == seenSize) {
+                this.mapSize = seenSize * 2;
+                env.setMapSize(mapSize);
+                growCount.incrementAndGet();
+                log.debug("Increased map size of {} to {}", file, mapSize);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Waits for the write lock. Logs the count of the read locks that are still
+     * held, so that a long-lived read transaction that blocks the growth is
+     * visible.
+     */
+    private void lockGrow() {
+        try {
+            while (!lock.writeLock().tryLock(GROW_WAIT_LOG_SECONDS, TimeUnit.SECONDS)) {
+                log.warn("Waiting to grow {}: {} read transactions still open", file, lock.getReadLockCount());
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting to grow " + file, e);
+        }
+    }
+
+    public long getMapSize() {
+        return mapSize;
+    }
+
+    /**
+     * Returns the used and free pages.
+     */
+    public Stats getStats() {
+        lock.readLock().lock();
+        try {
+            final var info = env.info();
+            final var stat = env.stat();
+            final long pageSize = stat.pageSize;
+            final long usedPages = info.lastPageNumber + 1;
+            final long freePages = Math.max(0, info.mapSize / pageSize - usedPages);
+            return new Stats(info.mapSize, pageSize, usedPages, freePages, info.numReaders, growCount.get());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Closes the {@link Env}.
+     */
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            env.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Copies the database with {@code MDB_CP_COMPACT}, closes the {@link Env} and
+     * replaces the database with the compacted copy.
+     */
+    public void compactClose() throws IOException {
+        lock.writeLock().lock();
+        try {
+            final var copy = Path.of(file.toString() + "_copy");
+            copy.toFile().mkdirs();
+            env.copy(copy.toFile(), CopyFlags.MDB_CP_COMPACT);
+            env.close();
+            FileUtils.deleteDirectory(file.toFile());
+            FileUtils.moveDirectory(copy.toFile(), file.toFile());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Runs {@link #compactClose()} in the background on a dedicated thread, so
+     * the long blocking copy does not occupy a thread of a shared pool.
+     */
+    public CompletableFuture<Void> compactCloseAsync() {
+        return compactCloseAsync(r -> {
+            final var t = new Thread(r, "lmdb-compact-" + file.getFileName());
+            t.start();
+        });
+    }
+
+    /**
+     * Runs {@link #compactClose()} in the background on the {@link Executor}.
+     */
+    public CompletableFuture<Void> compactCloseAsync(Executor executor) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                compactClose();
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+    }
+}
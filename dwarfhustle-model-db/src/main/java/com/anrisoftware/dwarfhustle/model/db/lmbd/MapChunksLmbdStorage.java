@@ -20,30 +20,48 @@ package com.anrisoftware.dwarfhustle.model.db.lmbd;
 import static java.nio.ByteBuffer.allocateDirect;
 import static org.lmdbjava.DbiFlags.MDB_CREATE;
 import static org.lmdbjava.DbiFlags.MDB_INTEGERKEY;
-import static org.lmdbjava.DirectBufferProxy.PROXY_DB;
-import static org.lmdbjava.Env.create;
+import static org.lmdbjava.EnvFlags.MDB_NOTLS;
+import static org.lmdbjava.GetOp.MDB_SET_RANGE;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 import org.agrona.DirectBuffer;
 import org.agrona.MutableDirectBuffer;
 import org.agrona.concurrent.UnsafeBuffer;
-import org.apache.commons.io.FileUtils;
-import org.lmdbjava.CopyFlags;
+import org.eclipse.collections.api.LongIterable;
+import org.eclipse.collections.api.factory.primitive.IntLists;
+import org.eclipse.collections.api.factory.primitive.IntObjectMaps;
+import org.eclipse.collections.api.factory.primitive.IntSets;
+import org.eclipse.collections.api.factory.primitive.LongLists;
+import org.eclipse.collections.api.factory.primitive.LongObjectMaps;
+import org.eclipse.collections.api.list.primitive.MutableIntList;
+import org.eclipse.collections.api.map.primitive.LongObjectMap;
+import org.eclipse.collections.api.map.primitive.MutableIntObjectMap;
+import org.eclipse.collections.api.map.primitive.MutableLongObjectMap;
+import org.lmdbjava.Cursor;
 import org.lmdbjava.Dbi;
-import org.lmdbjava.Env;
-import org.lmdbjava.Env.MapFullException;
 import org.lmdbjava.Txn;
 
 import com.anrisoftware.dwarfhustle.model.api.objects.GameObject;
+import com.anrisoftware.dwarfhustle.model.api.objects.MapBlock;
+import com.anrisoftware.dwarfhustle.model.api.objects.MapBlocksPalette;
 import com.anrisoftware.dwarfhustle.model.api.objects.MapChunk;
 import com.anrisoftware.dwarfhustle.model.api.objects.ObjectsGetter;
 import com.anrisoftware.dwarfhustle.model.api.objects.ObjectsSetter;
 import com.anrisoftware.dwarfhustle.model.db.api.MapChunksStorage;
+import com.anrisoftware.dwarfhustle.model.db.buffers.MapBlockBuffer;
 import com.anrisoftware.dwarfhustle.model.db.buffers.MapChunkBuffer;
 import com.google.inject.assistedinject.Assisted;
 
@@ -51,6 +69,22 @@ import jakarta.inject.Inject;
 
 /**
  * Stores the {@link MapChunk}(s) of the map.
+ * <p>
+ * With {@link #setGroupCommit(int, Duration)} the stored chunks are collected
+ * in memory and written in one transaction if the maximum count of dirty chunks
+ * is reached, if the delay passed or on {@link #flush()}.
+ * <p>
+ * If only some {@link MapBlock}s of a stored chunk were modified then only the
+ * modified block ranges are stored in a delta of the chunk. The deltas are
+ * applied on reading and are merged into the chunk if there are too many
+ * deltas for the chunk or on {@link #compactDeltas()}.
+ * <p>
+ * With {@link #setBlocksFormat(int)} the blocks of the leaf chunks are stored
+ * run-length encoded if the encoded blocks are smaller.
+ * <p>
+ * With {@link #setPackBlocks(boolean)} the blocks of the read chunks are packed
+ * in a {@link MapBlocksPalette} to use less memory. Chunks unpacked by the writer
+ * are packed again when they are stored with {@link #putChunk(MapChunk)}.
  */
 public class MapChunksLmbdStorage implements MapChunksStorage, ObjectsGetter, ObjectsSetter {
 
@@ -63,58 +97,365 @@ public class MapChunksLmbdStorage implements MapChunksStorage, ObjectsGetter, Ob
         MapChunksLmbdStorage create(Path file, long mapSize);
     }
 
-    private final Env<DirectBuffer> env;
+    private final LmbdEnv env;
+
+    /**
+     * Maximum deltas of a chunk before the deltas are merged into the chunk.
+     */
+    private static final int MAX_DELTAS = 16;
 
     private final Dbi<DirectBuffer> chunksDb;
 
+    /**
+     * The deltas of the chunks. The key is the CID and the sequence of the delta,
+     * the value are the modified byte ranges of the stored chunk:
+     * {@code count, [offset, length, bytes]*}.
+     */
+    private final Dbi<DirectBuffer> deltasDb;
+
+    private final ThreadLocal<MutableDirectBuffer> buffDeltaKey;
+
     private final ThreadLocal<MutableDirectBuffer> buffkey;
 
     private final ThreadLocal<MutableDirectBuffer> buffChunk;
 
-    private final Path file;
+    private final MutableIntObjectMap<MapChunk> dirtyChunks;
 
-    private long mapSize;
+    private volatile int groupCommitSize;
+
+    private volatile int blocksFormat;
+
+    private volatile boolean packBlocks;
+
+    private ScheduledExecutorService groupCommitExecutor;
 
     /**
-     * Creates or opens the game map objects storage for the game map.
+     * Creates or opens the game map objects storage for the game map. The
+     * {@link LmbdEnv} is opened with {@code MDB_NOTLS} so that the long-lived
+     * read transactions of the {@link MapChunksView}(s) do not occupy the reader
+     * slot of the thread.
      */
     @Inject
     protected MapChunksLmbdStorage(@Assisted Path file, @Assisted long mapSize) {
-        this.file = file;
-        this.mapSize = mapSize;
-        this.env = create(PROXY_DB).setMapSize(mapSize).setMaxDbs(2).open(file.toFile());
-        this.chunksDb = env.openDbi("chunks", MDB_CREATE, MDB_INTEGERKEY);
+        this.env = new LmbdEnv(file, mapSize, 2, MDB_NOTLS);
+        this.chunksDb = env.getEnv().openDbi("chunks", MDB_CREATE, MDB_INTEGERKEY);
+        this.deltasDb = env.getEnv().openDbi("chunk-deltas", MDB_CREATE, MDB_INTEGERKEY);
+        this.buffDeltaKey = ThreadLocal.withInitial(() -> new UnsafeBuffer(allocateDirect(8)));
         this.buffkey = ThreadLocal.withInitial(() -> new UnsafeBuffer(allocateDirect(4)));
         this.buffChunk = ThreadLocal.withInitial(() -> MapChunkBuffer.createBlocks(MapChunkBuffer.SIZE_MIN));
+        this.dirtyChunks = IntObjectMaps.mutable.empty();
+        this.groupCommitSize = 0;
+        this.blocksFormat = MapChunkBuffer.FORMAT_RAW;
+    }
+
+    /**
+     * Sets the format of the stored blocks of the leaf {@link MapChunk}(s).
+     * Already stored chunks are read in either format.
+     *
+     * @param format {@link MapChunkBuffer#FORMAT_RAW} or
+     *               {@link MapChunkBuffer#FORMAT_RLE}.
+     */
+    public void setBlocksFormat(int format) {
+        this.blocksFormat = format;
+    }
+
+    /**
+     * Sets to pack the blocks of the read {@link MapChunk}(s) in a
+     * {@link MapBlocksPalette}. The views of the chunks are not packed.
+     */
+    public void setPackBlocks(boolean pack) {
+        this.packBlocks = pack;
+    }
+
+    /**
+     * Enables the group commit of the stored {@link MapChunk}(s). The dirty chunks
+     * are written if there are more than the maximum count of dirty chunks or
+     * after the delay.
+     *
+     * @param maxChunks the maximum count of dirty chunks. 0 disables the group
+     *                  commit.
+     * @param maxDelay  the maximum delay before the dirty chunks are written.
+     *                  {@link Duration#ZERO} to only write on the size threshold
+     *                  and on {@link #flush()}.
+     */
+    public synchronized void setGroupCommit(int maxChunks, Duration maxDelay) {
+        flush();
+        if (groupCommitExecutor != null) {
+            groupCommitExecutor.shutdown();
+            groupCommitExecutor = null;
+        }
+        this.groupCommitSize = maxChunks;
+        if (maxChunks > 0 && !maxDelay.isZero()) {
+            this.groupCommitExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                final var t = new Thread(r, "MapChunksLmbdStorage-flush");
+                t.setDaemon(true);
+                return t;
+            });
+            final long delay = maxDelay.toMillis();
+            groupCommitExecutor.scheduleWithFixedDelay(this::flush, delay, delay, TimeUnit.MILLISECONDS);
+        }
     }
 
     /**
-     * Closes the storage.
+     * Closes the storage. The dirty {@link MapChunk}(s) are written before.
      */
     @Override
-    public void close() {
+    public synchronized void close() {
+        if (groupCommitExecutor != null) {
+            groupCommitExecutor.shutdown();
+            groupCommitExecutor = null;
+        }
+        flush();
         env.close();
     }
 
     /**
-     * Stores the {@link MapChunk} in the database.
+     * Writes all dirty {@link MapChunk}(s) in one transaction. Returns after the
+     * chunks are committed.
+     */
+    @Override
+    public void flush() {
+        synchronized (dirtyChunks) {
+            if (dirtyChunks.isEmpty()) {
+                return;
+            }
+            putChunks(dirtyChunks.values());
+            dirtyChunks.clear();
+        }
+    }
+
+    /**
+     * Stores the {@link MapChunk} in the database. If the group commit is enabled
+     * the chunk is marked as dirty and written with the next group commit. The
+     * blocks of the chunk are packed again if the blocks are packed on reading.
      */
     @Override
     public void putChunk(MapChunk chunk) {
-        try (Txn<DirectBuffer> txn = env.txnWrite()) {
-            final var key = buffkey.get();
-            final var val = createBuffBlocks(chunk);
-            key.putInt(0, chunk.getCid());
-            MapChunkBuffer.write(val, 0, chunk);
-            chunksDb.put(txn, key, val);
-            txn.commit();
-        } catch (MapFullException e) {
-            this.mapSize += mapSize;
-            env.setMapSize(mapSize);
-            putChunk(chunk);
+        repackBlocks(chunk);
+        if (groupCommitSize > 0) {
+            synchronized (dirtyChunks) {
+                dirtyChunks.put(chunk.getCid(), chunk);
+                if (dirtyChunks.size() >= groupCommitSize) {
+                    flush();
+                }
+            }
+            return;
+        }
+        final var written = new WrittenChunks();
+        env.write(txn -> {
+            written.clear();
+            try (final var c = chunksDb.openCursor(txn); final var d = deltasDb.openCursor(txn)) {
+                writeChunk(txn, c, d, chunk, written);
+            }
+        });
+        written.clearDirtyBlocks();
+    }
+
+    /**
+     * Packs the unpacked blocks of the chunk. Called from the writer of the chunk
+     * as the blocks are replaced.
+     */
+    private void repackBlocks(MapChunk chunk) {
+        if (packBlocks && chunk.isLeaf() && chunk.blocks.isPresent() && !chunk.isBlocksView()
+                && chunk.getPalette() == null) {
+            chunk.packBlocks();
         }
     }
 
+    /**
+     * The written leaf {@link MapChunk}(s) with the dirty stamps from before they
+     * were written. The modified blocks are cleared after the transaction is
+     * committed, so a retried transaction writes the same blocks again.
+     */
+    private static class WrittenChunks {
+
+        final List<MapChunk> chunks = new ArrayList<>();
+
+        final MutableIntList stamps = IntLists.mutable.empty();
+
+        void add(MapChunk chunk, int stamp) {
+            chunks.add(chunk);
+            stamps.add(stamp);
+        }
+
+        void clear() {
+            chunks.clear();
+            stamps.clear();
+        }
+
+        void clearDirtyBlocks() {
+            for (int i = 0; i < chunks.size(); i++) {
+                chunks.get(i).clearDirtyBlocks(stamps.get(i));
+            }
+        }
+    }
+
+    /**
+     * Writes the modified block ranges of the chunk as a delta, or the whole
+     * chunk if all blocks are modified, the chunk is not stored yet or there are
+     * too many deltas. Blocks modified while the chunk is written stay modified.
+     */
+    private void writeChunk(Txn<DirectBuffer> txn, Cursor<DirectBuffer> c, Cursor<DirectBuffer> d, MapChunk chunk,
+            WrittenChunks written) {
+        final int cid = chunk.getCid();
+        final int stamp = chunk.getDirtyStamp();
+        final var dirty = chunk.copyDirtyBlocks();
+        final var key = buffkey.get();
+        key.putInt(0, cid);
+        if (chunk.isLeaf()) {
+            written.add(chunk, stamp);
+        }
+        if (chunk.isLeaf() && dirty != null && chunksDb.get(txn, key) != null) {
+            final int seq = nextDeltaSeq(d, cid);
+            final int size = calcDeltaSize(dirty);
+            final int fullSize = MapChunkBuffer.SIZE_MIN + chunk.getBlocksSize();
+            if (seq < MAX_DELTAS && size < fullSize / 2) {
+                d.put(deltaKey(cid, seq), writeDelta(chunk, dirty, size));
+                return;
+            }
+        }
+        deleteDeltas(d, cid);
+        c.put(key, writeFullChunk(chunk));
+    }
+
+    private MutableDirectBuffer writeFullChunk(MapChunk chunk) {
+        if (chunk.isLeaf() && blocksFormat == MapChunkBuffer.FORMAT_RLE) {
+            final int size = MapChunkBuffer.getSizeRle(chunk);
+            if (size < MapChunkBuffer.SIZE_MIN + chunk.getBlocksSize()) {
+                final var val = new UnsafeBuffer(allocateDirect(size));
+                MapChunkBuffer.writeRle(val, 0, chunk);
+                return val;
+            }
+        }
+        final var val = createBuffBlocks(chunk);
+        MapChunkBuffer.write(val, 0, chunk);
+        return val;
+    }
+
+    private MutableDirectBuffer deltaKey(int cid, int seq) {
+        final var key = buffDeltaKey.get();
+        key.putLong(0, (long) cid << 32 | seq);
+        return key;
+    }
+
+    private static int calcDeltaSize(BitSet dirty) {
+        int size = 4 + 8 + MapChunkBuffer.BLOCKS_OFFSET;
+        for (int i = dirty.nextSetBit(0); i >= 0;) {
+            final int end = dirty.nextClearBit(i);
+            size += 8 + (end - i) * MapBlockBuffer.SIZE;
+            i = dirty.nextSetBit(end);
+        }
+        return size;
+    }
+
+    private MutableDirectBuffer writeDelta(MapChunk chunk, BitSet dirty, int size) {
+        final var val = new UnsafeBuffer(allocateDirect(size));
+        MapChunkBuffer.writeHeader(val, 4 + 8, chunk);
+        val.putInt(4, 0);
+        val.putInt(8, MapChunkBuffer.BLOCKS_OFFSET);
+        int count = 1;
+        int off = 4 + 8 + MapChunkBuffer.BLOCKS_OFFSET;
+        final var blocks = chunk.getFlatBlocks();
+        for (int i = dirty.nextSetBit(0); i >= 0;) {
+            final int end = dirty.nextClearBit(i);
+            final int len = (end - i) * MapBlockBuffer.SIZE;
+            val.putInt(off, MapChunkBuffer.BLOCKS_OFFSET + i * MapBlockBuffer.SIZE);
+            val.putInt(off + 4, len);
+            val.putBytes(off + 8, blocks, i * MapBlockBuffer.SIZE, len);
+            off += 8 + len;
+            count++;
+            i = dirty.nextSetBit(end);
+        }
+        val.putInt(0, count);
+        return val;
+    }
+
+    /**
+     * Returns the sequence of the next delta of the chunk.
+     */
+    private int nextDeltaSeq(Cursor<DirectBuffer> d, int cid) {
+        final boolean found = d.get(deltaKey(cid + 1, 0), MDB_SET_RANGE) ? d.prev() : d.last();
+        if (found) {
+            final long key = d.key().getLong(0);
+            if ((int) (key >>> 32) == cid) {
+                return (int) key + 1;
+            }
+        }
+        return 0;
+    }
+
+    private void deleteDeltas(Cursor<DirectBuffer> d, int cid) {
+        boolean found = d.get(deltaKey(cid, 0), MDB_SET_RANGE);
+        while (found && (int) (d.key().getLong(0) >>> 32) == cid) {
+            d.delete();
+            found = d.next();
+        }
+    }
+
+    /**
+     * Reads the chunk and applies the deltas of the chunk.
+     *
+     * @param view if true then the blocks of the chunk are a view of the database
+     *             pages if the chunk have no deltas.
+     */
+    private MapChunk readStoredChunk(Cursor<DirectBuffer> d, int cid, DirectBuffer val, boolean view) {
+        final MapChunk chunk;
+        if (d.get(deltaKey(cid, 0), MDB_SET_RANGE) && (int) (d.key().getLong(0) >>> 32) == cid) {
+            final var b = MapChunkBuffer.copyRaw(val, 0);
+            do {
+                applyDelta(b, d.val());
+            } while (d.next() && (int) (d.key().getLong(0) >>> 32) == cid);
+            chunk = MapChunkBuffer.read(b, 0);
+        } else if (view) {
+            chunk = MapChunkBuffer.readView(val, 0);
+        } else {
+            chunk = MapChunkBuffer.read(val, 0);
+        }
+        if (chunk.isLeaf()) {
+            chunk.clearDirtyBlocks();
+            if (packBlocks && !chunk.isBlocksView()) {
+                chunk.packBlocks();
+            }
+        }
+        return chunk;
+    }
+
+    private static void applyDelta(MutableDirectBuffer b, DirectBuffer delta) {
+        final int count = delta.getInt(0);
+        int off = 4;
+        for (int i = 0; i < count; i++) {
+            final int pos = delta.getInt(off);
+            final int len = delta.getInt(off + 4);
+            b.putBytes(pos, delta, off + 8, len);
+            off += 8 + len;
+        }
+    }
+
+    /**
+     * Merges the deltas into the stored {@link MapChunk}(s) in one transaction.
+     */
+    public void compactDeltas() {
+        flush();
+        env.write(txn -> {
+            final var cids = IntSets.mutable.empty();
+            try (var it = deltasDb.iterate(txn)) {
+                for (final var kv : it) {
+                    cids.add((int) (kv.key().getLong(0) >>> 32));
+                }
+            }
+            try (final var c = chunksDb.openCursor(txn); final var d = deltasDb.openCursor(txn)) {
+                final var key = buffkey.get();
+                final var written = new WrittenChunks();
+                cids.forEach(cid -> {
+                    key.putInt(0, cid);
+                    final var chunk = readStoredChunk(d, cid, chunksDb.get(txn, key), false);
+                    chunk.markAllBlocksDirty();
+                    writeChunk(txn, c, d, chunk, written);
+                });
+            }
+        });
+    }
+
     private MutableDirectBuffer createBuffBlocks(MapChunk chunk) {
         final MutableDirectBuffer val;
         if (chunk.isLeaf()) {
@@ -140,18 +481,16 @@ public class MapChunksLmbdStorage implements MapChunksStorage, ObjectsGetter, Ob
 
         @Override
         protected void processing() {
-            try (Txn<DirectBuffer> txn = env.txnWrite()) {
-                final var c = chunksDb.openCursor(txn);
-                final var key = buffkey.get();
-                for (int i = start; i < end; i++) {
-                    final var o = objects.get(i);
-                    final var val = createBuffBlocks(o);
-                    key.putInt(0, o.getCid());
-                    MapChunkBuffer.write(val, 0, o);
-                    c.put(key, val);
+            final var written = new WrittenChunks();
+            env.write(txn -> {
+                written.clear();
+                try (final var c = chunksDb.openCursor(txn); final var d = deltasDb.openCursor(txn)) {
+                    for (int i = start; i < end; i++) {
+                        writeChunk(txn, c, d, objects.get(i), written);
+                    }
                 }
-                txn.commit();
-            }
+            });
+            written.clearDirtyBlocks();
         }
 
         @Override
@@ -180,30 +519,79 @@ public class MapChunksLmbdStorage implements MapChunksStorage, ObjectsGetter, Ob
      */
     @Override
     public void putChunks(Iterable<MapChunk> chunks) {
-        try (Txn<DirectBuffer> txn = env.txnWrite()) {
-            final var c = chunksDb.openCursor(txn);
-            final var key = buffkey.get();
-            for (final var o : chunks) {
-                final var val = createBuffBlocks(o);
-                key.putInt(0, o.getCid());
-                MapChunkBuffer.write(val, 0, o);
-                c.put(key, val);
+        final var written = new WrittenChunks();
+        env.write(txn -> {
+            written.clear();
+            try (final var c = chunksDb.openCursor(txn); final var d = deltasDb.openCursor(txn)) {
+                for (final var o : chunks) {
+                    writeChunk(txn, c, d, o, written);
+                }
             }
-            txn.commit();
-        }
+        });
+        written.clearDirtyBlocks();
     }
 
     /**
-     * Returns the {@link MapChunk} with the chunk ID.
+     * Returns the {@link MapChunk} with the chunk ID or {@code null} if the chunk
+     * is not stored.
      */
     @Override
     public MapChunk getChunk(long cid) {
-        try (final var t = env.txnRead()) {
+        if (groupCommitSize > 0) {
+            synchronized (dirtyChunks) {
+                final var chunk = dirtyChunks.get((int) cid);
+                if (chunk != null) {
+                    return chunk;
+                }
+            }
+        }
+        return env.read(t -> {
             final var key = buffkey.get();
             key.putInt(0, (int) cid);
-            var val = chunksDb.get(t, key);
-            return MapChunkBuffer.read(val, 0);
+            final var val = chunksDb.get(t, key);
+            if (val == null) {
+                return null;
+            }
+            try (final var d = deltasDb.openCursor(t)) {
+                return readStoredChunk(d, (int) cid, val, false);
+            }
+        });
+    }
+
+    /**
+     * Returns the {@link MapChunk}s with the chunk IDs in one read transaction.
+     * Chunks that are not stored are not in the returned map.
+     */
+    public LongObjectMap<MapChunk> getChunks(LongIterable cids) {
+        final MutableLongObjectMap<MapChunk> res = LongObjectMaps.mutable.ofInitialCapacity(cids.size());
+        final var misses = LongLists.mutable.withInitialCapacity(cids.size());
+        if (groupCommitSize > 0) {
+            synchronized (dirtyChunks) {
+                cids.forEach(cid -> {
+                    final var chunk = dirtyChunks.get((int) cid);
+                    if (chunk != null) {
+                        res.put(cid, chunk);
+                    } else {
+                        misses.add(cid);
+                    }
+                });
+            }
+        } else {
+            misses.addAll(cids);
         }
+        return env.read(t -> {
+            final var key = buffkey.get();
+            try (final var d = deltasDb.openCursor(t)) {
+                misses.forEach(cid -> {
+                    key.putInt(0, (int) cid);
+                    final var val = chunksDb.get(t, key);
+                    if (val != null) {
+                        res.put(cid, readStoredChunk(d, (int) cid, val, false));
+                    }
+                });
+            }
+            return res;
+        });
     }
 
     /**
@@ -211,11 +599,154 @@ public class MapChunksLmbdStorage implements MapChunksStorage, ObjectsGetter, Ob
      */
     @Override
     public void forEachValue(Consumer<MapChunk> consumer) {
-        try (final var t = env.txnRead()) {
-            var it = chunksDb.iterate(t);
+        flush();
+        final var t = env.beginRead();
+        try (var it = chunksDb.iterate(t); final var d = deltasDb.openCursor(t)) {
+            it.forEach(k -> {
+                consumer.accept(readStoredChunk(d, k.key().getInt(0), k.val(), false));
+            });
+        } finally {
+            env.endRead(t);
+        }
+    }
+
+    /**
+     * Retrieves all {@link MapChunk} chunks as read-only views of the database
+     * pages. The chunks are only valid inside of the consumer. The read lock of
+     * the {@link LmbdEnv} is held during the iteration, see {@link #openView()}.
+     */
+    @Override
+    public void forEachValueView(Consumer<MapChunk> consumer) {
+        flush();
+        final var t = env.beginRead();
+        try (var it = chunksDb.iterate(t); final var d = deltasDb.openCursor(t)) {
             it.forEach(k -> {
-                consumer.accept(MapChunkBuffer.read(k.val(), 0));
+                consumer.accept(readStoredChunk(d, k.key().getInt(0), k.val(), true));
             });
+        } finally {
+            env.endRead(t);
+        }
+    }
+
+    /**
+     * Opens a {@link MapChunksView} of the stored {@link MapChunk}(s). The view
+     * must be closed.
+     * <p>
+     * The view holds the read lock of the {@link LmbdEnv} until it is closed, so
+     * the map size can not grow while any view is open. A write of another thread
+     * that fills the map waits for all views to close, and new reads of other
+     * threads wait behind that write. The thread of the view must not wait for
+     * other threads that use the storage, and a write of the thread of the view
+     * into a full map fails with {@link IllegalStateException}.
+     *
+     * <pre>
+     * try (var view = storage.openView()) {
+     *     var chunk = view.getChunk(cid);
+     * }
+     * </pre>
+     */
+    public MapChunksView openView() {
+        flush();
+        return new MapChunksView(env.beginRead());
+    }
+
+    /**
+     * Read-only view of the {@link MapChunk}(s) in a long-lived read transaction.
+     * The blocks of the returned chunks are backed directly by the database pages
+     * and no memory is allocated for the blocks. Use
+     * {@link MapChunk#getWritableBlocks()} to modify the blocks of a chunk.
+     * <p>
+     * The view sees the database as it was when the view was opened or last
+     * refreshed. The view must be used and closed by the thread that opened it,
+     * otherwise {@link IllegalStateException} is thrown.
+     *
+     * @see MapChunksLmbdStorage#openView()
+     * @author Erwin Müller, {@code <erwin@muellerpublic.de>}
+     */
+    public class MapChunksView implements ObjectsGetter, AutoCloseable {
+
+        private final Txn<DirectBuffer> txn;
+
+        private final MutableIntObjectMap<MapChunk> chunks;
+
+        private final Thread owner;
+
+        private MapChunksView(Txn<DirectBuffer> txn) {
+            this.txn = txn;
+            this.chunks = IntObjectMaps.mutable.empty();
+            this.owner = Thread.currentThread();
+        }
+
+        private void checkOwner() {
+            if (Thread.currentThread() != owner) {
+                throw new IllegalStateException("View used by " + Thread.currentThread() + " but opened by " + owner);
+            }
+        }
+
+        /**
+         * Returns the {@link MapChunk} view with the chunk ID or {@code null} if
+         * the chunk is not stored.
+         */
+        public MapChunk getChunk(long cid) {
+            checkOwner();
+            var chunk = chunks.get((int) cid);
+            if (chunk == null) {
+                chunk = readChunk((int) cid);
+                if (chunk != null) {
+                    chunks.put((int) cid, chunk);
+                }
+            }
+            return chunk;
+        }
+
+        private MapChunk readChunk(int cid) {
+            final var key = buffkey.get();
+            key.putInt(0, cid);
+            final var val = chunksDb.get(txn, key);
+            if (val == null) {
+                return null;
+            }
+            try (final var d = deltasDb.openCursor(txn)) {
+                return readStoredChunk(d, cid, val, true);
+            }
+        }
+
+        /**
+         * Retrieves all {@link MapChunk} chunk views.
+         */
+        public void forEachValue(Consumer<MapChunk> consumer) {
+            checkOwner();
+            try (var it = chunksDb.iterate(txn); final var d = deltasDb.openCursor(txn)) {
+                it.forEach(k -> {
+                    final int cid = k.key().getInt(0);
+                    consumer.accept(chunks.getIfAbsentPut(cid, () -> readStoredChunk(d, cid, k.val(), true)));
+                });
+            }
+        }
+
+        /**
+         * Renews the read transaction to see the latest stored {@link MapChunk}(s).
+         * All previously returned chunks are invalid.
+         */
+        public void refresh() {
+            checkOwner();
+            flush();
+            chunks.clear();
+            txn.reset();
+            txn.renew();
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public <T extends GameObject> T get(int type, long key) throws ObjectsGetterException {
+            return (T) getChunk(MapChunk.id2Cid(key));
+        }
+
+        @Override
+        public void close() {
+            checkOwner();
+            chunks.clear();
+            env.endRead(txn);
         }
     }
 
@@ -227,7 +758,17 @@ public class MapChunksLmbdStorage implements MapChunksStorage, ObjectsGetter, Ob
     @SuppressWarnings({ "rawtypes", "unchecked" })
     @Override
     public void set(int type, Iterable<GameObject> values) throws ObjectsSetterException {
-        putChunks((List) values);
+        if (groupCommitSize > 0) {
+            for (final var go : values) {
+                putChunk((MapChunk) go);
+            }
+            return;
+        }
+        if (values instanceof List list) {
+            putChunks((List<MapChunk>) list);
+        } else {
+            putChunks((Iterable) values);
+        }
     }
 
     @SuppressWarnings("unchecked")
@@ -236,13 +777,45 @@ public class MapChunksLmbdStorage implements MapChunksStorage, ObjectsGetter, Ob
         return (T) getChunk(MapChunk.id2Cid(key));
     }
 
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T extends GameObject> LongObjectMap<T> getAll(int type, LongIterable keys) throws ObjectsGetterException {
+        final MutableLongObjectMap<T> res = LongObjectMaps.mutable.ofInitialCapacity(keys.size());
+        getChunks(keys.collectLong(MapChunk::id2Cid, LongLists.mutable.withInitialCapacity(keys.size())))
+                .forEachKeyValue((cid, chunk) -> res.put(MapChunk.cid2Id(cid), (T) chunk));
+        return res;
+    }
+
+    /**
+     * Compacts the database and closes the storage.
+     */
     public void shrinkCopyClose() throws IOException {
-        final var copy = Path.of(file.toString() + "_copy");
-        copy.toFile().mkdirs();
-        env.copy(copy.toFile(), CopyFlags.MDB_CP_COMPACT);
-        close();
-        FileUtils.deleteDirectory(file.toFile());
-        FileUtils.moveDirectory(copy.toFile(), file.toFile());
+        compactDeltas();
+        env.compactClose();
+    }
+
+    /**
+     * Compacts the database and closes the storage in the background.
+     */
+    public CompletableFuture<Void> shrinkCopyCloseAsync() {
+        compactDeltas();
+        return env.compactCloseAsync();
+    }
+
+    /**
+     * Compacts the database and closes the storage in the background on the
+     * {@link Executor}.
+     */
+    public CompletableFuture<Void> shrinkCopyCloseAsync(Executor executor) {
+        compactDeltas();
+        return env.compactCloseAsync(executor);
+    }
+
+    /**
+     * Returns the used and free pages of the storage.
+     */
+    public LmbdEnv.Stats getStats() {
+        return env.getStats();
     }
 
 }
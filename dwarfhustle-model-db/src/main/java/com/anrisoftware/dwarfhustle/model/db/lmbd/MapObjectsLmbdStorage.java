@@ -17,33 +17,35 @@
  */
 package com.anrisoftware.dwarfhustle.model.db.lmbd;
 
-import static com.anrisoftware.dwarfhustle.model.api.objects.GameBlockPos.calcIndex;
 import static java.nio.ByteBuffer.allocateDirect;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.lmdbjava.DbiFlags.MDB_CREATE;
 import static org.lmdbjava.DbiFlags.MDB_DUPFIXED;
 import static org.lmdbjava.DbiFlags.MDB_DUPSORT;
 import static org.lmdbjava.DbiFlags.MDB_INTEGERDUP;
-import static org.lmdbjava.DirectBufferProxy.PROXY_DB;
-import static org.lmdbjava.Env.create;
+import static org.lmdbjava.DbiFlags.MDB_INTEGERKEY;
+import static org.lmdbjava.EnvFlags.MDB_NOTLS;
 import static org.lmdbjava.GetOp.MDB_SET;
+import static org.lmdbjava.GetOp.MDB_SET_RANGE;
+import static org.lmdbjava.SeekOp.MDB_NEXT_DUP;
+import static org.lmdbjava.SeekOp.MDB_NEXT_NODUP;
 
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import org.agrona.DirectBuffer;
 import org.agrona.concurrent.UnsafeBuffer;
 import org.eclipse.collections.api.LongIterable;
 import org.eclipse.collections.api.list.primitive.LongList;
 import org.lmdbjava.Dbi;
-import org.lmdbjava.Env;
-import org.lmdbjava.Txn;
 
-import com.anrisoftware.dwarfhustle.model.api.objects.GameBlockPos;
 import com.anrisoftware.dwarfhustle.model.api.objects.GameMap;
 import com.anrisoftware.dwarfhustle.model.api.objects.GameObject;
 import com.anrisoftware.dwarfhustle.model.api.objects.MapObjectsStorage;
@@ -58,9 +60,39 @@ import lombok.RequiredArgsConstructor;
 
 /**
  * Store the object ID and object type for the (x,y,z) map block.
+ * <p>
+ * The key is the {@link ZOrderIndex} of the block, so a range of blocks is
+ * retrieved with a few continuous cursor sweeps. Databases with the old map
+ * index key are migrated on opening.
+ * <p>
+ * The readers are not synchronized, each reader thread uses its own reusable
+ * read transaction.
+ * <p>
+ * A bitset of the blocks with objects is kept in memory, so the lookup of an
+ * empty block does not query the database.
  */
 public class MapObjectsLmbdStorage implements MapObjectsStorage, ObjectsGetter, ObjectsSetter {
 
+    /**
+     * Maximum concurrent read transactions.
+     */
+    private static final int MAX_READERS = 1024;
+
+    /**
+     * Maximum idle read transactions that are kept open for reuse.
+     */
+    private static final int MAX_IDLE_READERS = 2 * Runtime.getRuntime().availableProcessors();
+
+    /**
+     * The database with the {@link ZOrderIndex} key.
+     */
+    private static final String DB_NAME = "pos-zids";
+
+    /**
+     * The old database with the map index key.
+     */
+    private static final String DB_NAME_INDEX = "pos-ids";
+
     /**
      * Factory to create the {@link MapObjectsLmbdStorage}.
      *
@@ -70,7 +102,7 @@ public class MapObjectsLmbdStorage implements MapObjectsStorage, ObjectsGetter,
         MapObjectsLmbdStorage create(Path file, GameMap gm, long mapSize);
     }
 
-    private final Env<DirectBuffer> env;
+    private final LmbdEnv env;
 
     private final Dbi<DirectBuffer> db;
 
@@ -80,7 +112,12 @@ public class MapObjectsLmbdStorage implements MapObjectsStorage, ObjectsGetter,
 
     private final int d;
 
-    private final Txn<DirectBuffer> readTxn;
+    /**
+     * Bitset of the map indices of the blocks with at least one object.
+     */
+    private final AtomicLongArray filled;
+
+    private final ThreadReadTxn readTxn;
 
     private final ThreadLocal<UnsafeBuffer> buffkey;
 
@@ -94,12 +131,103 @@ public class MapObjectsLmbdStorage implements MapObjectsStorage, ObjectsGetter,
         w = gm.getWidth();
         h = gm.getHeight();
         d = gm.getDepth();
-        env = create(PROXY_DB).setMapSize(mapSize).setMaxDbs(1).open(file.toFile());
-        db = env.openDbi("pos-ids", MDB_CREATE, MDB_DUPSORT, MDB_DUPFIXED, MDB_INTEGERDUP);
-        readTxn = env.txnRead();
-        buffkey = ThreadLocal.withInitial(() -> new UnsafeBuffer(allocateDirect(4)));
+        filled = new AtomicLongArray((int) (((long) w * h * d + 63) >>> 6));
+        env = new LmbdEnv(file, mapSize, 2, MAX_READERS, MDB_NOTLS);
+        db = env.getEnv().openDbi(DB_NAME, MDB_CREATE, MDB_INTEGERKEY, MDB_DUPSORT, MDB_DUPFIXED, MDB_INTEGERDUP);
+        readTxn = new ThreadReadTxn(env, MAX_IDLE_READERS);
+        buffkey = ThreadLocal.withInitial(() -> new UnsafeBuffer(allocateDirect(8)));
         buffval = ThreadLocal.withInitial(() -> new UnsafeBuffer(allocateDirect(MapObjectValue.SIZE)));
-        readTxn.reset();
+        migrateIndexDb();
+        readFilled();
+    }
+
+    /**
+     * Sets the bits of all blocks with objects in the database.
+     */
+    private void readFilled() {
+        env.read(txn -> {
+            try (final var c = db.openCursor(txn)) {
+                boolean found = c.first();
+                while (found) {
+                    setFilled(c.key().getLong(0), true);
+                    found = c.seek(MDB_NEXT_NODUP);
+                }
+            }
+            return null;
+        });
+    }
+
+    private void setFilled(long zindex, boolean value) {
+        final int x = ZOrderIndex.decodeX(zindex);
+        final int y = ZOrderIndex.decodeY(zindex);
+        final int z = ZOrderIndex.decodeZ(zindex);
+        if (isOutside(x, y, z)) {
+            return;
+        }
+        final int index = z * w * h + y * w + x;
+        final long bit = 1L << index;
+        if (value) {
+            filled.getAndAccumulate(index >>> 6, bit, (v, b) -> v | b);
+        } else {
+            filled.getAndAccumulate(index >>> 6, bit, (v, b) -> v & ~b);
+        }
+    }
+
+    private boolean isOutside(int x, int y, int z) {
+        return x < 0 || y < 0 || z < 0 || x >= w || y >= h || z >= d;
+    }
+
+    /**
+     * Returns true if the (x,y,z) block have any objects. Returns true for blocks
+     * outside of the map, so that they are looked up in the database.
+     */
+    public boolean isFilled(int x, int y, int z) {
+        if (isOutside(x, y, z)) {
+            return true;
+        }
+        return isFilled(z * w * h + y * w + x);
+    }
+
+    /**
+     * Returns true if the block with the map index have any objects.
+     */
+    public boolean isFilled(int index) {
+        if (index < 0 || index >= (long) w * h * d) {
+            return true;
+        }
+        return (filled.get(index >>> 6) & 1L << index) != 0;
+    }
+
+    /**
+     * Migrates the old database with the map index key to the
+     * {@link ZOrderIndex} key and drops the old database.
+     */
+    private void migrateIndexDb() {
+        final var name = DB_NAME_INDEX.getBytes(UTF_8);
+        if (env.getEnv().getDbiNames().stream().noneMatch(n -> Arrays.equals(n, name))) {
+            return;
+        }
+        final var old = env.getEnv().openDbi(DB_NAME_INDEX, MDB_DUPSORT, MDB_DUPFIXED, MDB_INTEGERDUP);
+        env.write(txn -> {
+            final var key = buffkey.get();
+            try (var c = db.openCursor(txn); var it = old.iterate(txn)) {
+                for (final var kv : it) {
+                    key.putLong(0, indexKey(kv.key().getInt(0)));
+                    c.put(key, kv.val());
+                }
+            }
+            old.drop(txn, true);
+        });
+    }
+
+    /**
+     * Returns the {@link ZOrderIndex} key from the map index.
+     */
+    private long indexKey(int index) {
+        final int x = index % w;
+        final int y = index / w % h;
+        final int z = index / (w * h);
+        return ZOrderIndex.encode(x, y, z);
     }
 
     /**
@@ -111,26 +239,32 @@ public class MapObjectsLmbdStorage implements MapObjectsStorage, ObjectsGetter,
         env.close();
     }
 
+    /**
+     * Returns the used and free pages of the storage.
+     */
+    public LmbdEnv.Stats getStats() {
+        return env.getStats();
+    }
+
     /**
      * Stores the game map object in the (x,y,z) block in the database.
      */
     @Override
     public void putObject(int x, int y, int z, int cid, int type, long id) {
-        final int index = GameBlockPos.calcIndex(w, h, d, 0, 0, 0, x, y, z);
-        putObject(cid, index, type, id);
+        putObject(cid, ZOrderIndex.encode(x, y, z), type, id);
     }
 
-    private void putObject(int cid, int index, int type, long id) {
-        try (Txn<DirectBuffer> txn = env.txnWrite()) {
+    private void putObject(int cid, long zindex, int type, long id) {
+        env.write(txn -> {
             final var key = buffkey.get();
             final var val = buffval.get();
-            key.putInt(0, index);
+            key.putLong(0, zindex);
             MapObjectValue.setId(val, 0, id);
             MapObjectValue.setType(val, 0, type);
             MapObjectValue.setCid(val, 0, cid);
             db.put(txn, key, val);
-            txn.commit();
-        }
+        });
+        setFilled(zindex, true);
     }
 
     @RequiredArgsConstructor
@@ -146,7 +280,7 @@ public class MapObjectsLmbdStorage implements MapObjectsStorage, ObjectsGetter,
 
         protected final int cid;
 
-        protected final int index;
+        protected final long zindex;
 
         protected final int type;
 
@@ -169,24 +303,25 @@ public class MapObjectsLmbdStorage implements MapObjectsStorage, ObjectsGetter,
         }
 
         protected void processing() {
-            try (Txn<DirectBuffer> txn = env.txnWrite()) {
-                final var c = db.openCursor(txn);
-                final var key = buffkey.get();
-                final var val = buffval.get();
-                for (int i = start; i < end; i++) {
-                    final var id = oids.get(i);
-                    key.putInt(0, index);
-                    MapObjectValue.setId(val, 0, id);
-                    MapObjectValue.setType(val, 0, type);
-                    MapObjectValue.setCid(val, 0, cid);
-                    c.put(key, val);
+            env.write(txn -> {
+                try (final var c = db.openCursor(txn)) {
+                    final var key = buffkey.get();
+                    final var val = buffval.get();
+                    for (int i = start; i < end; i++) {
+                        final var id = oids.get(i);
+                        key.putLong(0, zindex);
+                        MapObjectValue.setId(val, 0, id);
+                        MapObjectValue.setType(val, 0, type);
+                        MapObjectValue.setCid(val, 0, cid);
+                        c.put(key, val);
+                    }
                 }
-                txn.commit();
-            }
+            });
+            setFilled(zindex, true);
         }
 
         protected ObjectsListRecursiveAction create(int max, int start, int end) {
-            return new ObjectsListRecursiveAction(max, start, end, cid, index, type, oids);
+            return new ObjectsListRecursiveAction(max, start, end, cid, zindex, type, oids);
         }
     }
 
@@ -198,7 +333,7 @@ public class MapObjectsLmbdStorage implements MapObjectsStorage, ObjectsGetter,
         final int max = 8192;
         if (ids instanceof final LongList list) {
             final var pool = ForkJoinPool.commonPool();
-            pool.invoke(new ObjectsListRecursiveAction(max, 0, list.size(), cid, index, type, list));
+            pool.invoke(new ObjectsListRecursiveAction(max, 0, list.size(), cid, indexKey(index), type, list));
         } else {
             putObjects0(cid, index, type, ids);
         }
@@ -208,18 +343,21 @@ public class MapObjectsLmbdStorage implements MapObjectsStorage, ObjectsGetter,
      * Mass storage for game map objects.
      */
     public void putObjects0(int cid, int index, int type, LongIterable ids) {
-        try (Txn<DirectBuffer> txn = env.txnWrite()) {
-            final var c = db.openCursor(txn);
-            final var key = buffkey.get();
-            final var val = buffval.get();
-            for (final var it = ids.longIterator(); it.hasNext();) {
-                key.putInt(0, index);
-                MapObjectValue.setId(val, 0, it.next());
-                MapObjectValue.setType(val, 0, type);
-                MapObjectValue.setCid(val, 0, cid);
-                c.put(key, val);
+        env.write(txn -> {
+            try (final var c = db.openCursor(txn)) {
+                final var key = buffkey.get();
+                final var val = buffval.get();
+                for (final var it = ids.longIterator(); it.hasNext();) {
+                    key.putLong(0, indexKey(index));
+                    MapObjectValue.setId(val, 0, it.next());
+                    MapObjectValue.setType(val, 0, type);
+                    MapObjectValue.setCid(val, 0, cid);
+                    c.put(key, val);
+                }
             }
-            txn.commit();
+        });
+        if (ids.notEmpty()) {
+            setFilled(indexKey(index), true);
         }
     }
 
@@ -228,16 +366,17 @@ public class MapObjectsLmbdStorage implements MapObjectsStorage, ObjectsGetter,
      */
     @Override
     public void getObjects(int x, int y, int z, ObjectsConsumer consumer) {
-        final int index = calcIndex(w, h, d, 0, 0, 0, x, y, z);
-        getObjects(x, y, z, index, consumer);
+        if (!isFilled(x, y, z)) {
+            return;
+        }
+        getObjects(x, y, z, ZOrderIndex.encode(x, y, z), consumer);
     }
 
-    private synchronized void getObjects(int x, int y, int z, int index, ObjectsConsumer consumer) {
-        try {
-            readTxn.renew();
+    private void getObjects(int x, int y, int z, long zindex, ObjectsConsumer consumer) {
+        final var txn = readTxn.acquire();
+        try (final var c = db.openCursor(txn)) {
             final var key = buffkey.get();
-            key.putInt(0, index);
-            final var c = db.openCursor(readTxn);
+            key.putLong(0, zindex);
             if (!c.get(key, MDB_SET)) {
                 return;
             }
@@ -250,67 +389,96 @@ public class MapObjectsLmbdStorage implements MapObjectsStorage, ObjectsGetter,
                 c.next();
             }
         } finally {
-            readTxn.reset();
+            readTxn.release();
         }
     }
 
     /**
      * Retrieves the game map objects from a range start (x,y,z) to end (x,y,z)
      * blocks from the database.
+     * <p>
+     * The cursor sweeps the {@link ZOrderIndex} keys of the range and jumps to the
+     * next key inside of the range if a key is outside of the range.
      */
     @Override
-    public synchronized void getObjectsRange(int sx, int sy, int sz, int ex, int ey, int ez, ObjectsConsumer consumer) {
-        try {
-            readTxn.renew();
+    public void getObjectsRange(int sx, int sy, int sz, int ex, int ey, int ez, ObjectsConsumer consumer) {
+        if (sx >= ex || sy >= ey || sz >= ez) {
+            return;
+        }
+        final long zmin = ZOrderIndex.encode(sx, sy, sz);
+        final long zmax = ZOrderIndex.encode(ex - 1, ey - 1, ez - 1);
+        final var txn = readTxn.acquire();
+        try (final var c = db.openCursor(txn)) {
             final var key = buffkey.get();
-            final var c = db.openCursor(readTxn);
-            for (int x = sx; x < ex; x++) {
-                for (int y = sy; y < ey; y++) {
-                    for (int z = sz; z < ez; z++) {
-                        final int index = calcIndex(w, h, d, 0, 0, 0, x, y, z);
-                        key.putInt(0, index);
-                        if (!c.get(key, MDB_SET)) {
-                            continue;
-                        }
-                        for (int i = 0; i < c.count(); i++) {
-                            final var val = c.val();
-                            final long id = MapObjectValue.getId(val, 0);
-                            final int type = MapObjectValue.getType(val, 0);
-                            final int cid = MapObjectValue.getCid(val, 0);
-                            consumer.accept(cid, type, id, x, y, z);
-                            c.next();
-                        }
-                    }
+            key.putLong(0, zmin);
+            boolean found = c.get(key, MDB_SET_RANGE);
+            while (found) {
+                final long zindex = c.key().getLong(0);
+                if (zindex > zmax) {
+                    break;
                 }
+                if (!ZOrderIndex.isInside(zindex, sx, sy, sz, ex, ey, ez)) {
+                    key.putLong(0, ZOrderIndex.nextInside(zindex, zmin, zmax));
+                    found = c.get(key, MDB_SET_RANGE);
+                    continue;
+                }
+                final int x = ZOrderIndex.decodeX(zindex);
+                final int y = ZOrderIndex.decodeY(zindex);
+                final int z = ZOrderIndex.decodeZ(zindex);
+                do {
+                    final var val = c.val();
+                    final long id = MapObjectValue.getId(val, 0);
+                    final int type = MapObjectValue.getType(val, 0);
+                    final int cid = MapObjectValue.getCid(val, 0);
+                    consumer.accept(cid, type, id, x, y, z);
+                } while (c.seek(MDB_NEXT_DUP));
+                found = c.seek(MDB_NEXT_NODUP);
             }
         } finally {
-            readTxn.reset();
+            readTxn.release();
         }
     }
 
     @Override
     public void removeObject(int x, int y, int z, int cid, int type, long id) {
-        final int index = calcIndex(w, h, d, 0, 0, 0, x, y, z);
-        removeObject(cid, index, type, id);
+        removeObject(cid, ZOrderIndex.encode(x, y, z), type, id);
     }
 
-    private void removeObject(int cid, int index, int type, long id) {
-        try (Txn<DirectBuffer> txn = env.txnWrite()) {
+    /**
+     * Removes the object and clears the filled bit of the block only after the
+     * write was committed. If an object was put in the block after the commit,
+     * the bit is set again.
+     */
+    private void removeObject(int cid, long zindex, int type, long id) {
+        final var empty = new boolean[1];
+        env.write(txn -> {
             final var key = buffkey.get();
             final var val = buffval.get();
-            key.putInt(0, index);
+            key.putLong(0, zindex);
             MapObjectValue.setId(val, 0, id);
             MapObjectValue.setType(val, 0, type);
             MapObjectValue.setCid(val, 0, cid);
             db.delete(txn, key, val);
-            txn.commit();
+            empty[0] = db.get(txn, key) == null;
+        });
+        if (empty[0]) {
+            setFilled(zindex, false);
+            final boolean filled = env.read(txn -> {
+                final var key = buffkey.get();
+                key.putLong(0, zindex);
+                return db.get(txn, key) != null;
+            });
+            if (filled) {
+                setFilled(zindex, true);
+            }
         }
     }
 
     @Override
     public synchronized void set(int type, GameObject go) throws ObjectsSetterException {
         final var mo = (MapObject) go;
-        mo.getOids().forEachKeyValue((id, type0) -> putObject(mo.getCid(), mo.getIndex(), type0, id));
+        final long zindex = indexKey(mo.getIndex());
+        mo.forEachObject((id, type0) -> putObject(mo.getCid(), zindex, type0, id));
     }
 
     @Override
@@ -322,10 +490,13 @@ public class MapObjectsLmbdStorage implements MapObjectsStorage, ObjectsGetter,
 
     @SuppressWarnings("unchecked")
     @Override
-    public synchronized <T extends GameObject> T get(int type, long key) throws ObjectsGetterException {
+    public <T extends GameObject> T get(int type, long key) throws ObjectsGetterException {
         final int index = (int) key;
         final var mo = new MapObject(index);
-        getObjects(0, 0, 0, index, (cid, type0, id, x, y, z) -> {
+        if (!isFilled(index)) {
+            return (T) mo;
+        }
+        getObjects(0, 0, 0, indexKey(index), (cid, type0, id, x, y, z) -> {
             mo.addObject(type0, id);
             mo.setCid(cid);
         });
@@ -335,7 +506,8 @@ public class MapObjectsLmbdStorage implements MapObjectsStorage, ObjectsGetter,
     @Override
     public synchronized void remove(int type, GameObject go) throws ObjectsSetterException {
         final var mo = (MapObject) go;
-        mo.getOids().forEachKeyValue((id, type0) -> removeObject(mo.getCid(), mo.getIndex(), type0, id));
-        mo.getOids().clear();
+        final long zindex = indexKey(mo.getIndex());
+        mo.forEachObject((id, type0) -> removeObject(mo.getCid(), zindex, type0, id));
+        mo.clearObjects();
     }
 }
@@ -0,0 +1,163 @@
+/*
+ * dwarfhustle-model-db - Manages the compile dependencies for the model.
+ * Copyright © 2022-2025 Erwin Müller (erwin.mueller@anrisoftware.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.anrisoftware.dwarfhustle.model.db.lmbd;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.agrona.DirectBuffer;
+import org.lmdbjava.Txn;
+
+/**
+ * Pool of reusable read transactions. A transaction is borrowed and renewed on
+ * the first {@link #acquire()} of a thread and reset and returned to the pool
+ * on the last {@link #release()}, so concurrent readers do not block each other.
+ * Nested acquire and release on the same thread are using the same transaction.
+ * <p>
+ * The pool keeps at most the maximum idle transactions, the others are closed
+ * on release. The transactions are not bound to the threads, so the reader
+ * slots of dispatcher threads that are replaced are reused.
+ * <p>
+ * The {@link LmbdEnv} must be opened with {@code MDB_NOTLS}. The map size of
+ * the {@link LmbdEnv} is locked while a transaction is borrowed.
+ */
+class ThreadReadTxn implements AutoCloseable {
+
+    private static class Holder {
+
+        Txn<DirectBuffer> txn;
+
+        int depth;
+    }
+
+    private final ThreadLocal<Holder> holders;
+
+    private final Queue<Txn<DirectBuffer>> idle;
+
+    private final AtomicInteger idleCount;
+
+    private final int maxIdle;
+
+    private final LmbdEnv env;
+
+    private volatile boolean closed;
+
+    /**
+     * @param env     the {@link LmbdEnv}.
+     * @param maxIdle the maximum idle transactions that are kept open.
+     */
+    public ThreadReadTxn(LmbdEnv env, int maxIdle) {
+        this.env = env;
+        this.maxIdle = maxIdle;
+        this.holders = ThreadLocal.withInitial(Holder::new);
+        this.idle = new ConcurrentLinkedQueue<>();
+        this.idleCount = new AtomicInteger();
+    }
+
+    /**
+     * Returns the renewed read transaction of the current thread. Must be
+     * released with {@link #release()}.
+     */
+    public Txn<DirectBuffer> acquire() {
+        final var h = holders.get();
+        if (h.depth++ == 0) {
+            env.lockRead();
+            try {
+                h.txn = borrow();
+            } catch (final RuntimeException e) {
+                h.depth--;
+                env.unlockRead();
+                throw e;
+            }
+        }
+        return h.txn;
+    }
+
+    private Txn<DirectBuffer> borrow() {
+        final var txn = idle.poll();
+        if (txn == null) {
+            return env.getEnv().txnRead();
+        }
+        idleCount.decrementAndGet();
+        try {
+            txn.renew();
+        } catch (final RuntimeException e) {
+            txn.close();
+            throw e;
+        }
+        return txn;
+    }
+
+    /**
+     * Resets the read transaction of the current thread and returns it to the
+     * pool.
+     */
+    public void release() {
+        final var h = holders.get();
+        if (--h.depth == 0) {
+            final var txn = h.txn;
+            h.txn = null;
+            try {
+                giveBack(txn);
+            } finally {
+                env.unlockRead();
+            }
+        }
+    }
+
+    private void giveBack(Txn<DirectBuffer> txn) {
+        if (closed || idleCount.incrementAndGet() > maxIdle) {
+            if (!closed) {
+                idleCount.decrementAndGet();
+            }
+            txn.close();
+            return;
+        }
+        txn.reset();
+        idle.add(txn);
+        if (closed) {
+            closeIdle();
+        }
+    }
+
+    /**
+     * Returns the count of the idle transactions.
+     */
+    public int getIdleCount() {
+        return idleCount.get();
+    }
+
+    /**
+     * Closes all idle read transactions. The borrowed transactions are closed on
+     * release.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        closeIdle();
+    }
+
+    private void closeIdle() {
+        Txn<DirectBuffer> txn;
+        while ((txn = idle.poll()) != null) {
+            idleCount.decrementAndGet();
+            txn.close();
+        }
+    }
+}
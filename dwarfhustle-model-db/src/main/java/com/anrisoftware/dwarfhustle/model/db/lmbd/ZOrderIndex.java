@@ -0,0 +1,134 @@
+/*
+ * dwarfhustle-model-db - Manages the compile dependencies for the model.
+ * Copyright © 2022-2025 Erwin Müller (erwin.mueller@anrisoftware.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.anrisoftware.dwarfhustle.model.db.lmbd;
+
+/**
+ * Z-order (Morton) index of the (x,y,z) block position. The bits of the x, y
+ * and z coordinates are interleaved, so blocks that are near each other on the
+ * map are near each other in the index. Each coordinate can use up to 21 bits.
+ *
+ * <pre>
+ * bit   ... 5 4 3 2 1 0
+ *       ... z y x z y x
+ * </pre>
+ *
+ * @author Erwin Müller, {@code <erwin@muellerpublic.de>}
+ */
+public final class ZOrderIndex {
+
+    /**
+     * The mask of the x coordinate bits.
+     */
+    private static final long MASK_X = 0x1249249249249249L;
+
+    private static final long MASK_Y = MASK_X << 1;
+
+    private static final long MASK_Z = MASK_X << 2;
+
+    private static final long[] MASKS = { MASK_X, MASK_Y, MASK_Z };
+
+    private ZOrderIndex() {
+    }
+
+    /**
+     * Returns the Z-order index of the (x,y,z) position.
+     */
+    public static long encode(int x, int y, int z) {
+        return split(x) | split(y) << 1 | split(z) << 2;
+    }
+
+    /**
+     * Returns the X coordinate of the Z-order index.
+     */
+    public static int decodeX(long code) {
+        return compact(code);
+    }
+
+    /**
+     * Returns the Y coordinate of the Z-order index.
+     */
+    public static int decodeY(long code) {
+        return compact(code >> 1);
+    }
+
+    /**
+     * Returns the Z coordinate of the Z-order index.
+     */
+    public static int decodeZ(long code) {
+        return compact(code >> 2);
+    }
+
+    /**
+     * Returns true if the Z-order index is inside of the box from the start
+     * (x,y,z) inclusive to the end (x,y,z) exclusive.
+     */
+    public static boolean isInside(long code, int sx, int sy, int sz, int ex, int ey, int ez) {
+        final int x = decodeX(code);
+        final int y = decodeY(code);
+        final int z = decodeZ(code);
+        return x >= sx && y >= sy && z >= sz && x < ex && y < ey && z < ez;
+    }
+
+    /**
+     * Returns the smallest Z-order index that is greater than the index and is
+     * inside of the box with the minimum and maximum Z-order index (BIGMIN of
+     * Tropf and Herzog). The index must be between the minimum and the maximum
+     * and must be outside of the box.
+     */
+    public static long nextInside(long code, long min, long max) {
+        long bigmin = 0;
+        for (int pos = 62; pos >= 0; pos--) {
+            final long bit = 1L << pos;
+            final long lower = MASKS[pos % 3] & (bit - 1);
+            final boolean c = (code & bit) != 0;
+            final boolean mn = (min & bit) != 0;
+            final boolean mx = (max & bit) != 0;
+            if (!c && !mn && mx) {
+                bigmin = (min | bit) & ~lower;
+                max = (max & ~bit) | lower;
+            } else if (!c && mn && mx) {
+                return min;
+            } else if (c && !mn && !mx) {
+                return bigmin;
+            } else if (c && !mn && mx) {
+                min = (min | bit) & ~lower;
+            }
+        }
+        return bigmin;
+    }
+
+    private static long split(int a) {
+        long x = a & 0x1fffffL;
+        x = (x | x << 32) & 0x1f00000000ffffL;
+        x = (x | x << 16) & 0x1f0000ff0000ffL;
+        x = (x | x << 8) & 0x100f00f00f00f00fL;
+        x = (x | x << 4) & 0x10c30c30c30c30c3L;
+        x = (x | x << 2) & MASK_X;
+        return x;
+    }
+
+    private static int compact(long x) {
+        x &= MASK_X;
+        x = (x ^ (x >> 2)) & 0x10c30c30c30c30c3L;
+        x = (x ^ (x >> 4)) & 0x100f00f00f00f00fL;
+        x = (x ^ (x >> 8)) & 0x1f0000ff0000ffL;
+        x = (x ^ (x >> 16)) & 0x1f00000000ffffL;
+        x = (x ^ (x >> 32)) & 0x1fffffL;
+        return (int) x;
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * dwarfhustle-model-db - Manages the compile dependencies for the model.
+ * Copyright © 2022-2025 Erwin Müller (erwin.mueller@anrisoftware.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.anrisoftware.dwarfhustle.model.db.buffers;
+
+import static com.anrisoftware.dwarfhustle.model.api.objects.MapChunk.cid2Id;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.RepeatedTest;
+
+import com.anrisoftware.dwarfhustle.model.api.objects.GameChunkPos;
+import com.anrisoftware.dwarfhustle.model.api.objects.MapChunk;
+
+/**
+ * Benchmark test of the {@link MapChunk} blocks iteration.
+ */
+class MapChunkBufferBenchmark {
+
+    static int size = 32;
+
+    static MapChunk chunk;
+
+    static int expected;
+
+    @BeforeAll
+    static void setupChunk() {
+        chunk = new MapChunk(cid2Id(1), 0, size, size, size, new GameChunkPos(0, 0, 0, size, size, size));
+        final var blocks = chunk.getBlocks();
+        for (int i = 0; i < size * size * size; i++) {
+            MapBlockBuffer.setMaterial(blocks, i * MapBlockBuffer.SIZE, i % 7);
+            expected += i % 7;
+        }
+    }
+
+    @RepeatedTest(1000)
+    void benchmark_getBlocks() {
+        int sum = 0;
+        for (final var mb : MapChunkBuffer.getBlocks(chunk)) {
+            sum += mb.getMaterial();
+        }
+        assertThat(sum, is(expected));
+    }
+
+    @RepeatedTest(1000)
+    void benchmark_forEachBlockValues() {
+        final int[] sum = new int[1];
+        MapChunkBuffer.forEachBlockValues(chunk, (i, x, y, z, p, m, o) -> {
+            sum[0] += m;
+        });
+        assertThat(sum[0], is(expected));
+    }
+
+}
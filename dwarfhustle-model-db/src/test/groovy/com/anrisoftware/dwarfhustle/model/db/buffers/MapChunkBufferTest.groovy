@@ -26,6 +26,7 @@ import java.util.stream.Stream
 
 import org.agrona.concurrent.UnsafeBuffer
 import org.eclipse.collections.api.factory.primitive.LongObjectMaps
+import org.junit.jupiter.api.Test
 import org.junit.jupiter.params.ParameterizedTest
 import org.junit.jupiter.params.provider.MethodSource
 
@@ -33,6 +34,8 @@ import com.anrisoftware.dwarfhustle.model.api.objects.GameBlockPos
 import com.anrisoftware.dwarfhustle.model.api.objects.GameChunkPos
 import com.anrisoftware.dwarfhustle.model.api.objects.MapBlock
 import com.anrisoftware.dwarfhustle.model.api.objects.MapChunk
+import com.anrisoftware.dwarfhustle.model.api.objects.NeighboringDir
+import com.anrisoftware.dwarfhustle.model.api.objects.ObjectsGetter
 import com.anrisoftware.dwarfhustle.model.api.objects.PropertiesSet
 
 import groovy.util.logging.Slf4j
@@ -166,4 +169,117 @@ class MapChunkBufferTest {
             }
         }
     }
+
+    @Test
+    void write_read_rle_map_chunk() {
+        def chunk = new MapChunk(cid2Id(2), 1, 4, 32, 32, new GameChunkPos(0, 0, 0, 4, 4, 4))
+        for (int i = 0; i < 64; i++) {
+            MapBlockBuffer.write(chunk.blocks, i * MapBlockBuffer.SIZE, createBlock(2, 0, 0, 0))
+        }
+        MapBlockBuffer.setMaterial(chunk.blocks, 10 * MapBlockBuffer.SIZE, 201)
+        MapBlockBuffer.setMaterial(chunk.blocks, 63 * MapBlockBuffer.SIZE, 202)
+        int size = MapChunkBuffer.getSizeRle(chunk)
+        assert size == MapChunkBuffer.SIZE_MIN + 4 + 4 * (4 + MapBlockBuffer.SIZE)
+        def b = new UnsafeBuffer(ByteBuffer.allocate(size))
+        MapChunkBuffer.writeRle(b, 0, chunk)
+        assert MapChunkBuffer.getFormat(b, 0) == MapChunkBuffer.FORMAT_RLE
+        def raw = new UnsafeBuffer(ByteBuffer.allocate(MapChunkBuffer.SIZE_MIN + MapChunkBuffer.getBlocksSize(4, 4, 4)))
+        MapChunkBuffer.write(raw, 0, chunk)
+        assert MapChunkBuffer.getFormat(raw, 0) == MapChunkBuffer.FORMAT_RAW
+        MapChunk thatChunk = MapChunkBuffer.read(b, 0)
+        assert thatChunk.pos == chunk.pos
+        assert BufferUtils.toHex(thatChunk.blocks) == BufferUtils.toHex(chunk.blocks)
+        MapChunk viewChunk = MapChunkBuffer.readView(b, 0)
+        assert !viewChunk.blocksView
+        assert BufferUtils.toHex(viewChunk.blocks) == BufferUtils.toHex(chunk.blocks)
+        assert BufferUtils.toHex(MapChunkBuffer.copyRaw(b, 0)) == BufferUtils.toHex(raw)
+    }
+
+    @Test
+    void forEachBlockValues_map_chunk() {
+        def chunk = new MapChunk(cid2Id(2), 1, 4, 32, 32, new GameChunkPos(4, 0, 0, 8, 4, 4))
+        for (int i = 0; i < 64; i++) {
+            MapBlockBuffer.write(chunk.blocks, i * MapBlockBuffer.SIZE, createBlock(2, 0, 0, 0))
+            MapBlockBuffer.setMaterial(chunk.blocks, i * MapBlockBuffer.SIZE, i % 3)
+        }
+        def expected = MapChunkBuffer.getBlocks(chunk).collect {
+            [it.pos.x, it.pos.y, it.pos.z, it.p.bits, it.material, it.object]
+        }
+        def values = []
+        MapChunkBuffer.forEachBlockValues(chunk, { i, x, y, z, p, m, o ->
+            assert i == values.size()
+            values << [x, y, z, p, m, o]
+        })
+        assert values == expected
+        chunk.packBlocks()
+        values = []
+        MapChunkBuffer.forEachBlockValues(chunk, { i, x, y, z, p, m, o ->
+            values << [x, y, z, p, m, o]
+        })
+        assert chunk.palette != null
+        assert values == expected
+    }
+
+    static Map<Long, MapChunk> createNeighborChunks() {
+        def chunks = [:]
+        def root = new MapChunk(cid2Id(0), 0, 4, 8, 8, new GameChunkPos(0, 0, 0, 8, 8, 4))
+        def children = LongObjectMaps.mutable.empty()
+        chunks[root.id] = root
+        int cid = 1
+        for (int y = 0; y < 8; y += 4) {
+            for (int x = 0; x < 8; x += 4) {
+                def chunk = new MapChunk(cid2Id(cid), 0, 4, 8, 8, new GameChunkPos(x, y, 0, x + 4, y + 4, 4))
+                for (int i = 0; i < 64; i++) {
+                    MapBlockBuffer.write(chunk.blocks, i * MapBlockBuffer.SIZE, createBlock(cid, 0, 0, 0))
+                    MapBlockBuffer.setMaterial(chunk.blocks, i * MapBlockBuffer.SIZE, cid)
+                }
+                children.put(cid, chunk.pos)
+                chunks[chunk.id] = chunk
+                cid++
+            }
+        }
+        root.chunks = children
+        chunks.values().findAll { it.leaf }.each { c ->
+            NeighboringDir.values().each { dir ->
+                def n = chunks.values().find {
+                    it.leaf && it.pos.x == c.pos.x + dir.pos.x * 4 && it.pos.y == c.pos.y + dir.pos.y * 4 && it.pos.z == c.pos.z + dir.pos.z * 4
+                }
+                c.neighbors[dir.ordinal()] = n ? n.cid : 0
+            }
+        }
+        return chunks
+    }
+
+    @Test
+    void getNeighbors_across_chunks() {
+        def chunks = createNeighborChunks()
+        def gets = []
+        def og = { type, id ->
+            gets << MapChunk.id2Cid(id)
+            chunks[id]
+        } as ObjectsGetter
+        def c1 = chunks[cid2Id(1)]
+        int index = GameBlockPos.calcIndex(c1, 3, 3, 1)
+        def res = MapChunkBuffer.getNeighbor(index, NeighboringDir.E, c1, 8, 8, 4, og)
+        assert res.c.cid == 2
+        assert res.index == GameBlockPos.calcIndex(res.c, 4, 3, 1)
+        def mb = MapChunkBuffer.getNeighbor(MapBlockBuffer.read(c1, index * MapBlockBuffer.SIZE, new GameBlockPos(3, 3, 1)), NeighboringDir.SE, c1, 8, 8, 4, og)
+        assert mb.material == 4
+        assert mb.pos == new GameBlockPos(4, 4, 1)
+        assert !gets.contains(0)
+        def nchunks = new MapChunk[26]
+        def offs = new int[26]
+        assert MapChunkBuffer.getNeighbors(index, c1, 8, 8, 4, og, nchunks, offs) == 26
+        NeighboringDir.values().each { dir ->
+            def n = nchunks[dir.ordinal()]
+            def pos = new GameBlockPos(3, 3, 1).add(dir.pos)
+            assert n.isInside(pos)
+            assert offs[dir.ordinal()] == GameBlockPos.calcIndex(n, pos.x, pos.y, pos.z) * MapBlockBuffer.SIZE
+        }
+        int corner = GameBlockPos.calcIndex(c1, 0, 0, 0)
+        assert MapChunkBuffer.getNeighbors(corner, c1, 8, 8, 4, og, nchunks, offs) == 7
+        assert offs[NeighboringDir.U.ordinal()] == -1
+        assert nchunks[NeighboringDir.W.ordinal()] == null
+        assert !gets.contains(0)
+    }
 }
@@ -0,0 +1,67 @@
+/*
+ * dwarfhustle-model-db - Manages the compile dependencies for the model.
+ * Copyright © 2022-2025 Erwin Müller (erwin.mueller@anrisoftware.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.anrisoftware.dwarfhustle.model.db.buffers
+
+import static com.anrisoftware.dwarfhustle.model.api.objects.MapChunk.cid2Id
+
+import org.junit.jupiter.api.Test
+
+import com.anrisoftware.dwarfhustle.model.api.objects.ObjectsGetter
+
+/**
+ * @see MapChunkHalo
+ *
+ * @author Erwin Müller, {@code <erwin@muellerpublic.de>}
+ */
+class MapChunkHaloTest {
+
+    @Test
+    void load_store_halo() {
+        def chunks = MapChunkBufferTest.createNeighborChunks()
+        def og = { type, id -> chunks[id] } as ObjectsGetter
+        def c1 = chunks[cid2Id(1)]
+        def halo = new MapChunkHalo()
+        halo.load(c1, 8, 8, 4, og)
+        def b = halo.buffer
+        assert MapBlockBuffer.getMaterial(b, halo.getOff(0, 0, 0)) == 1
+        assert MapBlockBuffer.getMaterial(b, halo.getOff(3, 3, 3)) == 1
+        assert MapBlockBuffer.getMaterial(b, halo.getOff(4, 0, 0)) == 2
+        assert MapBlockBuffer.getMaterial(b, halo.getOff(0, 4, 1)) == 3
+        assert MapBlockBuffer.getMaterial(b, halo.getOff(4, 4, 3)) == 4
+        assert MapBlockBuffer.getMaterial(b, halo.getOff(-1, 0, 0)) == 0
+        assert MapBlockBuffer.getMaterial(b, halo.getOff(0, 0, 4)) == 0
+        c1.clearDirtyBlocks()
+        MapBlockBuffer.setMaterial(b, halo.getOff(1, 2, 3), 100)
+        MapBlockBuffer.setMaterial(b, halo.getOff(4, 2, 3), 101)
+        assert halo.store(c1) == 1
+        assert MapBlockBuffer.getMaterial(c1, MapBlockBuffer.calcOff(c1, 1, 2, 3)) == 100
+        assert c1.dirtyBlocks.cardinality() == 1
+        def c4 = chunks[cid2Id(4)]
+        c4.packBlocks()
+        (1..3).each { assert chunks[cid2Id(it)].packBlocks() }
+        halo.load(c4, 8, 8, 4, og)
+        assert MapBlockBuffer.getMaterial(halo.buffer, halo.getOff(4, 4, 0)) == 4
+        assert MapBlockBuffer.getMaterial(halo.buffer, halo.getOff(3, 3, 3)) == 1
+        assert MapBlockBuffer.getMaterial(halo.buffer, halo.getOff(4, 3, 0)) == 2
+        assert MapBlockBuffer.getMaterial(halo.buffer, halo.getOff(3, 4, 1)) == 3
+        (1..3).each { assert chunks[cid2Id(it)].palette != null }
+        assert MapBlockBuffer.getMaterial(halo.buffer, halo.getOff(8, 4, 0)) == 0
+        assert halo.store(c4) == 0
+        assert c4.palette != null
+    }
+}
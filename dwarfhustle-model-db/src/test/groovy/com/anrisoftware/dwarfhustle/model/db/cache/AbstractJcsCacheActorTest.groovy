@@ -0,0 +1,173 @@
+/*
+ * dwarfhustle-model-db - Manages the compile dependencies for the model.
+ * Copyright © 2022-2025 Erwin Müller (erwin.mueller@anrisoftware.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.anrisoftware.dwarfhustle.model.db.cache
+
+import static com.anrisoftware.dwarfhustle.model.actor.CreateActorMessage.createNamedActor
+import static java.time.Duration.ofSeconds
+import static java.util.concurrent.CompletableFuture.completedFuture
+
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+import org.apache.commons.jcs3.JCS
+import org.apache.commons.jcs3.access.CacheAccess
+import org.eclipse.collections.api.factory.primitive.LongObjectMaps
+import org.eclipse.collections.api.map.primitive.LongObjectMap
+import org.junit.jupiter.api.AfterAll
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.Timeout
+
+import com.anrisoftware.dwarfhustle.model.actor.ActorSystemProvider
+import com.anrisoftware.dwarfhustle.model.actor.DwarfhustleModelActorsModule
+import com.anrisoftware.dwarfhustle.model.actor.MessageActor.Message
+import com.anrisoftware.dwarfhustle.model.api.objects.GameObject
+import com.anrisoftware.dwarfhustle.model.api.objects.ObjectsGetter
+import com.anrisoftware.dwarfhustle.model.api.objects.ObjectsSetter
+import com.anrisoftware.dwarfhustle.model.api.objects.WorldMap
+import com.anrisoftware.dwarfhustle.model.db.cache.CacheGetMessage.CacheGetMissMessage
+import com.anrisoftware.dwarfhustle.model.db.cache.CacheGetMessage.CacheGetSuccessMessage
+import com.anrisoftware.dwarfhustle.model.db.cache.MockStoredObjectsJcsCacheActor.MockStoredObjectsJcsCacheActorFactory
+import com.google.inject.AbstractModule
+import com.google.inject.Guice
+import com.google.inject.Injector
+import com.google.inject.TypeLiteral
+
+import akka.actor.typed.ActorRef
+import akka.actor.typed.javadsl.AskPattern
+
+/**
+ * @see AbstractJcsCacheActor
+ *
+ * @author Erwin Müller, {@code <erwin@muellerpublic.de>}
+ */
+class AbstractJcsCacheActorTest {
+
+    static Injector injector
+
+    static ActorSystemProvider actor
+
+    static CacheAccess<Object, GameObject> cache
+
+    static ActorRef<Message> cacheActor
+
+    static final AtomicInteger backendCalls = new AtomicInteger()
+
+    static volatile CountDownLatch backendLatch
+
+    static final Map<Long, GameObject> backend = [:].asSynchronized()
+
+    @BeforeAll
+    static void setupActor() {
+        injector = Guice.createInjector(new DwarfhustleModelActorsModule(), new DwarfhustleModelDbMockCacheModule(),
+                new AbstractModule() {
+                    @Override
+                    protected void configure() {
+                        bind(new TypeLiteral<LongObjectMap<GameObject>>() {
+                                }).toInstance(LongObjectMaps.mutable.empty())
+                    }
+                })
+        actor = injector.getInstance(ActorSystemProvider)
+        def config = new Properties()
+        def params = [actor_test: [:]]
+        params.actor_test.cache_name = "actor_test"
+        params.actor_test.max_objects = 100
+        params.actor_test.is_eternal = true
+        JcsCacheConfig.createCaches(config, params)
+        JCS.setConfigProperties(config)
+        cache = JCS.getInstance("actor_test")
+        def og = [get: { int type, long key ->
+                backendCalls.incrementAndGet()
+                backendLatch?.await(10, TimeUnit.SECONDS)
+                return backend[key]
+            }] as ObjectsGetter
+        def os = [set: { int type, go -> }] as ObjectsSetter
+        def behavior = MockStoredObjectsJcsCacheActor.create(injector,
+                injector.getInstance(MockStoredObjectsJcsCacheActorFactory), completedFuture(og), completedFuture(os),
+                completedFuture(cache))
+        cacheActor = createNamedActor(actor.actorSystem, ofSeconds(1), MockStoredObjectsJcsCacheActor.ID,
+                MockStoredObjectsJcsCacheActor.KEY, MockStoredObjectsJcsCacheActor.NAME, behavior).toCompletableFuture().get()
+    }
+
+    @AfterAll
+    static void closeActor() {
+        actor.shutdownWait()
+    }
+
+    @BeforeEach
+    void clearBackend() {
+        cache.clear()
+        backend.clear()
+        backendCalls.set(0)
+        backendLatch = null
+    }
+
+    static askGet(long key, Closure consumer = {}, Closure onMiss = {}) {
+        AskPattern.ask(cacheActor, { replyTo ->
+            new CacheGetMessage<>(replyTo, WorldMap.OBJECT_TYPE, key, consumer, onMiss)
+        }, ofSeconds(5), actor.scheduler).toCompletableFuture()
+    }
+
+    @Test
+    @Timeout(10l)
+    void get_hit_no_backend() {
+        def wm = new WorldMap(1)
+        cache.put(wm.id, wm)
+        def consumed = []
+        def res = askGet(wm.id, { consumed << it }).get()
+        assert res instanceof CacheGetSuccessMessage
+        assert res.go == wm
+        assert consumed == [wm]
+        assert backendCalls.get() == 0
+    }
+
+    @Test
+    @Timeout(10l)
+    void get_miss_reply() {
+        def res = askGet(2).get()
+        assert res instanceof CacheGetMissMessage
+        assert backendCalls.get() == 1
+    }
+
+    @Test
+    @Timeout(10l)
+    void get_miss_coalesce_loads() {
+        def wm = new WorldMap(3)
+        backend[wm.id] = wm
+        backendLatch = new CountDownLatch(1)
+        def misses = new CountDownLatch(3)
+        def threads = new ConcurrentLinkedQueue<String>()
+        def replies = (1..3).collect {
+            askGet(wm.id, { threads << Thread.currentThread().name }, { misses.countDown() })
+        }
+        assert misses.await(5, TimeUnit.SECONDS)
+        backendLatch.countDown()
+        replies.each {
+            def res = it.get()
+            assert res instanceof CacheGetSuccessMessage
+            assert res.go == wm
+        }
+        assert backendCalls.get() == 1
+        assert threads.size() == 3
+        assert threads.every { !it.contains("blocking-io") }
+        assert cache.get(wm.id) == wm
+    }
+}
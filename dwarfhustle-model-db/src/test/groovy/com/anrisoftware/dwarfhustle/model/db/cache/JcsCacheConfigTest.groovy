@@ -48,6 +48,21 @@ class JcsCacheConfigTest {
 		assert config["jcs.region.mapblocks.elementattributes.IsRemote"] == "false"
 	}
 
+	@Test
+	void create_chunks_cache_max_bytes() {
+		def config = new Properties()
+		def params = [chunks: [:]]
+		params.chunks.cache_name = "chunks"
+		params.chunks.max_objects = 100
+		params.chunks.max_bytes = 1024
+		JcsCacheConfig.createCaches(config, params)
+		assert config["jcs.region.chunks.cacheattributes"] == "com.anrisoftware.dwarfhustle.model.db.cache.MapChunksCacheAttributes"
+		assert config["jcs.region.chunks.cacheattributes.MaxObjects"] == "100"
+		assert config["jcs.region.chunks.cacheattributes.MemoryCacheName"] == "com.anrisoftware.dwarfhustle.model.db.cache.MapChunksMemoryCache"
+		assert config["jcs.region.chunks.cacheattributes.MaxBytes"] == "1024"
+		assert config["jcs.region.chunks.cacheattributes.ReleaseBlocks"] == "false"
+	}
+
 	@Test
 	void create_cache_with_aux_file() {
 		def config = new Properties()
@@ -0,0 +1,142 @@
+/*
+ * dwarfhustle-model-db - Manages the compile dependencies for the model.
+ * Copyright © 2022-2025 Erwin Müller (erwin.mueller@anrisoftware.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.anrisoftware.dwarfhustle.model.db.cache
+
+import static com.anrisoftware.dwarfhustle.model.api.objects.MapChunk.cid2Id
+
+import org.apache.commons.jcs3.JCS
+import org.apache.commons.jcs3.access.CacheAccess
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+
+import com.anrisoftware.dwarfhustle.model.api.objects.GameChunkPos
+import com.anrisoftware.dwarfhustle.model.api.objects.GameObject
+import com.anrisoftware.dwarfhustle.model.api.objects.MapChunk
+import com.anrisoftware.dwarfhustle.model.db.buffers.MapBlockBuffer
+
+/**
+ * @see MapChunksMemoryCache
+ *
+ * @author Erwin Müller, {@code <erwin@muellerpublic.de>}
+ */
+class MapChunksMemoryCacheTest {
+
+    static final int CHUNK_BYTES = 4 * 4 * 4 * MapBlockBuffer.SIZE
+
+    static CacheAccess<Object, GameObject> cache
+
+    static MapChunksMemoryCache<Object, GameObject> mc
+
+    @BeforeAll
+    static void setupCache() {
+        def config = new Properties()
+        def params = [chunks_test: [:]]
+        params.chunks_test.cache_name = "chunks_test"
+        params.chunks_test.max_objects = 100
+        params.chunks_test.is_eternal = true
+        params.chunks_test.max_bytes = 3 * CHUNK_BYTES
+        params.chunks_test.release_blocks = true
+        JcsCacheConfig.createCaches(config, params)
+        JCS.setConfigProperties(config)
+        cache = JCS.getInstance("chunks_test")
+        mc = MapChunksMemoryCache.getMemoryCache(cache).orElseThrow()
+    }
+
+    @BeforeEach
+    void clearCache() {
+        cache.clear()
+    }
+
+    static MapChunk createChunk(int cid) {
+        return new MapChunk(cid2Id(cid), 0, 4, 4, 4, new GameChunkPos(0, 0, 0, 4, 4, 4))
+    }
+
+    @Test
+    void put_evict_max_bytes() {
+        def chunks = (1..4).collect { createChunk(it) }
+        long evictions = mc.evictionCount
+        chunks.each { cache.put(it.id, it) }
+        assert mc.usedBytes == 3 * CHUNK_BYTES
+        assert mc.evictionCount == evictions + 1
+        assert cache.get(chunks[0].id) == null
+        assert chunks[0].memorySize == 0
+        assert cache.get(chunks[3].id) == chunks[3]
+    }
+
+    @Test
+    void put_referenced_second_chance() {
+        def chunks = (1..4).collect { createChunk(it) }
+        chunks[0..2].each { cache.put(it.id, it) }
+        long hits = mc.hitCount
+        assert cache.get(chunks[0].id) == chunks[0]
+        assert mc.hitCount == hits + 1
+        cache.put(chunks[3].id, chunks[3])
+        assert cache.get(chunks[0].id) == chunks[0]
+        assert cache.get(chunks[1].id) == null
+        assert chunks[0].memorySize == CHUNK_BYTES
+        assert chunks[1].memorySize == 0
+    }
+
+    @Test
+    void put_pinned_not_evicted() {
+        def chunks = (1..4).collect { createChunk(it) }
+        mc.pin(chunks[0].id)
+        try {
+            chunks.each { cache.put(it.id, it) }
+            assert cache.get(chunks[0].id) == chunks[0]
+            assert chunks[0].memorySize == CHUNK_BYTES
+            assert cache.get(chunks[1].id) == null
+        } finally {
+            mc.unpin(chunks[0].id)
+        }
+        assert !mc.isPinned(chunks[0].id)
+    }
+
+    @Test
+    void put_unpacked_chunks_evict_max_bytes() {
+        def chunks = (1..4).collect { createChunk(it) }
+        chunks.each { assert it.packBlocks() }
+        long evictions = mc.evictionCount
+        chunks.each { cache.put(it.id, it) }
+        assert mc.evictionCount == evictions
+        chunks.each {
+            it.getBlocks()
+            assert cache.get(it.id) == it
+        }
+        assert mc.usedBytes == 4 * CHUNK_BYTES
+        cache.put(chunks[3].id, chunks[3])
+        assert mc.usedBytes == 3 * CHUNK_BYTES
+        assert mc.evictionCount == evictions + 1
+    }
+
+    @Test
+    void put_packed_chunk_memory_size() {
+        def chunk = createChunk(1)
+        assert chunk.packBlocks()
+        cache.put(chunk.id, chunk)
+        assert mc.usedBytes == chunk.memorySize
+        assert mc.usedBytes < CHUNK_BYTES
+        chunk.getBlocks()
+        assert cache.get(chunk.id) == chunk
+        assert mc.usedBytes == CHUNK_BYTES
+        cache.remove(chunk.id)
+        assert mc.usedBytes == 0
+        assert mc.statistics.statElements.find { it.name == "Eviction Count" } != null
+    }
+}
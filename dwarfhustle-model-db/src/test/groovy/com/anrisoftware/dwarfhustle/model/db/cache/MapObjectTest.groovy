@@ -0,0 +1,69 @@
+/*
+ * dwarfhustle-model-db - Manages the compile dependencies for the model.
+ * Copyright © 2022-2025 Erwin Müller (erwin.mueller@anrisoftware.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.anrisoftware.dwarfhustle.model.db.cache
+
+import org.eclipse.collections.api.factory.primitive.LongIntMaps
+import org.junit.jupiter.api.Test
+
+/**
+ * @see MapObject
+ *
+ * @author Erwin Müller, {@code <erwin@muellerpublic.de>}
+ */
+class MapObjectTest {
+
+    @Test
+    void add_remove_objects_inline_and_spill() {
+        def mo = new MapObject(10, 1)
+        assert mo.empty
+        assert mo.addObject(1, 100)
+        assert !mo.addObject(1, 100)
+        assert mo.addObject(2, 101)
+        assert mo.size() == 2
+        assert mo.addObject(3, 102)
+        assert mo.addObject(3, 103)
+        assert mo.size() == 4
+        assert mo.oids == LongIntMaps.immutable.empty().newWithKeyValue(100, 1).newWithKeyValue(101, 2)
+                .newWithKeyValue(102, 3).newWithKeyValue(103, 3)
+        assert mo.removeObject(100)
+        assert !mo.removeObject(100)
+        assert mo.removeObject(102)
+        assert mo.size() == 2
+        assert mo.containsObject(101)
+        assert mo.containsObject(103)
+        assert mo.removeObject(101)
+        assert mo.oids == LongIntMaps.immutable.empty().newWithKeyValue(103, 3)
+        assert mo.removeObject(103)
+        assert mo.empty
+    }
+
+    @Test
+    void write_read_stream() {
+        def mo = new MapObject(10, 1)
+        mo.addObject(1, 100)
+        mo.addObject(2, 101)
+        mo.addObject(3, 102)
+        def bout = new ByteArrayOutputStream(512)
+        mo.writeStream(new DataOutputStream(bout))
+        def that = new MapObject()
+        that.readStream(new DataInputStream(new ByteArrayInputStream(bout.toByteArray())))
+        assert that.index == 10
+        assert that.cid == 1
+        assert that.oids == mo.oids
+    }
+}
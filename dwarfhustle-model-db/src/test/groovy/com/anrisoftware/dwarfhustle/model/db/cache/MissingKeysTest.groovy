@@ -0,0 +1,64 @@
+/*
+ * dwarfhustle-model-db - Manages the compile dependencies for the model.
+ * Copyright © 2022-2025 Erwin Müller (erwin.mueller@anrisoftware.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.anrisoftware.dwarfhustle.model.db.cache
+
+import static java.time.Duration.ofMillis
+import static java.time.Duration.ofSeconds
+
+import org.junit.jupiter.api.Test
+
+/**
+ * @see MissingKeys
+ *
+ * @author Erwin Müller, {@code <erwin@muellerpublic.de>}
+ */
+class MissingKeysTest {
+
+    @Test
+    void contains_by_type() {
+        def keys = new MissingKeys(10, ofSeconds(10))
+        keys.add(1, 5)
+        assert keys.contains(1, 5)
+        assert !keys.contains(2, 5)
+        keys.remove(5)
+        assert !keys.contains(1, 5)
+        assert keys.size() == 0
+    }
+
+    @Test
+    void expire_ttl() {
+        def keys = new MissingKeys(10, ofMillis(50))
+        keys.add(1, 5)
+        assert keys.contains(1, 5)
+        Thread.sleep(100)
+        assert !keys.contains(1, 5)
+        assert keys.size() == 0
+    }
+
+    @Test
+    void clear_max_keys() {
+        def keys = new MissingKeys(2, ofSeconds(10))
+        keys.add(1, 1)
+        keys.add(2, 2)
+        assert keys.size() == 2
+        keys.add(1, 3)
+        assert keys.size() == 1
+        assert !keys.contains(1, 1)
+        assert keys.contains(1, 3)
+    }
+}
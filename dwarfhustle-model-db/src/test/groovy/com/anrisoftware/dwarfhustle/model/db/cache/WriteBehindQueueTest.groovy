@@ -0,0 +1,194 @@
+/*
+ * dwarfhustle-model-db - Manages the compile dependencies for the model.
+ * Copyright © 2022-2025 Erwin Müller (erwin.mueller@anrisoftware.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.anrisoftware.dwarfhustle.model.db.cache
+
+import java.time.Duration
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+import org.junit.jupiter.api.Test
+
+import com.anrisoftware.dwarfhustle.model.api.objects.GameMap
+import com.anrisoftware.dwarfhustle.model.api.objects.GameObject
+import com.anrisoftware.dwarfhustle.model.api.objects.ObjectsSetter
+import com.anrisoftware.dwarfhustle.model.api.objects.ObjectsSetter.ObjectsSetterException
+
+/**
+ * @see WriteBehindQueue
+ *
+ * @author Erwin Müller, {@code <erwin@muellerpublic.de>}
+ */
+class WriteBehindQueueTest {
+
+    static class RecordingSetter implements ObjectsSetter {
+
+        final List<List<GameObject>> batches = [].asSynchronized()
+
+        final List<String> ops = [].asSynchronized()
+
+        CountDownLatch block = new CountDownLatch(0)
+
+        long failId = -1
+
+        @Override
+        void set(int type, GameObject go) {
+            set(type, [go])
+        }
+
+        @Override
+        void set(int type, Iterable<GameObject> values) {
+            block.await(10, TimeUnit.SECONDS)
+            if (values.any { it.id == failId }) {
+                throw new ObjectsSetterException("Fail ${failId}")
+            }
+            batches << values.toList()
+            values.each { ops << "set ${it.id}".toString() }
+        }
+
+        @Override
+        void remove(int type, GameObject go) {
+            ops << "remove ${go.id}".toString()
+        }
+    }
+
+    @Test
+    void put_flush_size_batches() {
+        def os = new RecordingSetter()
+        def queue = new WriteBehindQueue(os, 10, 100, "test-store")
+        (1..25).each { queue.put(new GameMap(it, 4, 4, 4)) }
+        queue.close()
+        assert os.batches.sum { it.size() } == 25
+        assert os.batches[0].size() == 10
+        assert queue.storedCount == 25
+        assert queue.flushCount == os.batches.size()
+        assert queue.queueDepth == 0
+    }
+
+    @Test
+    void put_same_id_merged() {
+        def os = new RecordingSetter()
+        def queue = new WriteBehindQueue(os, 10, 100, "test-store")
+        def gm = new GameMap(1, 4, 4, 4)
+        5.times { queue.put(gm) }
+        assert queue.queueDepth == 1
+        assert queue.get(1).is(gm)
+        queue.close()
+        assert os.batches == [[gm]]
+    }
+
+    @Test
+    void put_remove_flush() {
+        def os = new RecordingSetter()
+        def queue = new WriteBehindQueue(os, 10, 100, "test-store")
+        def gm = new GameMap(1, 4, 4, 4)
+        queue.put(gm)
+        queue.remove(gm)
+        assert queue.get(1) == null
+        assert queue.isRemoved(1)
+        queue.flush()
+        assert queue.drain(Duration.ofSeconds(10))
+        assert !queue.isRemoved(1)
+        queue.close()
+        assert os.ops == ["remove 1"]
+    }
+
+    @Test
+    void put_storing_remove_not_resurrected() {
+        def os = new RecordingSetter()
+        os.block = new CountDownLatch(1)
+        def queue = new WriteBehindQueue(os, 10, 100, "test-store")
+        def gm = new GameMap(1, 4, 4, 4)
+        queue.put(gm)
+        queue.flush()
+        queue.remove(gm)
+        assert queue.get(1) == null
+        assert queue.isRemoved(1)
+        os.block.countDown()
+        assert queue.drain(Duration.ofSeconds(10))
+        queue.close()
+        assert os.ops == ["set 1", "remove 1"]
+    }
+
+    @Test
+    void remove_put_again() {
+        def os = new RecordingSetter()
+        def queue = new WriteBehindQueue(os, 10, 100, "test-store")
+        def gm = new GameMap(1, 4, 4, 4)
+        queue.remove(gm)
+        queue.put(gm)
+        assert !queue.isRemoved(1)
+        assert queue.get(1).is(gm)
+        queue.close()
+        assert os.ops == ["set 1"]
+    }
+
+    @Test
+    void put_full_waits_for_store() {
+        def os = new RecordingSetter()
+        os.block = new CountDownLatch(1)
+        def queue = new WriteBehindQueue(os, 2, 4, "test-store")
+        (1..4).each { queue.put(new GameMap(it, 4, 4, 4)) }
+        assert queue.queueDepth == 4
+        def producer = Thread.start { queue.put(new GameMap(5, 4, 4, 4)) }
+        producer.join(200)
+        assert producer.alive
+        assert queue.get(1) != null
+        os.block.countDown()
+        producer.join(10000)
+        assert !producer.alive
+        queue.close()
+        assert queue.waitCount == 1
+        assert queue.storedCount == 5
+        assert queue.maxFlushLatency >= queue.lastFlushLatency
+    }
+
+    @Test
+    void put_poisoned_object_dropped() {
+        def os = new RecordingSetter()
+        os.failId = 3
+        def queue = new WriteBehindQueue(os, 5, 100, "test-store")
+        (1..5).each { queue.put(new GameMap(it, 4, 4, 4)) }
+        assert queue.drain(Duration.ofSeconds(30))
+        queue.close()
+        assert queue.droppedCount == 1
+        assert queue.storedCount == 4
+        assert os.batches.flatten()*.id.sort() == [1, 2, 4, 5]
+        assert queue.flushCount == WriteBehindQueue.MAX_RETRIES
+    }
+
+    @Test
+    void put_full_timeout() {
+        def os = new RecordingSetter()
+        os.block = new CountDownLatch(1)
+        def queue = new WriteBehindQueue(os, 2, 2, "test-store", Duration.ofMillis(200))
+        (1..2).each { queue.put(new GameMap(it, 4, 4, 4)) }
+        def error
+        try {
+            queue.put(new GameMap(3, 4, 4, 4))
+        } catch (ObjectsSetterException e) {
+            error = e
+        }
+        assert error != null
+        assert queue.get(3) == null
+        assert !queue.drain(Duration.ofMillis(100))
+        os.block.countDown()
+        assert queue.drain(Duration.ofSeconds(10))
+        queue.close()
+        assert queue.storedCount == 2
+    }
+}
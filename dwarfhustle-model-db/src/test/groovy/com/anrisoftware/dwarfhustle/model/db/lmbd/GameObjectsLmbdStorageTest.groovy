@@ -20,7 +20,10 @@ package com.anrisoftware.dwarfhustle.model.db.lmbd
 import static java.lang.Math.pow
 
 import java.nio.file.Path
+import java.util.concurrent.Executors
+import java.util.stream.Collectors
 
+import org.eclipse.collections.api.factory.primitive.LongLists
 import org.junit.jupiter.api.BeforeAll
 import org.junit.jupiter.api.Test
 import org.junit.jupiter.api.io.TempDir
@@ -28,6 +31,7 @@ import org.junit.jupiter.api.io.TempDir
 import com.anrisoftware.dwarfhustle.model.api.buildings.Building
 import com.anrisoftware.dwarfhustle.model.api.map.Block
 import com.anrisoftware.dwarfhustle.model.api.objects.GameMap
+import com.anrisoftware.dwarfhustle.model.api.objects.ObjectsGetter.ObjectsGetterException
 import com.anrisoftware.dwarfhustle.model.api.objects.WorldMap
 import com.anrisoftware.dwarfhustle.model.db.buffers.GameMapBuffer
 import com.anrisoftware.dwarfhustle.model.db.buffers.WorldMapBuffer
@@ -96,6 +100,111 @@ class GameObjectsLmbdStorageTest {
         }
     }
 
+    @Test
+    void putObjects_test(@TempDir Path tmp) {
+        long mapSize = 200 * (long) pow(10, 6);
+        def storage = injector.getInstance(GameObjectsLmbdStorageFactory).create(tmp, mapSize)
+        def maps = (1..20000).collect { new GameMap(it, 4, 4, 4) }
+        Collections.shuffle(maps)
+        storage.putObjects(GameMap.OBJECT_TYPE, GameMapBuffer.SIZE, maps, { go, b ->
+            GameMapBuffer.setGameMap(b, 0, go)
+        })
+        def update = (19990..20010).collect {
+            def gm = new GameMap(it, 4, 4, 4)
+            gm.name = 5000
+            gm
+        }
+        storage.putObjects(GameMap.OBJECT_TYPE, GameMapBuffer.SIZE, update, { go, b ->
+            GameMapBuffer.setGameMap(b, 0, go)
+        })
+        int count = 0
+        storage.getObjects(GameMap.OBJECT_TYPE, { count++ })
+        assert count == 20010
+        assert storage.getObject(GameMap.OBJECT_TYPE, 1).id == 1
+        assert storage.getObject(GameMap.OBJECT_TYPE, 19995).name == 5000
+        assert storage.getObject(GameMap.OBJECT_TYPE, 20010).name == 5000
+        storage.close()
+    }
+
+    @Test
+    void getAll_test(@TempDir Path tmp) {
+        long mapSize = 200 * (long) pow(10, 6);
+        def storage = injector.getInstance(GameObjectsLmbdStorageFactory).create(tmp, mapSize)
+        def maps = (1..100).collect { new GameMap(it, 4, 4, 4) }
+        storage.putObjects(GameMap.OBJECT_TYPE, GameMapBuffer.SIZE, maps, { go, b ->
+            GameMapBuffer.setGameMap(b, 0, go)
+        })
+        def all = storage.getAll(GameMap.OBJECT_TYPE, LongLists.immutable.of(1, 50, 100, 101))
+        def async = storage.getAllAsync(GameMap.OBJECT_TYPE, LongLists.immutable.of(2, 3)).toCompletableFuture().get()
+        def asyncOne = storage.getAsync(GameMap.OBJECT_TYPE, 5).toCompletableFuture().get()
+        def executor = Executors.newSingleThreadExecutor()
+        def asyncExecutor = storage.getAllAsync(GameMap.OBJECT_TYPE, LongLists.immutable.of(4), executor).toCompletableFuture().get()
+        executor.shutdown()
+        def error
+        try {
+            storage.getAll(-1, LongLists.immutable.of(1))
+        } catch (ObjectsGetterException e) {
+            error = e
+        }
+        storage.close()
+        assert error != null
+        assert asyncExecutor.get(4).id == 4
+        assert all.size() == 3
+        assert all.get(50).id == 50
+        assert !all.containsKey(101)
+        assert async.keySet().toSortedArray() == [2, 3] as long[]
+        assert asyncOne.id == 5
+    }
+
+    @Test
+    void getObjects_partial_close_test(@TempDir Path tmp) {
+        long mapSize = 200 * (long) pow(10, 6);
+        def storage = injector.getInstance(GameObjectsLmbdStorageFactory).create(tmp, mapSize)
+        def maps = (1..100).collect { new GameMap(it, 4, 4, 4) }
+        storage.putObjects(GameMap.OBJECT_TYPE, GameMapBuffer.SIZE, maps, { go, b ->
+            GameMapBuffer.setGameMap(b, 0, go)
+        })
+        for (int i = 0; i < 1000; i++) {
+            def it = storage.getObjects(GameMap.OBJECT_TYPE)
+            it.withCloseable { ite ->
+                assert ite.next().id == 1
+                assert ite.next().id == 2
+            }
+            assert it.@cursor.@cursor.@closed
+        }
+        storage.putObjects(GameMap.OBJECT_TYPE, GameMapBuffer.SIZE, [new GameMap(101, 4, 4, 4)], { go, b ->
+            GameMapBuffer.setGameMap(b, 0, go)
+        })
+        int count = 0
+        storage.getObjects(GameMap.OBJECT_TYPE).withCloseable { ite ->
+            for (def go : ite) {
+                count++
+            }
+        }
+        storage.close()
+        assert count == 101
+    }
+
+    @Test
+    void streamObjects_test(@TempDir Path tmp) {
+        long mapSize = 200 * (long) pow(10, 6);
+        def storage = injector.getInstance(GameObjectsLmbdStorageFactory).create(tmp, mapSize)
+        def ids = (1..50000).collect { it * 7919L }
+        def maps = ids.collect { new GameMap(it, 4, 4, 4) }
+        storage.putObjects(GameMap.OBJECT_TYPE, GameMapBuffer.SIZE, maps, { go, b ->
+            GameMapBuffer.setGameMap(b, 0, go)
+        })
+        def parallel = storage.streamObjects(GameMap.OBJECT_TYPE, true).map({ it.id }).collect(Collectors.toList())
+        def sequential = storage.streamObjects(GameMap.OBJECT_TYPE, false).map({ it.id }).collect(Collectors.toList())
+        def first = storage.streamObjects(GameMap.OBJECT_TYPE, true).limit(10).map({ it.id }).collect(Collectors.toList())
+        def empty = storage.streamObjects(WorldMap.OBJECT_TYPE, true).count()
+        storage.close()
+        assert parallel == ids
+        assert sequential == ids
+        assert first == ids.take(10)
+        assert empty == 0
+    }
+
     @Test
     //@org.junit.jupiter.api.Disabled
     void read_objects_test() {
@@ -20,7 +20,9 @@ package com.anrisoftware.dwarfhustle.model.db.lmbd
 import static com.anrisoftware.dwarfhustle.model.api.objects.MapChunk.cid2Id
 
 import java.nio.file.Path
+import java.time.Duration
 
+import org.eclipse.collections.api.factory.primitive.LongLists
 import org.eclipse.collections.api.factory.primitive.LongObjectMaps
 import org.junit.jupiter.api.BeforeAll
 import org.junit.jupiter.api.Test
@@ -33,6 +35,7 @@ import com.anrisoftware.dwarfhustle.model.api.objects.MapBlock
 import com.anrisoftware.dwarfhustle.model.api.objects.MapChunk
 import com.anrisoftware.dwarfhustle.model.api.objects.PropertiesSet
 import com.anrisoftware.dwarfhustle.model.db.buffers.MapBlockBuffer
+import com.anrisoftware.dwarfhustle.model.db.buffers.MapChunkBuffer
 import com.anrisoftware.dwarfhustle.model.db.lmbd.MapChunksLmbdStorage.MapChunksLmbdStorageFactory
 import com.google.inject.Guice
 import com.google.inject.Injector
@@ -131,4 +134,213 @@ class MapChunksLmbdStorageTest {
         assert thatChunks.size() == chunks.size()
         storage.close()
     }
+
+    @Test
+    void set_iterable_test(@TempDir Path tmp) {
+        long mapSize = 10 * (long) Math.pow(10, 9);
+        def storage = injector.getInstance(MapChunksLmbdStorageFactory).create(tmp, mapSize)
+        def chunks = createChunks()
+        storage.set(MapChunk.OBJECT_TYPE, { chunks.iterator() } as Iterable)
+        chunks.each {
+            assert storage.getChunk(it.cid).pos == it.pos
+        }
+        storage.close()
+    }
+
+    @Test
+    void getAll_test(@TempDir Path tmp) {
+        long mapSize = 10 * (long) Math.pow(10, 9);
+        def storage = injector.getInstance(MapChunksLmbdStorageFactory).create(tmp, mapSize)
+        def chunks = createChunks()
+        createBlock chunks, 1, 0, 0, 1
+        storage.putChunks(chunks)
+        def ids = LongLists.mutable.of(cid2Id(1), cid2Id(2), cid2Id(10000))
+        def thatChunks = storage.getAll(MapChunk.OBJECT_TYPE, ids)
+        storage.close()
+        assert thatChunks.size() == 2
+        assert thatChunks.get(cid2Id(1)).pos == chunks[1].pos
+        assert thatChunks.get(cid2Id(2)).pos == chunks[2].pos
+    }
+
+    @Test
+    void openView_test(@TempDir Path tmp) {
+        long mapSize = 10 * (long) Math.pow(10, 9);
+        def storage = injector.getInstance(MapChunksLmbdStorageFactory).create(tmp, mapSize)
+        def chunks = createChunks()
+        createBlock chunks, 1, 0, 0, 1
+        storage.putChunks(chunks)
+        storage.openView().withCloseable { view ->
+            MapChunk thatChunk = view.getChunk(1)
+            assert thatChunk.blocksView
+            assert view.getChunk(1).is(thatChunk)
+            int off = GameChunkPos.calcIndex(16, 16, 16, 0, 0, 0, 0, 0, 1)
+            assert MapBlockBuffer.getMaterial(thatChunk.blocks, off) == 200
+            MapBlockBuffer.setMaterial(thatChunk.writableBlocks, off, 201)
+            assert !thatChunk.blocksView
+            assert MapBlockBuffer.getMaterial(thatChunk.blocks, off) == 201
+            view.refresh()
+            assert MapBlockBuffer.getMaterial(view.getChunk(1).blocks, off) == 200
+            assert view.getChunk(10000) == null
+        }
+        assert storage.getChunk(10000) == null
+        storage.close()
+    }
+
+    @Test
+    void openView_other_thread_test(@TempDir Path tmp) {
+        long mapSize = 10 * (long) Math.pow(10, 9);
+        def storage = injector.getInstance(MapChunksLmbdStorageFactory).create(tmp, mapSize)
+        storage.putChunks(createChunks())
+        storage.openView().withCloseable { view ->
+            def error
+            def t = Thread.start {
+                try {
+                    view.getChunk(1)
+                } catch (IllegalStateException e) {
+                    error = e
+                }
+            }
+            t.join()
+            assert error != null
+            assert view.getChunk(1) != null
+        }
+        storage.close()
+    }
+
+    @Test
+    void putChunk_groupCommit_test(@TempDir Path tmp) {
+        long mapSize = 10 * (long) Math.pow(10, 9);
+        def storage = injector.getInstance(MapChunksLmbdStorageFactory).create(tmp, mapSize)
+        storage.setGroupCommit(10, Duration.ZERO)
+        def chunks = createChunks()
+        chunks.each {
+            storage.putChunk(it)
+            storage.putChunk(it)
+        }
+        assert storage.getChunk(1).is(chunks[1])
+        storage.openView().withCloseable { view ->
+            chunks.each {
+                assert view.getChunk(it.cid).pos == it.pos
+            }
+        }
+        storage.close()
+    }
+
+    @Test
+    void putChunk_delta_test(@TempDir Path tmp) {
+        long mapSize = 10 * (long) Math.pow(10, 9);
+        def storage = injector.getInstance(MapChunksLmbdStorageFactory).create(tmp, mapSize)
+        storage.putChunks(createChunks())
+        def expected = [:]
+        for (int i = 0; i < 40; i++) {
+            MapChunk chunk = storage.getChunk(1)
+            assert chunk.dirtyBlocks.isEmpty()
+            int off = (i * 97 % 4096) * MapBlockBuffer.SIZE
+            MapBlockBuffer.setMaterial(chunk.getWritableBlocks(off), off, 1000 + i)
+            MapBlockBuffer.setMaterial(chunk.getWritableBlocks(off + MapBlockBuffer.SIZE), off + MapBlockBuffer.SIZE, 2000 + i)
+            assert chunk.dirtyBlocks.cardinality() == 2
+            storage.putChunk(chunk)
+            expected[off] = 1000 + i
+            expected[off + MapBlockBuffer.SIZE] = 2000 + i
+        }
+        def assertBlocks = { MapChunk c ->
+            expected.each { off, m -> assert MapBlockBuffer.getMaterial(c.blocks, off) == m }
+        }
+        assertBlocks storage.getChunk(1)
+        storage.openView().withCloseable { view ->
+            assertBlocks view.getChunk(1)
+        }
+        storage.compactDeltas()
+        storage.openView().withCloseable { view ->
+            assert view.getChunk(1).blocksView
+            assertBlocks view.getChunk(1)
+        }
+        storage.close()
+        storage = injector.getInstance(MapChunksLmbdStorageFactory).create(tmp, mapSize)
+        assertBlocks storage.getChunk(1)
+        storage.close()
+    }
+
+    @Test
+    void putChunk_getBlocks_write_test(@TempDir Path tmp) {
+        long mapSize = 10 * (long) Math.pow(10, 9);
+        def storage = injector.getInstance(MapChunksLmbdStorageFactory).create(tmp, mapSize)
+        def chunks = createChunks()
+        MapChunk chunk = chunks[1]
+        storage.putChunks(chunks)
+        assert chunk.dirtyBlocks.isEmpty()
+        int off = 10 * MapBlockBuffer.SIZE
+        MapBlockBuffer.setMaterial(chunk.getBlocks(), off, 300)
+        assert chunk.dirtyBlocks == null
+        storage.putChunk(chunk)
+        assert chunk.dirtyBlocks.isEmpty()
+        storage.openView().withCloseable { view ->
+            assert MapBlockBuffer.getMaterial(view.getChunk(1).blocks, off) == 300
+        }
+        int stamp = chunk.dirtyStamp
+        MapBlockBuffer.setMaterial(chunk.getWritableBlocks(off), off, 301)
+        assert !chunk.clearDirtyBlocks(stamp)
+        assert chunk.dirtyBlocks.cardinality() == 1
+        storage.putChunk(chunk)
+        storage.close()
+        storage = injector.getInstance(MapChunksLmbdStorageFactory).create(tmp, mapSize)
+        assert MapBlockBuffer.getMaterial(storage.getChunk(1).blocks, off) == 301
+        storage.close()
+    }
+
+    @Test
+    void putChunk_rle_test(@TempDir Path tmp) {
+        long mapSize = 10 * (long) Math.pow(10, 9);
+        def storage = injector.getInstance(MapChunksLmbdStorageFactory).create(tmp, mapSize)
+        storage.blocksFormat = MapChunkBuffer.FORMAT_RLE
+        def chunks = createChunks()
+        createBlock chunks, 1, 0, 0, 1
+        storage.putChunks(chunks)
+        int off = GameChunkPos.calcIndex(16, 16, 16, 0, 0, 0, 0, 0, 1)
+        MapChunk chunk = storage.getChunk(1)
+        assert MapBlockBuffer.getMaterial(chunk.blocks, off) == 200
+        MapBlockBuffer.setMaterial(chunk.getWritableBlocks(off + MapBlockBuffer.SIZE), off + MapBlockBuffer.SIZE, 201)
+        storage.putChunk(chunk)
+        storage.openView().withCloseable { view ->
+            MapChunk thatChunk = view.getChunk(1)
+            assert MapBlockBuffer.getMaterial(thatChunk.blocks, off) == 200
+            assert MapBlockBuffer.getMaterial(thatChunk.blocks, off + MapBlockBuffer.SIZE) == 201
+        }
+        storage.compactDeltas()
+        chunk = storage.getChunk(1)
+        assert MapBlockBuffer.getMaterial(chunk.blocks, off) == 200
+        assert MapBlockBuffer.getMaterial(chunk.blocks, off + MapBlockBuffer.SIZE) == 201
+        storage.close()
+    }
+
+    @Test
+    void getChunk_packBlocks_test(@TempDir Path tmp) {
+        long mapSize = 10 * (long) Math.pow(10, 9);
+        def storage = injector.getInstance(MapChunksLmbdStorageFactory).create(tmp, mapSize)
+        storage.packBlocks = true
+        def chunks = createChunks()
+        int off = GameChunkPos.calcIndex(16, 16, 16, 0, 0, 0, 0, 0, 1) * MapBlockBuffer.SIZE
+        MapBlockBuffer.setMaterial(chunks[1].blocks, off, 200)
+        storage.putChunks(chunks)
+        MapChunk chunk = storage.getChunk(1)
+        assert chunk.palette != null
+        assert MapBlockBuffer.getMaterial(chunk, off) == 200
+        MapBlockBuffer.setMaterial(chunk, off + MapBlockBuffer.SIZE, 201)
+        assert chunk.palette != null
+        assert MapBlockBuffer.getMaterial(chunk, off + MapBlockBuffer.SIZE) == 201
+        assert chunk.dirtyBlocks.cardinality() == 1
+        storage.putChunk(chunk)
+        chunk = storage.getChunk(1)
+        assert chunk.palette != null
+        assert MapBlockBuffer.getMaterial(chunk, off) == 200
+        assert MapBlockBuffer.getMaterial(chunk, off + MapBlockBuffer.SIZE) == 201
+        assert MapBlockBuffer.getMaterial(chunk.blocks, off + MapBlockBuffer.SIZE) == 201
+        assert chunk.palette == null
+        MapBlockBuffer.setMaterial(chunk.blocks, off + 2 * MapBlockBuffer.SIZE, 202)
+        storage.putChunk(chunk)
+        assert chunk.palette != null
+        assert MapBlockBuffer.getMaterial(chunk, off + 2 * MapBlockBuffer.SIZE) == 202
+        assert MapBlockBuffer.getMaterial(storage.getChunk(1), off + 2 * MapBlockBuffer.SIZE) == 202
+        storage.close()
+    }
 }
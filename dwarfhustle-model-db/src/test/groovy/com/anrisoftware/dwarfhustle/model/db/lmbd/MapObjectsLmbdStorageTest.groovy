@@ -19,17 +19,26 @@ package com.anrisoftware.dwarfhustle.model.db.lmbd
 
 import static java.lang.Math.pow
 
+import java.nio.ByteBuffer
 import java.nio.file.Path
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.stream.IntStream
 
+import org.agrona.concurrent.UnsafeBuffer
 import org.eclipse.collections.api.factory.primitive.LongLists
 import org.eclipse.collections.api.list.primitive.LongList
+import org.eclipse.collections.impl.list.primitive.LongInterval
 import org.junit.jupiter.api.BeforeAll
 import org.junit.jupiter.api.Test
 import org.junit.jupiter.api.io.TempDir
+import org.lmdbjava.DbiFlags
+import org.lmdbjava.DirectBufferProxy
+import org.lmdbjava.Env
 
 import com.anrisoftware.dwarfhustle.model.api.objects.GameBlockPos
 import com.anrisoftware.dwarfhustle.model.api.objects.GameMap
 import com.anrisoftware.dwarfhustle.model.api.vegetations.Grass
+import com.anrisoftware.dwarfhustle.model.db.cache.MapObject
 import com.anrisoftware.dwarfhustle.model.db.lmbd.MapObjectsLmbdStorage.MapObjectsLmbdStorageFactory
 import com.google.inject.Guice
 import com.google.inject.Injector
@@ -157,6 +166,35 @@ class MapObjectsLmbdStorageTest {
         log.info "getObjects_benchmark done."
     }
 
+    @Test
+    void getObjectsParallel_benchmark(@TempDir Path tmp) {
+        def gm = new GameMap(1, 64, 64, 8)
+        long mapSize = 200 * (long) pow(10, 6);
+        def storage = injector.getInstance(MapObjectsLmbdStorageFactory).create(tmp, gm, mapSize)
+        int type = Grass.OBJECT_TYPE
+        for (int z = 0; z < gm.depth; z++) {
+            for (int y = 0; y < gm.height; y++) {
+                for (int x = 0; x < gm.width; x++) {
+                    storage.putObjects(1, GameBlockPos.calcIndex(gm, new GameBlockPos(x, y, z)), type,
+                            LongLists.mutable.with(calcObjectId(gm, x, y, z)))
+                }
+            }
+        }
+        log.info "getObjectsParallel_benchmark {} objects", gm.size
+        long timeNow = System.currentTimeMillis()
+        def found = IntStream.range(0, gm.size).parallel().map({ i ->
+            int count = 0
+            storage.getObjects(i % gm.width, (i / gm.width as int) % gm.height, i / (gm.width * gm.height) as int, { _cid, _type, _id, _x, _y, _z ->
+                assert _id == calcObjectId(gm, _x, _y, _z)
+                count++
+            })
+            count
+        }).sum()
+        log.info "getObjectsParallel_benchmark done in {}.", (System.currentTimeMillis() - timeNow) / 1000f
+        storage.close()
+        assert found == gm.size
+    }
+
     @Test
     void getObjectsRange_test(@TempDir Path tmp) {
         int zz = 32
@@ -181,6 +219,122 @@ class MapObjectsLmbdStorageTest {
         log.info "getObjectsRange_test done."
     }
 
+    @Test
+    void getObjectsRange_sweep_test(@TempDir Path tmp) {
+        def gm = new GameMap(1, 64, 64, 16)
+        long mapSize = 200 * (long) pow(10, 6);
+        def storage = injector.getInstance(MapObjectsLmbdStorageFactory).create(tmp, gm, mapSize)
+        int type = Grass.OBJECT_TYPE
+        for (int z = 0; z < gm.depth; z += 3) {
+            for (int y = 0; y < gm.height; y += 2) {
+                for (int x = 0; x < gm.width; x++) {
+                    storage.putObject(x, y, z, 1, type, calcObjectId(gm, x, y, z))
+                }
+            }
+        }
+        def found = []
+        storage.getObjectsRange(5, 7, 2, 40, 19, 11, { _cid, _type, _id, _x, _y, _z ->
+            assert _id == calcObjectId(gm, _x, _y, _z)
+            found << _id
+        })
+        def expected = []
+        for (int z = 3; z < 11; z += 3) {
+            for (int y = 8; y < 19; y += 2) {
+                for (int x = 5; x < 40; x++) {
+                    expected << calcObjectId(gm, x, y, z)
+                }
+            }
+        }
+        storage.close()
+        assert found.sort() == expected.sort()
+    }
+
+    @Test
+    void migrate_index_db_test(@TempDir Path tmp) {
+        def gm = new GameMap(1, 32, 32, 8)
+        def env = Env.create(DirectBufferProxy.PROXY_DB).setMapSize(10 * (long) pow(10, 6)).setMaxDbs(1).open(tmp.toFile())
+        def db = env.openDbi("pos-ids", DbiFlags.MDB_CREATE, DbiFlags.MDB_DUPSORT, DbiFlags.MDB_DUPFIXED, DbiFlags.MDB_INTEGERDUP)
+        def key = new UnsafeBuffer(ByteBuffer.allocateDirect(4))
+        def val = new UnsafeBuffer(ByteBuffer.allocateDirect(MapObjectValue.SIZE))
+        env.txnWrite().withCloseable { txn ->
+            [[1, 2, 3], [31, 31, 7], [0, 0, 0]].each { x, y, z ->
+                key.putInt(0, GameBlockPos.calcIndex(gm, x, y, z))
+                MapObjectValue.setId(val, 0, calcObjectId(gm, x, y, z))
+                MapObjectValue.setType(val, 0, Grass.OBJECT_TYPE)
+                MapObjectValue.setCid(val, 0, 1)
+                db.put(txn, key, val)
+            }
+            txn.commit()
+        }
+        env.close()
+        def storage = injector.getInstance(MapObjectsLmbdStorageFactory).create(tmp, gm, 10 * (long) pow(10, 6))
+        def found = []
+        storage.getObjectsRange(0, 0, 0, 32, 32, 8, { _cid, _type, _id, _x, _y, _z ->
+            assert _id == calcObjectId(gm, _x, _y, _z)
+            found << _id
+        })
+        MapObject mo = storage.get(MapObject.OBJECT_TYPE, GameBlockPos.calcIndex(gm, 31, 31, 7))
+        storage.close()
+        assert found.size() == 3
+        assert mo.oids.containsKey(calcObjectId(gm, 31, 31, 7))
+    }
+
+    @Test
+    void putObjects_grow_map_test(@TempDir Path tmp) {
+        def gm = new GameMap(1, 32, 32, 8)
+        def storage = injector.getInstance(MapObjectsLmbdStorageFactory).create(tmp, gm, 1024 * 1024)
+        def objects = LongLists.mutable.withAll(LongInterval.oneTo(200000))
+        storage.putObjects(1, 0, Grass.OBJECT_TYPE, objects)
+        int count = 0
+        storage.getObjects(0, 0, 0, { _cid, _type, _id, _x, _y, _z -> count++ })
+        def stats = storage.stats
+        storage.close()
+        log.info "putObjects_grow_map_test {}", stats
+        assert count == 200000
+        assert stats.growCount > 0
+        assert stats.mapSize > 1024 * 1024
+    }
+
+    @Test
+    void filled_blocks_test(@TempDir Path tmp) {
+        def gm = new GameMap(1, 32, 32, 8)
+        def storage = injector.getInstance(MapObjectsLmbdStorageFactory).create(tmp, gm, 10 * (long) pow(10, 6))
+        storage.putObject(1, 2, 3, 1, Grass.OBJECT_TYPE, calcObjectId(gm, 1, 2, 3))
+        storage.putObject(1, 2, 3, 1, Grass.OBJECT_TYPE, calcObjectId(gm, 1, 2, 3) + 1)
+        storage.putObjects(1, GameBlockPos.calcIndex(gm, 31, 31, 7), Grass.OBJECT_TYPE, LongLists.mutable.with(5))
+        assert storage.isFilled(1, 2, 3)
+        assert storage.isFilled(31, 31, 7)
+        assert !storage.isFilled(2, 2, 3)
+        MapObject mo = storage.get(MapObject.OBJECT_TYPE, GameBlockPos.calcIndex(gm, 2, 2, 3))
+        assert mo.empty
+        storage.removeObject(1, 2, 3, 1, Grass.OBJECT_TYPE, calcObjectId(gm, 1, 2, 3))
+        assert storage.isFilled(1, 2, 3)
+        storage.removeObject(1, 2, 3, 1, Grass.OBJECT_TYPE, calcObjectId(gm, 1, 2, 3) + 1)
+        assert !storage.isFilled(1, 2, 3)
+        storage.close()
+        storage = injector.getInstance(MapObjectsLmbdStorageFactory).create(tmp, gm, 10 * (long) pow(10, 6))
+        assert !storage.isFilled(1, 2, 3)
+        assert storage.isFilled(31, 31, 7)
+        storage.close()
+    }
+
+    @Test
+    void read_short_lived_threads_test(@TempDir Path tmp) {
+        def gm = new GameMap(1, 32, 32, 8)
+        def storage = injector.getInstance(MapObjectsLmbdStorageFactory).create(tmp, gm, 10 * (long) pow(10, 6))
+        storage.putObject(1, 2, 3, 1, Grass.OBJECT_TYPE, calcObjectId(gm, 1, 2, 3))
+        def counts = new AtomicInteger()
+        2000.times {
+            def t = Thread.start {
+                storage.getObjects(1, 2, 3, { cid, type, id, x, y, z -> counts.incrementAndGet() })
+            }
+            t.join()
+        }
+        assert counts.get() == 2000
+        assert storage.readTxn.idleCount == 1
+        storage.close()
+    }
+
     static LongList createObjects(GameMap gm, int xx, int yy, int zz) {
         def rnd = new Random()
         def objects = LongLists.mutable.withInitialCapacity(xx * yy * zz)
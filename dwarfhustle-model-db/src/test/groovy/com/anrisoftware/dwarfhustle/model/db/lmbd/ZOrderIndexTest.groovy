@@ -0,0 +1,80 @@
+/*
+ * dwarfhustle-model-db - Manages the compile dependencies for the model.
+ * Copyright © 2022-2025 Erwin Müller (erwin.mueller@anrisoftware.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.anrisoftware.dwarfhustle.model.db.lmbd
+
+import static org.junit.jupiter.params.provider.Arguments.of
+
+import java.util.stream.Stream
+
+import org.junit.jupiter.params.ParameterizedTest
+import org.junit.jupiter.params.provider.MethodSource
+
+/**
+ * @see ZOrderIndex
+ *
+ * @author Erwin Müller, {@code <erwin@muellerpublic.de>}
+ */
+class ZOrderIndexTest {
+
+    static Stream encode_decode() {
+        Stream.of(
+                of(0, 0, 0, 0L),
+                of(1, 0, 0, 1L),
+                of(0, 1, 0, 2L),
+                of(0, 0, 1, 4L),
+                of(1, 1, 1, 7L),
+                of(2, 0, 0, 8L),
+                of(3, 5, 7, 0b110_101_111L),
+                of(0x1fffff, 0x1fffff, 0x1fffff, 0x7fffffffffffffffL),
+                )
+    }
+
+    @ParameterizedTest
+    @MethodSource()
+    void encode_decode(int x, int y, int z, long expected) {
+        def code = ZOrderIndex.encode(x, y, z)
+        assert code == expected
+        assert ZOrderIndex.decodeX(code) == x
+        assert ZOrderIndex.decodeY(code) == y
+        assert ZOrderIndex.decodeZ(code) == z
+    }
+
+    static Stream nextInside() {
+        Stream.of(
+                of(0, 0, 0, 8, 8, 8),
+                of(1, 2, 3, 5, 6, 7),
+                of(3, 0, 1, 12, 4, 6),
+                of(7, 9, 2, 8, 16, 3),
+                )
+    }
+
+    @ParameterizedTest
+    @MethodSource()
+    void nextInside(int sx, int sy, int sz, int ex, int ey, int ez) {
+        long zmin = ZOrderIndex.encode(sx, sy, sz)
+        long zmax = ZOrderIndex.encode(ex - 1, ey - 1, ez - 1)
+        long expected = -1
+        for (long code = zmax; code >= zmin; code--) {
+            if (ZOrderIndex.isInside(code, sx, sy, sz, ex, ey, ez)) {
+                expected = code
+            } else {
+                assert ZOrderIndex.nextInside(code, zmin, zmax) == expected
+            }
+        }
+    }
+}
@@ -26,7 +26,6 @@ import static java.util.concurrent.CompletableFuture.supplyAsync;
 import java.time.Duration;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
-import java.util.function.Consumer;
 
 import org.apache.commons.jcs3.JCS;
 import org.apache.commons.jcs3.access.CacheAccess;
@@ -141,11 +140,6 @@ public class ImporterChunksJcsCacheActor extends AbstractJcsCacheActor {
         // nothing to do
     }
 
-    @Override
-    protected void retrieveValueFromBackend(CacheGetMessage<?> m, Consumer<GameObject> consumer) {
-        consumer.accept(og.get(m.type, m.key));
-    }
-
     @Override
     protected <T extends GameObject> T getValueFromBackend(int type, long key) {
         return og.get(type, key);
@@ -42,11 +42,13 @@ import com.anrisoftware.dwarfhustle.model.api.objects.GameMap;
 import com.anrisoftware.dwarfhustle.model.api.objects.IdsObjectsProvider.IdsObjects;
 import com.anrisoftware.dwarfhustle.model.api.objects.MapChunk;
 import com.anrisoftware.dwarfhustle.model.api.objects.ObjectsGetter;
+import com.anrisoftware.dwarfhustle.model.db.buffers.MapBlockBuffer;
 import com.anrisoftware.dwarfhustle.model.db.buffers.MapChunkBuffer;
 import com.anrisoftware.dwarfhustle.model.db.cache.AbstractJcsCacheActor;
 import com.anrisoftware.dwarfhustle.model.db.cache.MapChunksJcsCacheActor;
 import com.anrisoftware.dwarfhustle.model.db.cache.StoredObjectsJcsCacheActor;
 import com.anrisoftware.dwarfhustle.model.db.cache.StringObjectsJcsCacheActor;
+import com.anrisoftware.dwarfhustle.model.db.lmbd.LmbdEnv;
 import com.anrisoftware.dwarfhustle.model.db.lmbd.MapChunksLmbdStorage.MapChunksLmbdStorageFactory;
 import com.anrisoftware.dwarfhustle.model.db.strings.StringsLuceneStorage.StringsLuceneStorageFactory;
 import com.anrisoftware.dwarfhustle.model.knowledge.evrete.TerrainKnowledge;
@@ -169,8 +171,10 @@ public class ImporterMapImage2DbActor {
         var wm = getWorldMap(og, gm.getWorld());
         var chunksPath = Path.of(m.root, format("%d-%d", wm.getId(), gm.getId()));
         chunksPath.toFile().mkdir();
-        final long mapSize = 10 * (long) Math.pow(10, 9);
+        final long mapSize = LmbdEnv.calcMapSize(gm, MapBlockBuffer.SIZE);
         var chunksStorage = chunksStorageFactory.create(chunksPath, mapSize);
+        chunksStorage.setGroupCommit(4096, ofSeconds(1));
+        chunksStorage.setBlocksFormat(MapChunkBuffer.FORMAT_RLE);
         ImporterChunksJcsCacheActor.create(injector, ofSeconds(1), chunksStorage, chunksStorage)
                 .whenComplete((cache, ex) -> {
                     if (ex != null) {
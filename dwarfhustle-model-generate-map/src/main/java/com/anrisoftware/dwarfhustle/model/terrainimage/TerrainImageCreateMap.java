@@ -45,6 +45,7 @@ import com.anrisoftware.dwarfhustle.model.api.objects.GameChunkPos;
 import com.anrisoftware.dwarfhustle.model.api.objects.GameMap;
 import com.anrisoftware.dwarfhustle.model.api.objects.MapBlock;
 import com.anrisoftware.dwarfhustle.model.api.objects.MapChunk;
+import com.anrisoftware.dwarfhustle.model.api.objects.MapChunksIndex;
 import com.anrisoftware.dwarfhustle.model.api.objects.NeighboringDir;
 import com.anrisoftware.dwarfhustle.model.api.objects.ObjectsGetter;
 import com.anrisoftware.dwarfhustle.model.api.objects.ObjectsSetter;
@@ -183,24 +184,26 @@ public class TerrainImageCreateMap {
 
     @SneakyThrows
     private void updateTerrainParallelAllChunks(Knowledge rules, ForkJoinPool pool) {
+        var index = MapChunksIndex.create(mcRoot, getter);
         pool.submit(() -> IntStream.range(0, chunksCount).parallel().forEach((i) -> {
             var c = getChunk(getter, MapChunk.cid2Id(i));
             if (c.isLeaf()) {
-                updateTerrainBlocks(rules, c);
+                c = index.getLeaf(i, getter);
+                updateTerrainBlocks(rules, c, index);
                 setChunk(storage, c);
             }
             this.chunksDone.incrementAndGet();
         })).get();
     }
 
-    private void updateTerrainBlocks(Knowledge knowledge, MapChunk chunk) {
+    private void updateTerrainBlocks(Knowledge knowledge, MapChunk chunk, MapChunksIndex index) {
         var session = knowledge.newStatelessSession();
         var pos = chunk.getPos();
         for (int z = pos.z; z < pos.ep.z; z++) {
             for (int y = pos.y; y < pos.ep.y; y++) {
                 for (int x = pos.x; x < pos.ep.x; x++) {
-                    session.insert(new BlockFact(getter, setter, chunk, x, y, z, gm.getWidth(), gm.getHeight(),
-                            gm.getDepth()));
+                    session.insert(new BlockFact(getter, setter, chunk, index, x, y, z, gm.getWidth(),
+                            gm.getHeight(), gm.getDepth()));
                 }
             }
         }
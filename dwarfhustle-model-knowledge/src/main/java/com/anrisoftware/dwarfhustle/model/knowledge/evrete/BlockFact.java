@@ -33,18 +33,17 @@ import static com.anrisoftware.dwarfhustle.model.api.objects.NeighboringDir.SE;
 import static com.anrisoftware.dwarfhustle.model.api.objects.NeighboringDir.U;
 import static com.anrisoftware.dwarfhustle.model.api.objects.NeighboringDir.W;
 import static com.anrisoftware.dwarfhustle.model.db.buffers.MapBlockBuffer.calcOff;
-import static com.anrisoftware.dwarfhustle.model.db.buffers.MapChunkBuffer.findChunk;
 
 import com.anrisoftware.dwarfhustle.model.api.objects.GameBlockPos;
 import com.anrisoftware.dwarfhustle.model.api.objects.MapBlockFlags;
 import com.anrisoftware.dwarfhustle.model.api.objects.MapChunk;
+import com.anrisoftware.dwarfhustle.model.api.objects.MapChunksIndex;
 import com.anrisoftware.dwarfhustle.model.api.objects.NeighboringDir;
 import com.anrisoftware.dwarfhustle.model.api.objects.ObjectsGetter;
 import com.anrisoftware.dwarfhustle.model.api.objects.ObjectsSetter;
 import com.anrisoftware.dwarfhustle.model.db.buffers.MapBlockBuffer;
 import com.anrisoftware.dwarfhustle.model.db.buffers.MapChunkBuffer;
 
-import lombok.RequiredArgsConstructor;
 import lombok.ToString;
 
 /**
@@ -52,7 +51,6 @@ import lombok.ToString;
  * <p>
  * 
  */
-@RequiredArgsConstructor
 @ToString
 public class BlockFact {
 
@@ -77,12 +75,45 @@ public class BlockFact {
 
     public final int d;
 
+    /**
+     * The optional {@link MapChunksIndex} to find the chunk of a block. The
+     * chunks tree is descended from the root if it is {@code null}.
+     */
+    @ToString.Exclude
+    public final MapChunksIndex index;
+
+    public BlockFact(ObjectsGetter getter, ObjectsSetter setter, MapChunk root, int x, int y, int z, int w, int h,
+            int d) {
+        this(getter, setter, root, null, x, y, z, w, h, d);
+    }
+
+    public BlockFact(ObjectsGetter getter, ObjectsSetter setter, MapChunk root, MapChunksIndex index, int x, int y,
+            int z, int w, int h, int d) {
+        this.getter = getter;
+        this.setter = setter;
+        this.root = root;
+        this.index = index;
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.w = w;
+        this.h = h;
+        this.d = d;
+    }
+
     public GameBlockPos getPos() {
         return new GameBlockPos(x, y, z);
     }
 
     public MapChunk getChunk() {
-        return findChunk(root, x, y, z, getter);
+        return findChunk(x, y, z);
+    }
+
+    private MapChunk findChunk(int x, int y, int z) {
+        if (index != null) {
+            return index.getChunk(x, y, z, getter);
+        }
+        return MapChunkBuffer.findChunk(root, x, y, z, getter);
     }
 
     public int getW1() {
@@ -98,9 +129,9 @@ public class BlockFact {
     }
 
     public void setMaterial(int x, int y, int z, int m) {
-        var chunk = findChunk(root, x, y, z, getter);
+        var chunk = findChunk(x, y, z);
         final int off = calcOff(chunk, x, y, z);
-        MapBlockBuffer.setMaterial(chunk.getBlocks(), off, m);
+        MapBlockBuffer.setMaterial(chunk, off, m);
         setChunk(setter, chunk);
     }
 
@@ -109,9 +140,9 @@ public class BlockFact {
     }
 
     public int getMaterial(int x, int y, int z) {
-        var chunk = findChunk(root, x, y, z, getter);
+        var chunk = findChunk(x, y, z);
         final int off = calcOff(chunk, x, y, z);
-        return MapBlockBuffer.getMaterial(chunk.getBlocks(), off);
+        return MapBlockBuffer.getMaterial(chunk, off);
     }
 
     public int getMaterial() {
@@ -119,9 +150,9 @@ public class BlockFact {
     }
 
     public void setObject(int x, int y, int z, int o) {
-        var chunk = findChunk(root, x, y, z, getter);
+        var chunk = findChunk(x, y, z);
         final int off = calcOff(chunk, x, y, z);
-        MapBlockBuffer.setObject(chunk.getBlocks(), off, o);
+        MapBlockBuffer.setObject(chunk, off, o);
         setChunk(setter, chunk);
     }
 
@@ -130,9 +161,9 @@ public class BlockFact {
     }
 
     public int getObject(int x, int y, int z) {
-        var chunk = findChunk(root, x, y, z, getter);
+        var chunk = findChunk(x, y, z);
         final int off = calcOff(chunk, x, y, z);
-        return MapBlockBuffer.getObject(chunk.getBlocks(), off);
+        return MapBlockBuffer.getObject(chunk, off);
     }
 
     public int getObject() {
@@ -140,13 +171,13 @@ public class BlockFact {
     }
 
     public void setProp(int x, int y, int z, int p) {
-        var chunk = findChunk(root, x, y, z, getter);
+        var chunk = findChunk(x, y, z);
         setProp(x, y, z, p, chunk);
     }
 
     private void setProp(int x, int y, int z, int p, MapChunk chunk) {
         final int off = calcOff(chunk, x, y, z);
-        MapBlockBuffer.setProp(chunk.getBlocks(), off, p);
+        MapBlockBuffer.setProp(chunk, off, p);
         setChunk(setter, chunk);
     }
 
@@ -155,13 +186,13 @@ public class BlockFact {
     }
 
     public int getProp(int x, int y, int z) {
-        var chunk = findChunk(root, x, y, z, getter);
+        var chunk = findChunk(x, y, z);
         return getProp(x, y, z, chunk);
     }
 
     private int getProp(int x, int y, int z, MapChunk chunk) {
         final int off = calcOff(chunk, x, y, z);
-        return MapBlockBuffer.getProp(chunk.getBlocks(), off);
+        return MapBlockBuffer.getProp(chunk, off);
     }
 
     public int getProp() {
@@ -197,7 +228,7 @@ public class BlockFact {
     }
 
     public void addProp(int x, int y, int z, int flags) {
-        var chunk = findChunk(root, x, y, z, getter);
+        var chunk = findChunk(x, y, z);
         int p = getProp(x, y, z, chunk);
         setProp(x, y, z, p | flags, chunk);
     }
@@ -211,7 +242,7 @@ public class BlockFact {
     }
 
     public void removeProp(int x, int y, int z, int flags) {
-        var chunk = findChunk(root, x, y, z, getter);
+        var chunk = findChunk(x, y, z);
         int p = getProp(x, y, z, chunk);
         setProp(x, y, z, p & ~flags, chunk);
     }
@@ -225,9 +256,9 @@ public class BlockFact {
     }
 
     public void setTemp(int x, int y, int z, int t) {
-        var chunk = findChunk(root, x, y, z, getter);
+        var chunk = findChunk(x, y, z);
         final int off = calcOff(chunk, x, y, z);
-        MapBlockBuffer.setTemp(chunk.getBlocks(), off, t);
+        MapBlockBuffer.setTemp(chunk, off, t);
         setChunk(setter, chunk);
     }
 
@@ -236,9 +267,9 @@ public class BlockFact {
     }
 
     public int getTemp(int x, int y, int z) {
-        var chunk = findChunk(root, x, y, z, getter);
+        var chunk = findChunk(x, y, z);
         final int off = calcOff(chunk, x, y, z);
-        return MapBlockBuffer.getTemp(chunk.getBlocks(), off);
+        return MapBlockBuffer.getTemp(chunk, off);
     }
 
     public int getTemp() {
@@ -246,9 +277,9 @@ public class BlockFact {
     }
 
     public void setLux(int x, int y, int z, int l) {
-        var chunk = findChunk(root, x, y, z, getter);
+        var chunk = findChunk(x, y, z);
         final int off = calcOff(chunk, x, y, z);
-        MapBlockBuffer.setLux(chunk.getBlocks(), off, l);
+        MapBlockBuffer.setLux(chunk, off, l);
         setChunk(setter, chunk);
     }
 
@@ -257,9 +288,9 @@ public class BlockFact {
     }
 
     public int getLux(int x, int y, int z) {
-        var chunk = findChunk(root, x, y, z, getter);
+        var chunk = findChunk(x, y, z);
         final int off = calcOff(chunk, x, y, z);
-        return MapBlockBuffer.getLux(chunk.getBlocks(), off);
+        return MapBlockBuffer.getLux(chunk, off);
     }
 
     public int getLux() {
@@ -328,7 +359,7 @@ public class BlockFact {
     }
 
     private boolean isNeighborsFlag(int flag, NeighboringDir... dirs) {
-        var chunk = findChunk(root, x, y, z, getter);
+        var chunk = findChunk(x, y, z);
         for (var dir : dirs) {
             if (!isNeighborFlag(chunk, dir, flag)) {
                 return false;
@@ -365,6 +396,9 @@ public class BlockFact {
         int dx = x + dir.pos.x;
         int dy = y + dir.pos.y;
         int dz = z + dir.pos.z;
+        if (index != null && !chunk.isInside(dx, dy, dz)) {
+            return isProp(dx, dy, dz, flag, index.getChunk(dx, dy, dz, getter));
+        }
         if (dx < chunk.pos.x) {
             chunk = getter.get(MapChunk.OBJECT_TYPE, cid2Id(chunk.neighbors[W.ordinal()]));
             return isNeighborFlag(chunk, dir, flag);
@@ -397,7 +431,7 @@ public class BlockFact {
      * natural light above the fact block.
      */
     public boolean isLineOfSightUp() {
-        var chunk = findChunk(root, x, y, z, getter);
+        var chunk = findChunk(x, y, z);
         var c = chunk;
         for (int zz = z - 1; zz >= 0;) {
             if (c.isInside(x, y, zz)) {
@@ -408,6 +442,8 @@ public class BlockFact {
                     zz--;
                     continue;
                 }
+            } else if (index != null) {
+                c = index.getChunk(x, y, zz, getter);
             } else {
                 c = getter.get(MapChunk.OBJECT_TYPE, cid2Id(c.neighbors[U.ordinal()]));
             }
@@ -22,6 +22,7 @@ import org.evrete.api.Knowledge;
 
 import com.anrisoftware.dwarfhustle.model.api.objects.GameMap;
 import com.anrisoftware.dwarfhustle.model.api.objects.MapChunk;
+import com.anrisoftware.dwarfhustle.model.api.objects.MapChunksIndex;
 import com.anrisoftware.dwarfhustle.model.api.objects.ObjectsGetter;
 import com.anrisoftware.dwarfhustle.model.api.objects.ObjectsSetter;
 
@@ -57,15 +58,17 @@ public class TerrainKnowledge extends AbstractKnowledge {
     public <T extends BlockFact> void runTerrainUpdateRules(ObjectsGetter og, ObjectsSetter os, Knowledge knowledge,
             GameMap gm) {
         var session = knowledge.newStatefulSession();
+        var index = MapChunksIndex.getChunksIndex(gm, og);
         for (int i = 0; i < gm.getChunksCount(); i++) {
             MapChunk chunk = og.get(MapChunk.OBJECT_TYPE, MapChunk.cid2Id(i));
             if (chunk.isLeaf()) {
+                chunk = index.getLeaf(i, og);
                 var pos = chunk.getPos();
                 for (int z = pos.z; z < pos.ep.z; z++) {
                     for (int y = pos.y; y < pos.ep.y; y++) {
                         for (int x = pos.x; x < pos.ep.x; x++) {
-                            session.insert(new BlockFact(og, os, chunk, x, y, z, gm.getWidth(), gm.getHeight(),
-                                    gm.getDepth()));
+                            session.insert(new BlockFact(og, os, chunk, index, x, y, z, gm.getWidth(),
+                                    gm.getHeight(), gm.getDepth()));
                         }
                     }
                 }
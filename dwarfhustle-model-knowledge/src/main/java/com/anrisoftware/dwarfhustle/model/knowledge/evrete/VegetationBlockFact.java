@@ -24,6 +24,7 @@ import org.eclipse.collections.api.map.primitive.IntIntMap;
 import org.eclipse.collections.api.map.primitive.IntObjectMap;
 
 import com.anrisoftware.dwarfhustle.model.api.objects.MapChunk;
+import com.anrisoftware.dwarfhustle.model.api.objects.MapChunksIndex;
 import com.anrisoftware.dwarfhustle.model.api.objects.ObjectsGetter;
 import com.anrisoftware.dwarfhustle.model.api.objects.ObjectsSetter;
 import com.anrisoftware.dwarfhustle.model.api.vegetations.KnowledgeVegetation;
@@ -47,9 +48,9 @@ public class VegetationBlockFact extends BlockFact {
     private final IntObjectMap<IntList> materials;
 
     public VegetationBlockFact(AtomicBoolean done, Vegetation v, KnowledgeVegetation k, IntIntMap objects,
-            IntObjectMap<IntList> materials, ObjectsGetter og, ObjectsSetter os, MapChunk chunk, int x, int y, int z,
-            int w, int h, int d) {
-        super(og, os, chunk, x, y, z, w, h, d);
+            IntObjectMap<IntList> materials, ObjectsGetter og, ObjectsSetter os, MapChunk chunk, MapChunksIndex index,
+            int x, int y, int z, int w, int h, int d) {
+        super(og, os, chunk, index, x, y, z, w, h, d);
         this.done = done;
         this.v = v;
         this.k = k;
@@ -18,7 +18,6 @@
 package com.anrisoftware.dwarfhustle.model.knowledge.evrete;
 
 import static com.anrisoftware.dwarfhustle.model.api.objects.MapChunk.getChunk;
-import static com.anrisoftware.dwarfhustle.model.db.buffers.MapChunkBuffer.findChunk;
 import static java.lang.String.format;
 import static org.apache.commons.math3.util.FastMath.floor;
 import static org.apache.commons.math3.util.FastMath.max;
@@ -30,6 +29,7 @@ import org.evrete.Configuration;
 import org.evrete.api.Knowledge;
 
 import com.anrisoftware.dwarfhustle.model.api.objects.GameMap;
+import com.anrisoftware.dwarfhustle.model.api.objects.MapChunksIndex;
 import com.anrisoftware.dwarfhustle.model.api.objects.ObjectsGetter;
 import com.anrisoftware.dwarfhustle.model.api.objects.ObjectsSetter;
 import com.anrisoftware.dwarfhustle.model.api.vegetations.KnowledgeVegetation;
@@ -61,7 +61,8 @@ public class VegetationKnowledge extends AbstractKnowledge {
         final int x0 = max(x - wh, 0), x1 = min(x + wh, gm.getWidth() - 1);
         final int y0 = max(y - hh, 0), y1 = min(y + hh, gm.getHeight() - 1);
         final int z0 = max(z - k.getDepthMax(), 0), z1 = min(v.getPos().getZ() + k.rootMaxSize, gm.getDepth() - 1);
-        var chunk = findChunk(root, x0, y0, z0, og);
+        final var index = MapChunksIndex.getChunksIndex(gm, og);
+        var chunk = index.getChunk(x0, y0, z0, og);
         final var done = new AtomicBoolean(false);
         int radius = 1, x0r, y0r, z0r, x1r, y1r, z1r;
         do {
@@ -76,10 +77,10 @@ public class VegetationKnowledge extends AbstractKnowledge {
                 for (int yy = y0r; yy <= y1r; yy++) {
                     for (int xx = x0r; xx <= x1r; xx++) {
                         if (!chunk.isInside(xx, yy, zz)) {
-                            chunk = findChunk(root, xx, yy, zz, og);
+                            chunk = index.getChunk(xx, yy, zz, og);
                         }
                         session.insert(new VegetationBlockFact(done, v, k, getObjects(), getMaterials(), og, os, root,
-                                xx, yy, zz, gm.getWidth(), gm.getHeight(), gm.getDepth()));
+                                index, xx, yy, zz, gm.getWidth(), gm.getHeight(), gm.getDepth()));
                     }
                 }
             }
@@ -22,7 +22,6 @@ import static com.anrisoftware.dwarfhustle.model.actor.CreateActorMessage.create
 import java.time.Duration;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
-import java.util.function.Consumer;
 
 import org.apache.commons.jcs3.JCS;
 import org.apache.commons.jcs3.access.CacheAccess;
@@ -116,7 +115,7 @@ public class KnowledgeJcsCacheActor extends AbstractJcsCacheActor {
     protected void preCachePut(long id, GameObject value) {
         if (value instanceof KnowledgeLoadedObject klo) {
             for (var ko : klo.objects) {
-                cache.put(ko.getId(), ko);
+                cachePut(ko.getId(), ko);
             }
         }
     }
@@ -133,11 +132,6 @@ public class KnowledgeJcsCacheActor extends AbstractJcsCacheActor {
         return (T) cache.get(key);
     }
 
-    @Override
-    protected void retrieveValueFromBackend(CacheGetMessage<?> m, Consumer<GameObject> consumer) {
-        // nop
-    }
-
     @Override
     protected void storeValueBackend(GameObject go) {
         // nop
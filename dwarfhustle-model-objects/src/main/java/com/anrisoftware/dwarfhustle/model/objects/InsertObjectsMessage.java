@@ -0,0 +1,135 @@
+/*
+ * dwarfhustle-model-objects - Manages the compile dependencies for the model.
+ * Copyright © 2022-2025 Erwin Müller (erwin.mueller@anrisoftware.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.anrisoftware.dwarfhustle.model.objects;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Consumer;
+
+import com.anrisoftware.dwarfhustle.model.actor.MessageActor.Message;
+import com.anrisoftware.dwarfhustle.model.api.objects.GameBlockPos;
+import com.anrisoftware.dwarfhustle.model.api.objects.GameMap;
+import com.anrisoftware.dwarfhustle.model.api.objects.GameMapObject;
+import com.anrisoftware.dwarfhustle.model.api.objects.KnowledgeObject;
+
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.javadsl.AskPattern;
+import lombok.RequiredArgsConstructor;
+import lombok.ToString;
+
+/**
+ * Inserts many {@link GameMapObject}(s) into the {@link GameMap} at once. The
+ * objects are stored in bulk and the {@link GameMap} is stored once for all
+ * objects.
+ *
+ * @author Erwin Müller {@literal <erwin@mullerlpublic.de}
+ */
+@ToString(callSuper = true)
+public class InsertObjectsMessage<T extends ObjectResponseMessage> extends Message {
+
+    /**
+     * The object to insert.
+     *
+     * @author Erwin Müller, {@code <erwin@muellerpublic.de>}
+     */
+    @RequiredArgsConstructor
+    @ToString
+    public static class InsertObject {
+
+        public final int cid;
+
+        public final KnowledgeObject ko;
+
+        public final GameBlockPos pos;
+    }
+
+    /**
+     *
+     *
+     * @author Erwin Müller, {@code <erwin@muellerpublic.de>}
+     */
+    @RequiredArgsConstructor
+    @ToString(callSuper = true)
+    public static class InsertObjectsSuccessMessage extends ObjectResponseMessage {
+
+        @ToString.Exclude
+        public final List<GameMapObject> objects;
+    }
+
+    /**
+     * Asks with an {@link InsertObjectsMessage}.
+     */
+    public static CompletionStage<? extends ObjectResponseMessage> askInsertObjects(ActorSystem<Message> a, long gm,
+            List<InsertObject> objects, Duration timeout) {
+        return askInsertObjects(a, gm, objects, timeout, NOP_CONSUMER);
+    }
+
+    /**
+     * Asks with an {@link InsertObjectsMessage}.
+     */
+    public static CompletionStage<? extends ObjectResponseMessage> askInsertObjects(ActorSystem<Message> a, long gm,
+            List<InsertObject> objects, Duration timeout, Consumer<GameMapObject> consumer) {
+        return AskPattern.ask(a, replyTo -> new InsertObjectsMessage<>(replyTo, gm, objects, consumer, NOP), timeout,
+                a.scheduler());
+    }
+
+    private static final Consumer<GameMapObject> NOP_CONSUMER = go -> {
+    };
+
+    private final static Runnable NOP = () -> {
+    };
+
+    /**
+     * Reply to {@link ActorRef}.
+     */
+    @ToString.Exclude
+    public final ActorRef<T> replyTo;
+
+    public final long gm;
+
+    @ToString.Exclude
+    public final List<InsertObject> objects;
+
+    public final Consumer<GameMapObject> setup;
+
+    public final Runnable onInserted;
+
+    public InsertObjectsMessage(ActorRef<T> replyTo, long gm, List<InsertObject> objects,
+            Consumer<GameMapObject> setup, Runnable onInserted) {
+        this.replyTo = replyTo;
+        this.gm = gm;
+        this.objects = objects;
+        this.setup = setup;
+        this.onInserted = onInserted;
+    }
+
+    public InsertObjectsMessage(ActorRef<T> replyTo, long gm, List<InsertObject> objects, Runnable onInserted) {
+        this(replyTo, gm, objects, NOP_CONSUMER, onInserted);
+    }
+
+    public InsertObjectsMessage(ActorRef<T> replyTo, long gm, List<InsertObject> objects,
+            Consumer<GameMapObject> setup) {
+        this(replyTo, gm, objects, setup, NOP);
+    }
+
+    public InsertObjectsMessage(ActorRef<T> replyTo, long gm, List<InsertObject> objects) {
+        this(replyTo, gm, objects, NOP_CONSUMER, NOP);
+    }
+}
@@ -19,6 +19,7 @@ package com.anrisoftware.dwarfhustle.model.objects;
 
 import com.anrisoftware.dwarfhustle.model.actor.MessageActor.Message;
 
+import lombok.RequiredArgsConstructor;
 import lombok.ToString;
 
 /**
@@ -29,4 +30,15 @@ import lombok.ToString;
 @ToString(callSuper = true)
 public class ObjectResponseMessage extends Message {
 
+    /**
+     * Error response.
+     *
+     * @author Erwin Müller, {@code <erwin@muellerpublic.de>}
+     */
+    @RequiredArgsConstructor
+    @ToString(callSuper = true)
+    public static class ObjectErrorMessage extends ObjectResponseMessage {
+
+        public final Throwable error;
+    }
 }
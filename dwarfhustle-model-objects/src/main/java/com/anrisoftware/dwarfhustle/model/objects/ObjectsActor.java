@@ -18,23 +18,42 @@
 package com.anrisoftware.dwarfhustle.model.objects;
 
 import static com.anrisoftware.dwarfhustle.model.actor.CreateActorMessage.createNamedActor;
+import static com.anrisoftware.dwarfhustle.model.api.objects.GameBlockPos.calcIndex;
 import static com.anrisoftware.dwarfhustle.model.api.objects.GameMap.getGameMap;
 import static com.anrisoftware.dwarfhustle.model.db.cache.MapObject.getMapObject;
 import static com.anrisoftware.dwarfhustle.model.db.cache.MapObject.setMapObject;
 
 import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
 
 import org.eclipse.collections.api.factory.Lists;
+import org.eclipse.collections.api.factory.primitive.IntIntMaps;
+import org.eclipse.collections.api.factory.primitive.IntObjectMaps;
+import org.eclipse.collections.api.factory.primitive.IntSets;
+import org.eclipse.collections.api.factory.primitive.LongLists;
 import org.eclipse.collections.api.list.MutableList;
+import org.eclipse.collections.api.list.primitive.MutableLongList;
+import org.eclipse.collections.api.map.primitive.MutableIntIntMap;
+import org.eclipse.collections.api.map.primitive.MutableIntObjectMap;
+import org.eclipse.collections.api.set.primitive.MutableIntSet;
 import org.lable.oss.uniqueid.IDGenerator;
 
 import com.anrisoftware.dwarfhustle.model.actor.ActorSystemProvider;
 import com.anrisoftware.dwarfhustle.model.actor.MessageActor.Message;
 import com.anrisoftware.dwarfhustle.model.actor.ShutdownMessage;
+import com.anrisoftware.dwarfhustle.model.api.objects.GameMap;
 import com.anrisoftware.dwarfhustle.model.api.objects.GameMapObject;
+import com.anrisoftware.dwarfhustle.model.api.objects.GameObject;
 import com.anrisoftware.dwarfhustle.model.api.objects.IdsObjectsProvider.IdsObjects;
+import com.anrisoftware.dwarfhustle.model.api.objects.MapObjectsIndex;
 import com.anrisoftware.dwarfhustle.model.api.objects.ObjectsGetter;
 import com.anrisoftware.dwarfhustle.model.api.objects.ObjectsSetter;
 import com.anrisoftware.dwarfhustle.model.db.cache.CacheResponseMessage;
@@ -45,12 +64,15 @@ import com.anrisoftware.dwarfhustle.model.db.cache.StoredObjectsJcsCacheActor;
 import com.anrisoftware.dwarfhustle.model.objects.DeleteBulkObjectsMessage.DeleteBulkObjectsSuccessMessage;
 import com.anrisoftware.dwarfhustle.model.objects.DeleteObjectMessage.DeleteObjectSuccessMessage;
 import com.anrisoftware.dwarfhustle.model.objects.InsertObjectMessage.InsertObjectSuccessMessage;
+import com.anrisoftware.dwarfhustle.model.objects.InsertObjectsMessage.InsertObjectsSuccessMessage;
+import com.anrisoftware.dwarfhustle.model.objects.ObjectResponseMessage.ObjectErrorMessage;
 import com.anrisoftware.dwarfhustle.model.objects.RetrieveObjectsMessage.RetrieveObjectsSuccessMessage;
 import com.google.inject.Injector;
 import com.google.inject.assistedinject.Assisted;
 
 import akka.actor.typed.ActorRef;
 import akka.actor.typed.Behavior;
+import akka.actor.typed.DispatcherSelector;
 import akka.actor.typed.javadsl.ActorContext;
 import akka.actor.typed.javadsl.BehaviorBuilder;
 import akka.actor.typed.javadsl.Behaviors;
@@ -64,7 +86,16 @@ import lombok.val;
 import lombok.extern.slf4j.Slf4j;
 
 /**
+ * Inserts, deletes and retrieves the objects of the map. The messages are
+ * handled on the blocking I/O dispatcher, one after the other for each objects
+ * lock stripe of the {@link GameMap}. The messages for blocks on different
+ * stripes are processed in parallel, the messages for the same stripe in the
+ * order they are received. The deletes wait for all stripes, because the block
+ * of the object is only known after the object is loaded. The callbacks and the
+ * replies run on the actor.
+ *
  * @see InsertObjectMessage
+ * @see InsertObjectsMessage
  * @see DeleteObjectMessage
  * @author Erwin Müller, {@code <erwin@muellerpublic.de>}
  */
@@ -77,6 +108,16 @@ public class ObjectsActor {
 
     public static final int ID = KEY.hashCode();
 
+    /**
+     * Maximum count of IDs that are generated at once.
+     */
+    private static final int IDS_BATCH_SIZE = 1000;
+
+    /**
+     * All objects lock stripes of the {@link GameMap}.
+     */
+    private static final int[] ALL_STRIPES = IntStream.range(0, GameMap.OBJECTS_LOCK_STRIPES).toArray();
+
     @RequiredArgsConstructor
     @ToString(callSuper = true)
     private static class InitialStateMessage extends Message {
@@ -99,6 +140,18 @@ public class ObjectsActor {
         public final CacheResponseMessage<?> res;
     }
 
+    /**
+     * The handler of a message was run on the workers. Contains the callbacks
+     * and the reply of the message that run on the actor.
+     */
+    @RequiredArgsConstructor
+    @ToString(callSuper = true)
+    private static class HandledMessage extends Message {
+        public final ActorRef<?> replyTo;
+        public final Runnable done;
+        public final Throwable cause;
+    }
+
     /**
      * Factory to create {@link ObjectsActor}.
      *
@@ -160,6 +213,16 @@ public class ObjectsActor {
 
     private InitialStateMessage is;
 
+    /**
+     * Runs the handlers of the messages.
+     */
+    private Executor workers;
+
+    /**
+     * The last handler of each objects lock stripe. Only accessed by the actor.
+     */
+    private final CompletableFuture<?>[] stripes = new CompletableFuture<?>[GameMap.OBJECTS_LOCK_STRIPES];
+
     /**
      * Stash behavior. Returns a behavior for the messages:
      *
@@ -195,6 +258,8 @@ public class ObjectsActor {
     private Behavior<Message> onInitialState(InitialStateMessage m) {
         log.debug("onInitialState");
         is = m;
+        workers = context.getSystem().dispatchers().lookup(DispatcherSelector.blocking());
+        Arrays.fill(stripes, CompletableFuture.completedFuture(null));
         return buffer.unstashAll(getInitialBehavior()//
                 .build());
     }
@@ -207,47 +272,177 @@ public class ObjectsActor {
         return Behaviors.stopped();
     }
 
+    /**
+     * Runs the handler of the message on the {@link #workers} after the previous
+     * handlers of the objects lock stripes are done. The callbacks and the reply
+     * that are returned by the handler are piped back to the actor in a
+     * {@link HandledMessage}.
+     */
+    private Behavior<Message> dispatch(ActorRef<?> replyTo, int[] stripes, Supplier<Runnable> handler) {
+        final var previous = new CompletableFuture<?>[stripes.length];
+        for (int i = 0; i < stripes.length; i++) {
+            previous[i] = this.stripes[stripes[i]];
+        }
+        final var next = CompletableFuture.allOf(previous).thenApplyAsync(v -> handler.get(), workers);
+        final var tail = next.handle((done, ex) -> null);
+        for (final int stripe : stripes) {
+            this.stripes[stripe] = tail;
+        }
+        context.pipeToSelf(next, (done, cause) -> new HandledMessage(replyTo, done, cause));
+        return Behaviors.same();
+    }
+
+    /**
+     * Replies with {@link ObjectErrorMessage} if the message could not be
+     * handled.
+     */
+    @SuppressWarnings("unchecked")
+    private Behavior<Message> replyError(ActorRef<?> replyTo, Throwable ex) {
+        final var cause = ex instanceof CompletionException ? ex.getCause() : ex;
+        log.error("Handle message", cause);
+        ((ActorRef<Message>) replyTo).tell(new ObjectErrorMessage(cause));
+        return Behaviors.same();
+    }
+
+    /**
+     * Runs the callbacks and the reply of the handled message. Replies with
+     * {@link ObjectErrorMessage} if the handler failed.
+     */
+    private Behavior<Message> onHandled(HandledMessage m) {
+        if (m.cause != null) {
+            return replyError(m.replyTo, m.cause);
+        }
+        m.done.run();
+        return Behaviors.same();
+    }
+
     /**
      * @see InsertObjectMessage
      */
-    @SneakyThrows
     private Behavior<Message> onInsertObject(InsertObjectMessage<? super ObjectResponseMessage> m) {
-        final GameMapObject go = m.ko.createObject(ids.generate());
-        go.setMap(m.gm);
-        go.setPos(m.pos);
-        go.setKid(m.ko.getKid());
-        go.setOid(m.ko.getKnowledgeType().hashCode());
-        go.setVisible(true);
-        go.setCanSelect(true);
-        m.setup.accept(go);
+        try {
+            final var gm = getGameMap(is.og, m.gm);
+            final GameMapObject go = m.ko.createObject(ids.generate());
+            go.setMap(m.gm);
+            go.setPos(m.pos);
+            go.setKid(m.ko.getKid());
+            go.setOid(m.ko.getKnowledgeType().hashCode());
+            go.setVisible(true);
+            go.setCanSelect(true);
+            m.setup.accept(go);
+            final int stripe = gm.getObjectsStripe(calcIndex(gm, go.getPos()));
+            return dispatch(m.replyTo, new int[] { stripe }, () -> insertObject(m, gm, go));
+        } catch (final Exception e) {
+            return replyError(m.replyTo, e);
+        }
+    }
+
+    @SneakyThrows
+    private Runnable insertObject(InsertObjectMessage<? super ObjectResponseMessage> m, GameMap gm,
+            GameMapObject go) {
         is.os.set(go.getObjectType(), go);
-        final var gm = getGameMap(is.og, m.gm);
-        try (var lock = gm.acquireLockMapObjects()) {
+        final var objectsIndex = getObjectsIndex(gm);
+        try (var lock = gm.acquireLockMapObjects(calcIndex(gm, go.getPos()))) {
             final var mo = getMapObject(is.mg, gm, go.getPos());
             mo.setCid(m.cid);
             mo.addObject(go.getObjectType(), go.getId());
             setMapObject(is.ms, mo);
             gm.addFilledBlock(mo.getCid(), mo.getIndex());
-            is.os.set(gm.getObjectType(), gm);
         }
-        m.onInserted.run();
-        m.replyTo.tell(new InsertObjectSuccessMessage(go));
-        return Behaviors.same();
+        objectsIndex.add(go);
+        is.os.set(gm.getObjectType(), gm);
+        return () -> {
+            m.onInserted.run();
+            m.replyTo.tell(new InsertObjectSuccessMessage(go));
+        };
     }
 
     /**
-     * @see DeleteObjectSuccessMessage
+     * @see InsertObjectsMessage
      */
+    private Behavior<Message> onInsertObjects(Object om) {
+        @SuppressWarnings("unchecked")
+        val m = (InsertObjectsMessage<? super ObjectResponseMessage>) om;
+        try {
+            val gm = getGameMap(is.og, m.gm);
+            final int size = m.objects.size();
+            final MutableList<GameMapObject> objects = Lists.mutable.withInitialCapacity(size);
+            final MutableIntObjectMap<MutableList<GameMapObject>> blocks = IntObjectMaps.mutable.empty();
+            final MutableIntIntMap blocksCids = IntIntMaps.mutable.empty();
+            final MutableIntSet stripes = IntSets.mutable.empty();
+            final Deque<byte[]> idsBatch = new ArrayDeque<>(Math.min(IDS_BATCH_SIZE, size));
+            for (val o : m.objects) {
+                if (idsBatch.isEmpty()) {
+                    idsBatch.addAll(ids.batch(Math.min(IDS_BATCH_SIZE, size - objects.size())));
+                }
+                final GameMapObject go = o.ko.createObject(idsBatch.poll());
+                go.setMap(m.gm);
+                go.setPos(o.pos);
+                go.setKid(o.ko.getKid());
+                go.setOid(o.ko.getKnowledgeType().hashCode());
+                go.setVisible(true);
+                go.setCanSelect(true);
+                m.setup.accept(go);
+                objects.add(go);
+                final int index = calcIndex(gm, o.pos);
+                blocks.getIfAbsentPut(index, Lists.mutable::empty).add(go);
+                blocksCids.put(index, o.cid);
+                stripes.add(gm.getObjectsStripe(index));
+            }
+            return dispatch(m.replyTo, stripes.toArray(), () -> insertObjects(m, gm, objects, blocks, blocksCids));
+        } catch (final Exception e) {
+            return replyError(m.replyTo, e);
+        }
+    }
+
     @SneakyThrows
+    private Runnable insertObjects(InsertObjectsMessage<? super ObjectResponseMessage> m, GameMap gm,
+            MutableList<GameMapObject> objects, MutableIntObjectMap<MutableList<GameMapObject>> blocks,
+            MutableIntIntMap blocksCids) {
+        final var objectsIndex = getObjectsIndex(gm);
+        final MutableIntObjectMap<MutableList<GameObject>> types = IntObjectMaps.mutable.empty();
+        objects.forEach(go -> types.getIfAbsentPut(go.getObjectType(), Lists.mutable::empty).add(go));
+        types.forEachKeyValue(is.os::set);
+        final MutableList<GameObject> mos = Lists.mutable.withInitialCapacity(blocks.size());
+        for (val block : blocks.keyValuesView()) {
+            final int index = block.getOne();
+            try (var lock = gm.acquireLockMapObjects(index)) {
+                final var mo = getMapObject(is.mg, gm, index);
+                mo.setCid(blocksCids.get(index));
+                for (val go : block.getTwo()) {
+                    mo.addObject(go.getObjectType(), go.getId());
+                    gm.addFilledBlock(mo.getCid(), mo.getIndex());
+                }
+                mos.add(mo);
+            }
+        }
+        is.ms.set(MapObject.OBJECT_TYPE, mos);
+        is.os.set(gm.getObjectType(), gm);
+        objects.forEach(objectsIndex::add);
+        return () -> {
+            m.onInserted.run();
+            m.replyTo.tell(new InsertObjectsSuccessMessage(objects.asUnmodifiable()));
+        };
+    }
+
+    /**
+     * @see DeleteObjectSuccessMessage
+     */
     private Behavior<Message> onDeleteObject(Object om) {
         @SuppressWarnings("unchecked")
         var m = (DeleteObjectMessage<? super DeleteObjectSuccessMessage>) om;
+        return dispatch(m.replyTo, ALL_STRIPES, () -> deleteObject(m));
+    }
+
+    @SneakyThrows
+    private Runnable deleteObject(DeleteObjectMessage<? super DeleteObjectSuccessMessage> m) {
         final GameMapObject go = is.og.get(m.type, m.id);
         val gm = getGameMap(is.og, m.gm);
-        try (var lock = gm.acquireLockMapObjects()) {
+        try (var lock = gm.acquireLockMapObjects(calcIndex(gm, go.getPos()))) {
             val mo = getMapObject(is.mg, gm, go.getPos());
-            if (!mo.getOids().isEmpty()) {
+            if (!mo.isEmpty()) {
                 mo.removeObject(m.id);
+                getObjectsIndex(gm).remove(go);
                 is.ms.set(mo.getObjectType(), mo);
                 is.os.remove(go.getObjectType(), go);
                 if (mo.isEmpty()) {
@@ -257,60 +452,128 @@ public class ObjectsActor {
                 }
             }
         }
-        m.onDeleted.run();
-        m.replyTo.tell(new DeleteObjectSuccessMessage());
-        return Behaviors.same();
+        return () -> {
+            m.onDeleted.run();
+            m.replyTo.tell(new DeleteObjectSuccessMessage());
+        };
     }
 
     /**
      * @see DeleteBulkObjectsMessage
      */
-    @SneakyThrows
     private Behavior<Message> onDeleteBulkObjectsMessage(Object om) {
         @SuppressWarnings("unchecked")
         val m = (DeleteBulkObjectsMessage<? super ObjectResponseMessage>) om;
+        return dispatch(m.replyTo, ALL_STRIPES, () -> deleteBulkObjects(m));
+    }
+
+    @SneakyThrows
+    private Runnable deleteBulkObjects(DeleteBulkObjectsMessage<? super ObjectResponseMessage> m) {
         val gm = getGameMap(is.og, m.gm);
-        try (var lock = gm.acquireLockMapObjects()) {
-            for (var it = m.ids.longIterator(); it.hasNext();) {
-                final long id = it.next();
-                final GameMapObject go = is.og.get(m.type, id);
+        boolean removedBlocks = false;
+        for (var it = m.ids.longIterator(); it.hasNext();) {
+            final long id = it.next();
+            final GameMapObject go = is.og.get(m.type, id);
+            try (var lock = gm.acquireLockMapObjects(calcIndex(gm, go.getPos()))) {
                 val mo = getMapObject(is.mg, gm, go.getPos());
-                if (!mo.getOids().isEmpty()) {
+                if (!mo.isEmpty()) {
                     mo.removeObject(id);
+                    getObjectsIndex(gm).remove(go);
                     is.ms.set(mo.getObjectType(), mo);
                     is.os.remove(go.getObjectType(), go);
                     if (mo.isEmpty()) {
                         gm.removeFilledBlock(mo.getCid(), mo.getIndex());
-                        is.os.set(gm.getObjectType(), gm);
                         is.ms.remove(MapObject.OBJECT_TYPE, mo);
+                        removedBlocks = true;
                     }
                 }
             }
         }
-        m.onDeleted.run();
-        m.replyTo.tell(new DeleteBulkObjectsSuccessMessage());
-        return Behaviors.same();
+        if (removedBlocks) {
+            is.os.set(gm.getObjectType(), gm);
+        }
+        return () -> {
+            m.onDeleted.run();
+            m.replyTo.tell(new DeleteBulkObjectsSuccessMessage());
+        };
     }
 
     /**
      * @see RetrieveObjectsMessage
      */
-    @SneakyThrows
     private Behavior<Message> onRetrieveObjects(Object om) {
         @SuppressWarnings("unchecked")
         val m = (RetrieveObjectsMessage<? super ObjectResponseMessage>) om;
-        val gm = getGameMap(is.og, m.gm);
+        try {
+            val gm = getGameMap(is.og, m.gm);
+            final int stripe = gm.getObjectsStripe(calcIndex(gm, m.pos));
+            return dispatch(m.replyTo, new int[] { stripe }, () -> retrieveObjects(m, gm));
+        } catch (final Exception e) {
+            return replyError(m.replyTo, e);
+        }
+    }
+
+    private Runnable retrieveObjects(RetrieveObjectsMessage<? super ObjectResponseMessage> m, GameMap gm) {
         MutableList<GameMapObject> objects = Lists.mutable.empty();
-        try (var lock = gm.acquireLockMapObjects()) {
-            val mo = getMapObject(is.mg, gm, m.pos.getX(), m.pos.getY(), m.pos.getZ());
-            mo.getOids().forEachKeyValue((id, type) -> {
-                final GameMapObject go = is.og.get(type, id);
-                objects.add(go);
-            });
+        MutableIntObjectMap<MutableLongList> ids = IntObjectMaps.mutable.empty();
+        val lock = gm.getObjectsLock(calcIndex(gm, m.pos));
+        val mo = getMapObject(is.mg, gm, m.pos);
+        long stamp = mo.size() > 2 ? 0 : lock.tryOptimisticRead();
+        if (stamp != 0) {
+            collectObjectsIds(mo, ids);
         }
-        m.consumer.accept(objects);
-        m.replyTo.tell(new RetrieveObjectsSuccessMessage(objects));
-        return Behaviors.same();
+        if (stamp == 0 || !lock.validate(stamp)) {
+            ids.clear();
+            stamp = lock.readLock();
+            try {
+                collectObjectsIds(mo, ids);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        ids.forEachKeyValue((type, typeIds) -> {
+            is.og.<GameMapObject>getAll(type, typeIds).forEachValue(objects::add);
+        });
+        return () -> {
+            m.consumer.accept(objects);
+            m.replyTo.tell(new RetrieveObjectsSuccessMessage(objects));
+        };
+    }
+
+    /**
+     * Returns the {@link MapObjectsIndex} of the map. The index is filled from the
+     * filled blocks of the map on the first use. The indices of the filled blocks
+     * are copied first, so the {@link MapObject}s are not loaded while the stripes
+     * of the filled blocks are locked.
+     */
+    private MapObjectsIndex getObjectsIndex(GameMap gm) {
+        final var index = gm.getObjectsIndex();
+        if (!index.isFilled()) {
+            synchronized (index) {
+                if (!index.isFilled()) {
+                    gm.getFilledBlocksIndices().forEach(i -> {
+                        final int x = i % gm.getWidth();
+                        final int y = i / gm.getWidth() % gm.getHeight();
+                        final int z = i / gm.getWidth() / gm.getHeight();
+                        getMapObject(is.mg, gm, i).forEachObject((id, type) -> index.add(type, id, x, y, z));
+                    });
+                    index.setFilled(true);
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Collects the IDs of the objects on the block grouped by the object type. The
+     * IDs are only collected with an optimistic read if the objects are in the
+     * inline slots of the {@link MapObject}, the spill map is read under the read
+     * lock.
+     */
+    private void collectObjectsIds(MapObject mo, MutableIntObjectMap<MutableLongList> ids) {
+        mo.forEachObject((id, type) -> {
+            ids.getIfAbsentPut(type, LongLists.mutable::empty).add(id);
+        });
     }
 
     /**
@@ -318,12 +581,20 @@ public class ObjectsActor {
      *
      * <ul>
      * <li>{@link ShutdownMessage}
+     * <li>{@link HandledMessage}
+     * <li>{@link InsertObjectMessage}
+     * <li>{@link InsertObjectsMessage}
+     * <li>{@link DeleteObjectMessage}
+     * <li>{@link DeleteBulkObjectsMessage}
+     * <li>{@link RetrieveObjectsMessage}
      * </ul>
      */
     private BehaviorBuilder<Message> getInitialBehavior() {
         return Behaviors.receive(Message.class)//
                 .onMessage(ShutdownMessage.class, this::onShutdown)//
+                .onMessage(HandledMessage.class, this::onHandled)//
                 .onMessage(InsertObjectMessage.class, this::onInsertObject)//
+                .onMessage(InsertObjectsMessage.class, this::onInsertObjects)//
                 .onMessage(DeleteObjectMessage.class, this::onDeleteObject)//
                 .onMessage(DeleteBulkObjectsMessage.class, this::onDeleteBulkObjectsMessage)//
                 .onMessage(RetrieveObjectsMessage.class, this::onRetrieveObjects)//
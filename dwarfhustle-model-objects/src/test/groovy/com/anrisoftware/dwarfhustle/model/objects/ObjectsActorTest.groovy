@@ -0,0 +1,314 @@
+/*
+ * dwarfhustle-model-objects - Manages the compile dependencies for the model.
+ * Copyright © 2022-2025 Erwin Müller (erwin.mueller@anrisoftware.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.anrisoftware.dwarfhustle.model.objects
+
+import static com.anrisoftware.dwarfhustle.model.api.objects.GameBlockPos.calcIndex
+import static java.time.Duration.ofSeconds
+
+import java.nio.ByteBuffer
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+import org.junit.jupiter.api.AfterAll
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.Timeout
+import org.lable.oss.uniqueid.IDGenerator
+
+import com.anrisoftware.dwarfhustle.model.actor.ActorSystemProvider
+import com.anrisoftware.dwarfhustle.model.actor.DwarfhustleModelActorsModule
+import com.anrisoftware.dwarfhustle.model.actor.MessageActor.Message
+import com.anrisoftware.dwarfhustle.model.api.miscobjects.KnowledgeContainer
+import com.anrisoftware.dwarfhustle.model.api.objects.GameBlockPos
+import com.anrisoftware.dwarfhustle.model.api.objects.GameMap
+import com.anrisoftware.dwarfhustle.model.api.objects.GameMapObject
+import com.anrisoftware.dwarfhustle.model.api.objects.GameObject
+import com.anrisoftware.dwarfhustle.model.api.objects.ObjectsGetter
+import com.anrisoftware.dwarfhustle.model.api.objects.ObjectsSetter
+import com.anrisoftware.dwarfhustle.model.api.objects.IdsObjectsProvider.IdsObjects
+import com.anrisoftware.dwarfhustle.model.db.cache.MapChunksJcsCacheActor
+import com.anrisoftware.dwarfhustle.model.db.cache.MapObject
+import com.anrisoftware.dwarfhustle.model.db.cache.MapObjectsJcsCacheActor
+import com.anrisoftware.dwarfhustle.model.db.cache.StoredObjectsJcsCacheActor
+import com.anrisoftware.dwarfhustle.model.objects.DeleteObjectMessage.DeleteObjectSuccessMessage
+import com.anrisoftware.dwarfhustle.model.objects.InsertObjectMessage.InsertObjectSuccessMessage
+import com.anrisoftware.dwarfhustle.model.objects.InsertObjectsMessage.InsertObject
+import com.anrisoftware.dwarfhustle.model.objects.InsertObjectsMessage.InsertObjectsSuccessMessage
+import com.anrisoftware.dwarfhustle.model.objects.ObjectResponseMessage.ObjectErrorMessage
+import com.anrisoftware.dwarfhustle.model.objects.RetrieveObjectsMessage.RetrieveObjectsSuccessMessage
+import com.google.inject.AbstractModule
+import com.google.inject.Guice
+import com.google.inject.Injector
+
+import akka.actor.typed.ActorRef
+import akka.actor.typed.javadsl.AskPattern
+
+/**
+ * @see ObjectsActor
+ *
+ * @author Erwin Müller, {@code <erwin@muellerpublic.de>}
+ */
+class ObjectsActorTest {
+
+    /**
+     * Keeps the objects in memory.
+     */
+    static class MemoryObjects implements ObjectsGetter, ObjectsSetter {
+
+        final Map<Long, GameObject> objects = new ConcurrentHashMap<>()
+
+        final Map<Long, Integer> setsCount = new ConcurrentHashMap<>()
+
+        final Closure<GameObject> create
+
+        /**
+         * Blocks the set of the object with the ID until the latch is released.
+         */
+        volatile long blockId = -1
+
+        volatile CountDownLatch blockLatch
+
+        MemoryObjects(Closure<GameObject> create = { null }) {
+            this.create = create
+        }
+
+        @Override
+        <T extends GameObject> T get(int type, long key) {
+            def go = objects[key]
+            if (go == null && (go = create(key)) != null) {
+                objects.putIfAbsent(key, go)
+                go = objects[key]
+            }
+            return go
+        }
+
+        @Override
+        void set(int type, GameObject go) {
+            if (go.id == blockId) {
+                blockLatch.await(10, TimeUnit.SECONDS)
+            }
+            objects[go.id] = go
+            setsCount.merge(go.id, 1, Integer::sum)
+        }
+
+        @Override
+        void set(int type, Iterable<GameObject> values) {
+            values.each { set(type, it) }
+        }
+
+        @Override
+        void remove(int type, GameObject go) {
+            objects.remove(go.id)
+        }
+    }
+
+    /**
+     * Generates consecutive IDs.
+     */
+    static class CountingIds implements IDGenerator {
+
+        final AtomicLong next = new AtomicLong(1)
+
+        @Override
+        byte[] generate() {
+            return toBytes(next.getAndIncrement())
+        }
+
+        static byte[] toBytes(long n) {
+            return ByteBuffer.allocate(8).putLong(n).array()
+        }
+
+        /**
+         * Returns the ID of the next generated object.
+         */
+        long nextId() {
+            return GameObject.toId(toBytes(next.get()))
+        }
+
+        @Override
+        Deque<byte[]> batch(int size) {
+            def res = new ArrayDeque<byte[]>(size)
+            size.times { res << generate() }
+            return res
+        }
+
+        @Override
+        void close() {
+        }
+    }
+
+    static Injector injector
+
+    static ActorSystemProvider actor
+
+    static ActorRef<Message> objectsActor
+
+    static CountingIds ids = new CountingIds()
+
+    static MemoryObjects objects
+
+    static MemoryObjects mapObjects
+
+    static GameMap gm
+
+    static KnowledgeContainer ko = new KnowledgeContainer(1)
+
+    @BeforeAll
+    static void setupActor() {
+        injector = Guice.createInjector(new DwarfhustleModelActorsModule(), new DwarfhustleModelObjectsModule(),
+                new AbstractModule() {
+                    @Override
+                    protected void configure() {
+                        bind(IDGenerator).annotatedWith(IdsObjects).toInstance(ids)
+                    }
+                })
+        actor = injector.getInstance(ActorSystemProvider)
+        objects = new MemoryObjects()
+        mapObjects = new MemoryObjects({ long key -> new MapObject(key as int) })
+        gm = new GameMap(1000, 32, 32, 8)
+        objects.set(GameMap.OBJECT_TYPE, gm)
+        actor.registerObjectsGetter(StoredObjectsJcsCacheActor.ID, objects)
+        actor.registerObjectsSetter(StoredObjectsJcsCacheActor.ID, objects)
+        actor.registerObjectsGetter(MapChunksJcsCacheActor.ID, objects)
+        actor.registerObjectsGetter(MapObjectsJcsCacheActor.ID, mapObjects)
+        actor.registerObjectsSetter(MapObjectsJcsCacheActor.ID, mapObjects)
+        objectsActor = ObjectsActor.create(injector, ofSeconds(5)).toCompletableFuture().get()
+    }
+
+    @AfterAll
+    static void closeActor() {
+        actor.shutdownWait()
+    }
+
+    static askInsert(GameBlockPos pos, Closure setup = {}) {
+        AskPattern.ask(objectsActor, { replyTo ->
+            new InsertObjectMessage<>(replyTo, gm.id, 0, ko, pos, setup, {})
+        }, ofSeconds(15), actor.scheduler).toCompletableFuture()
+    }
+
+    static askRetrieve(GameBlockPos pos) {
+        AskPattern.ask(objectsActor, { replyTo ->
+            new RetrieveObjectsMessage<>(replyTo, gm.id, pos)
+        }, ofSeconds(5), actor.scheduler).toCompletableFuture()
+    }
+
+    static askDelete(int type, long id) {
+        AskPattern.ask(objectsActor, { replyTo ->
+            new DeleteObjectMessage<>(replyTo, gm.id, type, id)
+        }, ofSeconds(5), actor.scheduler).toCompletableFuture()
+    }
+
+    @Test
+    @Timeout(20l)
+    void insert_objects_parallel() {
+        def pos = new GameBlockPos(1, 1, 0)
+        def otherPos = new GameBlockPos(20, 20, 0)
+        assert gm.getObjectsStripe(calcIndex(gm, pos)) != gm.getObjectsStripe(calcIndex(gm, otherPos))
+        objects.blockLatch = new CountDownLatch(1)
+        objects.blockId = ids.nextId()
+        try {
+            def blocked = askInsert(pos)
+            def res = askInsert(otherPos).get(5, TimeUnit.SECONDS)
+            assert res instanceof InsertObjectSuccessMessage
+            assert !blocked.done
+            objects.blockLatch.countDown()
+            assert blocked.get() instanceof InsertObjectSuccessMessage
+        } finally {
+            objects.blockId = -1
+            objects.blockLatch.countDown()
+        }
+    }
+
+    @Test
+    @Timeout(20l)
+    void insert_delete_retrieve_in_order() {
+        def pos = new GameBlockPos(5, 6, 2)
+        long id = ids.nextId()
+        def inserted = askInsert(pos)
+        def deleted = askDelete(KnowledgeContainer.OBJECT_TYPE, id)
+        def retrieved = askRetrieve(pos)
+        assert inserted.get().go.id == id
+        assert deleted.get() instanceof DeleteObjectSuccessMessage
+        assert retrieved.get().objects.empty
+    }
+
+    @Test
+    @Timeout(20l)
+    void insert_retrieve_delete_object() {
+        def pos = new GameBlockPos(3, 4, 1)
+        InsertObjectSuccessMessage inserted = askInsert(pos).get()
+        RetrieveObjectsSuccessMessage retrieved = askRetrieve(pos).get()
+        assert retrieved.objects*.id == [inserted.go.id]
+        assert askDelete(inserted.go.objectType, inserted.go.id).get() instanceof DeleteObjectSuccessMessage
+        retrieved = askRetrieve(pos).get()
+        assert retrieved.objects.empty
+    }
+
+    @Test
+    @Timeout(20l)
+    void insert_objects_blocks() {
+        def gm = new GameMap(1001, 32, 32, 8)
+        objects.set(GameMap.OBJECT_TYPE, gm)
+        int gmSets = objects.setsCount[gm.id]
+        int cid = 7
+        def positions = [
+            new GameBlockPos(2, 2, 3),
+            new GameBlockPos(2, 2, 3),
+            new GameBlockPos(10, 3, 3),
+            new GameBlockPos(25, 30, 4)
+        ]
+        def res = AskPattern.ask(objectsActor, { replyTo ->
+            new InsertObjectsMessage<>(replyTo, gm.id, positions.collect { new InsertObject(cid, ko, it) })
+        }, ofSeconds(15), actor.scheduler).toCompletableFuture().get()
+        assert res instanceof InsertObjectsSuccessMessage
+        List<GameMapObject> inserted = res.objects
+        assert inserted*.pos == positions
+        assert inserted*.id.unique().size() == 4
+        assert objects.setsCount[gm.id] == gmSets + 1
+        def blocks = inserted.groupBy { calcIndex(gm, it.pos) }
+        assert blocks.size() == 3
+        blocks.each { index, gos ->
+            MapObject mo = mapObjects.objects[index as long]
+            assert mo.cid == cid
+            assert mo.size() == gos.size()
+            gos.each { assert mo.containsObject(it.id) }
+            assert gm.isFilledBlock(index)
+            def pos = gos[0].pos
+            def found = gm.objectsIndex.findRange(0, pos.x, pos.y, pos.z, pos.x + 1, pos.y + 1, pos.z + 1)
+            assert found.toSortedArray() == (gos*.id.sort() as long[])
+        }
+        def filled = []
+        gm.forEachFilledBlock(cid, { filled << it })
+        assert filled.sort() == blocks.keySet().sort()
+        assert gm.objectsIndex.size() == 4
+        int twoObjects = calcIndex(gm, positions[0])
+        gm.removeFilledBlock(cid, twoObjects)
+        assert gm.isFilledBlock(twoObjects)
+        gm.removeFilledBlock(cid, twoObjects)
+        assert !gm.isFilledBlock(twoObjects)
+    }
+
+    @Test
+    @Timeout(20l)
+    void delete_unknown_object_error() {
+        def res = askDelete(KnowledgeContainer.OBJECT_TYPE, 999_999)
+        assert res.get() instanceof ObjectErrorMessage
+    }
+}